@@ -0,0 +1,42 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler (<code>-prof gc</code>) enabled, so every
+ * result reports the bytes allocated per operation next to its score. All JMH command line
+ * options are accepted, e.g. <code>java -jar benchmarks.jar EthernetAddress -f 1</code>.
+ */
+public class BenchmarkMain {
+	private BenchmarkMain() {
+		super();
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+		if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()
+				|| commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		Options options = new OptionsBuilder()
+				.parent(commandLineOptions)
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
+
+/*
+ * $Log$
+ */
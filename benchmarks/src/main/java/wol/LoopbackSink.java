@@ -0,0 +1,80 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A UDP receiver on the loopback interface which drains and counts every datagram sent to it.
+ * Used as the target of the send benchmarks.
+ */
+public class LoopbackSink implements Closeable {
+	private final DatagramChannel channel;
+	private final Thread thread;
+	private final AtomicLong received = new AtomicLong();
+
+	public LoopbackSink() throws IOException {
+		super();
+		channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.valueOf(4 * 1024 * 1024));
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "loopback-sink");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the address the sink listens on.
+	 *
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+
+	/**
+	 * Returns the number of datagrams received so far.
+	 *
+	 * @return the number of datagrams
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void drain() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+
+		try {
+			while (true) {
+				buffer.clear();
+				channel.receive(buffer);
+				received.incrementAndGet();
+			}
+		} catch (ClosedChannelException e) {
+			// closed by close()
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,93 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+
+/**
+ * Measures how {@link ParallelWakeSender} scales with the number of workers, sending batches of
+ * {@value #BATCH} packets to a {@link LoopbackSink}, against one {@link WakeSender} on the
+ * calling thread. Scores are packets per second. The scaling is bounded by the processors of
+ * the machine and by the single thread draining the sink.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelSendBenchmark {
+	private final static int BATCH = 8192;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private ParallelWakeSender parallelSender;
+	private EthernetAddress[] ethernetAddresses;
+	private SocketAddress[] targets;
+	private InetSocketAddress target;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new LoopbackSink();
+		target = sink.getAddress();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+		parallelSender = new ParallelWakeSender(threads, 4 * 1024 * 1024).open();
+
+		long[] addresses = Fleet.addresses(BATCH, 42);
+
+		ethernetAddresses = new EthernetAddress[BATCH];
+		targets = new SocketAddress[BATCH];
+
+		for (int i = 0; i < BATCH; i++) {
+			ethernetAddresses[i] = new EthernetAddress(addresses[i]);
+			targets[i] = target;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		parallelSender.close();
+		sender.close();
+		sink.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int parallel() throws Exception {
+		return parallelSender.send(ethernetAddresses, targets);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int single() throws Exception {
+		return sender.send(ethernetAddresses, target.getAddress(), target.getPort());
+	}
+}
+
+/*
+ * $Log$
+ */
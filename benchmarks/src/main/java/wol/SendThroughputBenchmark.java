@@ -0,0 +1,99 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.Configuration;
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+import wol.configuration.Machine;
+
+/**
+ * Measures end to end packets per second sent to a {@link LoopbackSink}. Scores are packets
+ * per second; every invocation sends a batch of {@value #BATCH} packets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendThroughputBenchmark {
+	private final static int BATCH = 1024;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private EthernetAddress[] ethernetAddresses;
+	private FrameCache frameCache;
+	private InetSocketAddress target;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new LoopbackSink();
+		target = sink.getAddress();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+
+		long[] addresses = Fleet.addresses(BATCH, 42);
+		Machine[] machines = Fleet.machines(BATCH, 42);
+
+		ethernetAddresses = new EthernetAddress[BATCH];
+
+		for (int i = 0; i < BATCH; i++) {
+			ethernetAddresses[i] = new EthernetAddress(addresses[i]);
+			machines[i].setHost(target.getAddress().getHostAddress());
+			machines[i].setPort(target.getPort());
+		}
+
+		Configuration configuration = new Configuration(new File(System.getProperty("java.io.tmpdir"), "wakeonlan-send.hosts"));
+
+		configuration.setMachines(machines);
+		frameCache = new FrameCache(configuration);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		frameCache.dispose();
+		sender.close();
+		sink.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void wakeupUtil() throws Exception {
+		WakeUpUtil.wakeup(ethernetAddresses, target.getAddress(), target.getPort());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int wakeSender() throws Exception {
+		return sender.send(ethernetAddresses, target.getAddress(), target.getPort());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int frameCache() throws Exception {
+		return sender.send(frameCache);
+	}
+}
+
+/*
+ * $Log$
+ */
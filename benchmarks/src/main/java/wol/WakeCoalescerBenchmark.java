@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+
+/**
+ * Measures wake requests per second for a small set of hot ethernet addresses, as sent by
+ * orchestration tools retrying the same wake up, with and without a {@link WakeCoalescer}.
+ * The <code>packets</code> counter reports the magic packets which actually reached the network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WakeCoalescerBenchmark {
+	private final static int HOT = 64;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private WakeCoalescer coalescer;
+	private WakeTarget[] targets;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new LoopbackSink();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+		coalescer = new WakeCoalescer(sender);
+
+		InetSocketAddress target = sink.getAddress();
+		long[] addresses = Fleet.addresses(HOT, 42);
+
+		targets = new WakeTarget[HOT];
+
+		for (int i = 0; i < HOT; i++) {
+			targets[i] = new WakeTarget(new EthernetAddress(addresses[i]), target);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		sender.close();
+		sink.close();
+	}
+
+	/**
+	 * The request counter of one thread and the packets it caused.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Requests {
+		public long packets;
+		int next;
+	}
+
+	@Benchmark
+	public boolean coalesced(Requests requests) throws Exception {
+		boolean sent = coalescer.wake(targets[requests.next++ & (HOT - 1)]).join().booleanValue();
+
+		if (sent) {
+			requests.packets++;
+		}
+
+		return sent;
+	}
+
+	@Benchmark
+	public boolean direct(Requests requests) throws Exception {
+		WakeTarget target = targets[requests.next++ & (HOT - 1)];
+
+		sender.send(new EthernetAddress[] { target.getEthernetAddress() }, target.getAddress().getAddress(), target.getAddress().getPort());
+		requests.packets++;
+
+		return true;
+	}
+}
+
+/*
+ * $Log$
+ */
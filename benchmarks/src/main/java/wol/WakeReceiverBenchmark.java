@@ -0,0 +1,114 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+
+/**
+ * Measures how many magic packets per second a {@link WakeReceiver} validates and counts, against
+ * a {@link LoopbackSink} which only drains them. Every invocation sends {@value #BATCH} packets for
+ * {@value #ADDRESSES} ethernet addresses and waits until the receiver has seen them, so the score
+ * includes the sender; datagrams dropped by a full receive buffer end the wait after a second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WakeReceiverBenchmark {
+	private final static int BATCH = 1024;
+	private final static int ADDRESSES = 256;
+
+	private WakeReceiver receiver;
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private EthernetAddress[] ethernetAddresses;
+	private InetSocketAddress receiverAddress;
+	private InetSocketAddress sinkAddress;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		receiver = new WakeReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).start();
+		receiverAddress = receiver.getAddress();
+		sink = new LoopbackSink();
+		sinkAddress = sink.getAddress();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+
+		long[] addresses = Fleet.addresses(ADDRESSES, 42);
+
+		ethernetAddresses = new EthernetAddress[BATCH];
+
+		for (int i = 0; i < BATCH; i++) {
+			ethernetAddresses[i] = new EthernetAddress(addresses[i % ADDRESSES]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		if (receiver.getInvalid() > 0 || receiver.getEthernetAddressCount() != ADDRESSES) {
+			throw new IllegalStateException(receiver.getInvalid() + " invalid packets, " + receiver.getEthernetAddressCount()
+					+ " ethernet addresses");
+		}
+
+		sender.close();
+		sink.close();
+		receiver.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long receiver() throws Exception {
+		long expected = receiver.getReceived() + BATCH;
+
+		sender.send(ethernetAddresses, receiverAddress.getAddress(), receiverAddress.getPort());
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+
+		while (receiver.getReceived() < expected && System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+
+		return receiver.getReceived();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long sink() throws Exception {
+		long expected = sink.getReceived() + BATCH;
+
+		sender.send(ethernetAddresses, sinkAddress.getAddress(), sinkAddress.getPort());
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+
+		while (sink.getReceived() < expected && System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+
+		return sink.getReceived();
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,80 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+
+/**
+ * Measures the time a {@link WakeScheduler} needs to drain a plan of {@value #MACHINES} machines
+ * sent to a {@link LoopbackSink}. With a packet rate set, the time should stay close to
+ * machines / rate.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WakeSchedulerBenchmark {
+	private final static int MACHINES = 100000;
+
+	@Param({ "0", "500000" })
+	public double packetsPerSecond;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private WakeScheduler scheduler;
+	private WakeTarget[] targets;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new LoopbackSink();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+		scheduler = new WakeScheduler(sender);
+		scheduler.setPacketsPerSecond(packetsPerSecond);
+
+		InetSocketAddress address = sink.getAddress();
+		long[] addresses = Fleet.addresses(MACHINES, 42);
+
+		targets = new WakeTarget[MACHINES];
+
+		for (int i = 0; i < MACHINES; i++) {
+			targets[i] = new WakeTarget(new EthernetAddress(addresses[i]), address);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		scheduler.close();
+		sender.close();
+		sink.close();
+	}
+
+	@Benchmark
+	public WakePlan drainPlan() throws Exception {
+		return scheduler.schedule(targets).getCompletion().get();
+	}
+}
+
+/*
+ * $Log$
+ */
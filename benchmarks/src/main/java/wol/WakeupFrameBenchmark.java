@@ -0,0 +1,77 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.configuration.EthernetAddress;
+
+/**
+ * Measures building a wakeupframe, once into a new array and once into a reused buffer, and
+ * validating a received one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WakeupFrameBenchmark {
+	private EthernetAddress ethernetAddress;
+	private ByteBuffer heapBuffer;
+	private ByteBuffer directBuffer;
+	private ByteBuffer receivedBuffer;
+
+	@Setup
+	public void setUp() throws Exception {
+		ethernetAddress = new EthernetAddress("00:50:95:10:95:F5");
+		heapBuffer = ByteBuffer.allocate(WakeUpUtil.FRAME_LENGTH);
+		directBuffer = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+		receivedBuffer = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+		WakeUpUtil.createWakeupFrame(ethernetAddress, receivedBuffer);
+		receivedBuffer.flip();
+	}
+
+	@Benchmark
+	public byte[] createWakeupFrame() {
+		return WakeUpUtil.createWakeupFrame(ethernetAddress);
+	}
+
+	@Benchmark
+	public ByteBuffer createWakeupFrameHeapBuffer() {
+		heapBuffer.clear();
+		WakeUpUtil.createWakeupFrame(ethernetAddress, heapBuffer);
+
+		return heapBuffer;
+	}
+
+	@Benchmark
+	public ByteBuffer createWakeupFrameDirectBuffer() {
+		directBuffer.clear();
+		WakeUpUtil.createWakeupFrame(ethernetAddress, directBuffer);
+
+		return directBuffer;
+	}
+
+	@Benchmark
+	public long readWakeupFrame() {
+		return WakeUpUtil.readWakeupFrame(receivedBuffer);
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,110 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading and saving configurations of different sizes. Each invocation is a
+ * complete load or save of the configuration file. The <code>Xml</code> benchmarks measure
+ * the XML format of earlier versions as a baseline.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int machines;
+
+	private File loadFile;
+	private File saveFile;
+	private File xmlFile;
+	private Configuration configuration;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		loadFile = File.createTempFile("wakeonlan-load", ".hosts");
+		saveFile = File.createTempFile("wakeonlan-save", ".hosts");
+		xmlFile = File.createTempFile("wakeonlan-xml", ".hosts");
+		loadFile.delete();
+
+		Configuration source = new Configuration(loadFile);
+
+		source.setMachines(Fleet.machines(machines, 42));
+		source.saveConfig();
+
+		configuration = new Configuration(loadFile);
+		saveXml();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		loadFile.delete();
+		saveFile.delete();
+		xmlFile.delete();
+	}
+
+	@Benchmark
+	public Machine[] loadConfig() throws Exception {
+		configuration.loadConfig();
+
+		return configuration.getMachines();
+	}
+
+	@Benchmark
+	public File saveConfigAs() throws Exception {
+		configuration.saveConfigAs(saveFile);
+
+		return saveFile;
+	}
+
+	@Benchmark
+	public Machine[] loadXml() throws Exception {
+		XMLDecoder decoder = new XMLDecoder(new BufferedInputStream(new FileInputStream(xmlFile)));
+
+		try {
+			return (Machine[]) decoder.readObject();
+		} finally {
+			decoder.close();
+		}
+	}
+
+	@Benchmark
+	public File saveXml() throws Exception {
+		XMLEncoder encoder = new XMLEncoder(new BufferedOutputStream(new FileOutputStream(xmlFile)));
+
+		encoder.writeObject(configuration.getMachines());
+		encoder.close();
+
+		return xmlFile;
+	}
+}
+
+/*
+ * $Log$
+ */
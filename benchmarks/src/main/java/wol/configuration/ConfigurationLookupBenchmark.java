@@ -0,0 +1,83 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures looking up one machine of a configuration by ethernet address and by name, with the
+ * indexes of {@link Configuration} and with a linear scan of {@link Configuration#getMachines()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationLookupBenchmark {
+	@Param({ "1000", "100000" })
+	public int machines;
+
+	private Configuration configuration;
+	private long[] ethernetAddresses;
+	private String[] names;
+	private int next;
+
+	@Setup
+	public void setUp() throws Exception {
+		Machine[] fleet = Fleet.machines(machines, 42);
+
+		configuration = new Configuration();
+		configuration.setMachines(fleet);
+		ethernetAddresses = new long[1024];
+		names = new String[1024];
+
+		for (int i = 0; i < ethernetAddresses.length; i++) {
+			Machine machine = fleet[(int) ((i * 0x9E3779B97F4A7C15L >>> 33) % machines)];
+
+			ethernetAddresses[i] = EthernetAddress.parse(machine.getEthernetAddress());
+			names[i] = machine.getName();
+		}
+	}
+
+	@Benchmark
+	public Machine findByMac() {
+		return configuration.findByMac(ethernetAddresses[next++ & 1023]);
+	}
+
+	@Benchmark
+	public Machine findByName() {
+		return configuration.findByName(names[next++ & 1023]);
+	}
+
+	@Benchmark
+	public Machine scanByName() {
+		String name = names[next++ & 1023];
+		Machine[] all = configuration.getMachines();
+
+		for (int i = 0; i < all.length; i++) {
+			if (name.equals(all[i].getName())) {
+				return all[i];
+			}
+		}
+
+		return null;
+	}
+}
+
+/*
+ * $Log$
+ */
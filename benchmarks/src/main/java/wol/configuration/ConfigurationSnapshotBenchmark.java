@@ -0,0 +1,179 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stresses concurrent readers and editors of a {@link Configuration}: three threads wake up
+ * batches while one thread replaces the machines or edits single machines.
+ * <br>
+ * <br>
+ * Every machine array the editor sets carries one generation in the comments of all its
+ * machines. A reader pinning a {@link ConfigurationSnapshot} must see a single generation in the
+ * whole batch, find every machine of the batch again in the same snapshot, and never see the
+ * version go back; any violation fails the benchmark. The <code>locked</code> group runs the same
+ * lookups through the synchronized indexes of the configuration, which give no such guarantee
+ * across a batch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ConfigurationSnapshotBenchmark {
+	private final static int BATCH = 16;
+
+	@Param({ "1000", "10000" })
+	public int machines;
+
+	private Configuration configuration;
+	private MachineRecord[] template;
+	private long[] ethernetAddresses;
+	private int generation;
+	private int edits;
+
+	@Setup
+	public void setUp() throws Exception {
+		Machine[] fleet = Fleet.machines(machines, 42);
+
+		template = new MachineRecord[fleet.length];
+		ethernetAddresses = new long[fleet.length];
+
+		for (int i = 0; i < fleet.length; i++) {
+			template[i] = fleet[i].toRecord();
+			ethernetAddresses[i] = template[i].getEthernetAddress();
+		}
+
+		// the configuration is never saved, it must not load the hosts file of the user
+		File hostsFile = File.createTempFile("wakeonlan-snapshot", ".hosts");
+
+		hostsFile.delete();
+		configuration = new Configuration(hostsFile);
+		configuration.setMachines(nextGeneration());
+	}
+
+	/**
+	 * The state of one reader.
+	 */
+	@State(Scope.Thread)
+	public static class Reader {
+		long version;
+		int next;
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	@GroupThreads(3)
+	public int snapshotRead(Reader reader) {
+		ConfigurationSnapshot snapshot = configuration.getSnapshot();
+
+		if (snapshot.getVersion() < reader.version) {
+			throw new IllegalStateException("Version went back from " + reader.version + " to " + snapshot.getVersion());
+		}
+
+		reader.version = snapshot.getVersion();
+
+		String comment = null;
+		int found = 0;
+
+		for (int i = 0; i < BATCH; i++) {
+			MachineRecord record = snapshot.findByMac(ethernetAddresses[(reader.next++ & 0x7FFFFFFF) % ethernetAddresses.length]);
+
+			if (null == comment) {
+				comment = record.getComment();
+			} else if (!comment.equals(record.getComment())) {
+				throw new IllegalStateException("Snapshot " + snapshot.getVersion() + " mixes " + comment + " and " + record.getComment());
+			}
+
+			if (record != snapshot.findByName(record.getName())) {
+				throw new IllegalStateException("Snapshot " + snapshot.getVersion() + " lost " + record);
+			}
+
+			found += record.getPort();
+		}
+
+		return found;
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	@GroupThreads(1)
+	public void snapshotWrite() {
+		write();
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(3)
+	public int lockedRead(Reader reader) {
+		int found = 0;
+
+		for (int i = 0; i < BATCH; i++) {
+			Machine machine = configuration.findByMac(ethernetAddresses[(reader.next++ & 0x7FFFFFFF) % ethernetAddresses.length]);
+
+			if (machine != configuration.findByName(machine.getName())) {
+				// the machines were replaced in between, the batch is inconsistent
+				found--;
+			}
+
+			found += machine.getPort();
+		}
+
+		return found;
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public void lockedWrite() {
+		write();
+	}
+
+	/**
+	 * Replaces all machines every 64th call, and changes the port of one machine otherwise.
+	 */
+	private void write() {
+		if (0 == (++edits & 63)) {
+			configuration.setMachines(nextGeneration());
+			return;
+		}
+
+		Machine[] current = configuration.getMachines();
+
+		current[((edits * 31) & 0x7FFFFFFF) % current.length].setPort(edits & 0xFFFF);
+	}
+
+	private Machine[] nextGeneration() {
+		Machine[] fleet = new Machine[template.length];
+		String comment = "Generation " + (++generation);
+
+		for (int i = 0; i < fleet.length; i++) {
+			fleet[i] = template[i].toMachine();
+			fleet[i].setComment(comment);
+		}
+
+		return fleet;
+	}
+}
+
+/*
+ * $Log$
+ */
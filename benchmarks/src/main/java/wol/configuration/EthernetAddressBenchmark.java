@@ -0,0 +1,164 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing, formatting, hashing and comparing ethernet addresses drawn from a
+ * realistic fleet (see {@link Fleet}). Every benchmark processes all {@value #COUNT} addresses
+ * once per invocation, scores are per address.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EthernetAddressBenchmark {
+	private final static int COUNT = 4096;
+
+	private String[] colonNotation;
+	private String[] dashNotation;
+	private String[] ciscoNotation;
+	private String[] bareNotation;
+	private EthernetAddress[] ethernetAddresses;
+	private EthernetAddress[] copies;
+	private Map<EthernetAddress, Integer> hashMap;
+	private MacIndex<Integer> macIndex;
+
+	@Setup
+	public void setUp() throws Exception {
+		long[] addresses = Fleet.addresses(COUNT, 42);
+
+		colonNotation = new String[COUNT];
+		dashNotation = new String[COUNT];
+		ciscoNotation = new String[COUNT];
+		bareNotation = new String[COUNT];
+		ethernetAddresses = new EthernetAddress[COUNT];
+		copies = new EthernetAddress[COUNT];
+		hashMap = new HashMap<EthernetAddress, Integer>();
+		macIndex = new MacIndex<Integer>(COUNT);
+
+		for (int i = 0; i < COUNT; i++) {
+			String bare = String.format("%012X", Long.valueOf(addresses[i]));
+
+			colonNotation[i] = EthernetAddress.toString(addresses[i]);
+			dashNotation[i] = colonNotation[i].replace(':', '-').toLowerCase();
+			ciscoNotation[i] = bare.substring(0, 4) + "." + bare.substring(4, 8) + "." + bare.substring(8);
+			bareNotation[i] = bare;
+			ethernetAddresses[i] = new EthernetAddress(addresses[i]);
+			copies[i] = new EthernetAddress(addresses[i]);
+			hashMap.put(ethernetAddresses[i], Integer.valueOf(i));
+			macIndex.put(addresses[i], Integer.valueOf(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void parseColon(Blackhole blackhole) throws IllegalEthernetAddressException {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(EthernetAddress.parse(colonNotation[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void parseDash(Blackhole blackhole) throws IllegalEthernetAddressException {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(EthernetAddress.parse(dashNotation[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void parseCisco(Blackhole blackhole) throws IllegalEthernetAddressException {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(EthernetAddress.parse(ciscoNotation[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void parseBare(Blackhole blackhole) throws IllegalEthernetAddressException {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(EthernetAddress.parse(bareNotation[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void constructFromString(Blackhole blackhole) throws IllegalEthernetAddressException {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(new EthernetAddress(colonNotation[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void format(Blackhole blackhole) {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(ethernetAddresses[i].toString());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void hashCodes(Blackhole blackhole) {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(ethernetAddresses[i].hashCode());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void equalsCopy(Blackhole blackhole) {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(ethernetAddresses[i].equals(copies[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void equalsNeighbour(Blackhole blackhole) {
+		for (int i = 1; i < COUNT; i++) {
+			blackhole.consume(ethernetAddresses[i].equals(ethernetAddresses[i - 1]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void hashMapLookup(Blackhole blackhole) {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(hashMap.get(copies[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public void macIndexLookup(Blackhole blackhole) {
+		for (int i = 0; i < COUNT; i++) {
+			blackhole.consume(macIndex.get(copies[i].toLong()));
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
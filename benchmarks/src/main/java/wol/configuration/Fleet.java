@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.util.Random;
+
+/**
+ * Generates realistic fleets for the benchmarks: a handful of vendors (OUIs), each with
+ * runs of consecutive NIC specific parts, as seen when machines are bought in batches.
+ */
+public class Fleet {
+	private final static int[] OUIS = {
+		0x000C29, 0x005056, 0x001C42, 0x080027, 0x00163E, 0x3C970E, 0xF4CE46, 0x001B21,
+		0x0050B6, 0xB8AEED, 0x00E04C, 0xD4BED9, 0x001E67, 0x7085C2, 0xA4BADB, 0x00215A
+	};
+
+	private Fleet() {
+		super();
+	}
+
+	/**
+	 * Returns the 48 bit values of the given number of distinct ethernet addresses.
+	 *
+	 * @param count the number of addresses
+	 * @param seed the random seed
+	 * @return the addresses
+	 */
+	public static long[] addresses(int count, long seed) {
+		Random random = new Random(seed);
+		MacIndex<Boolean> seen = new MacIndex<Boolean>(count);
+		long[] addresses = new long[count];
+		int i = 0;
+
+		while (i < count) {
+			long oui = OUIS[random.nextInt(OUIS.length)];
+			long nic = random.nextInt(0x1000000);
+			int run = 1 + random.nextInt(64);
+
+			for (int j = 0; j < run && i < count; j++) {
+				long address = (oui << 24) | ((nic + j) & 0xFFFFFF);
+
+				if (null == seen.put(address, Boolean.TRUE)) {
+					addresses[i++] = address;
+				}
+			}
+		}
+
+		return addresses;
+	}
+
+	/**
+	 * Returns the given number of machines with distinct ethernet addresses.
+	 *
+	 * @param count the number of machines
+	 * @param seed the random seed
+	 * @return the machines
+	 */
+	public static Machine[] machines(int count, long seed) {
+		long[] addresses = addresses(count, seed);
+		Machine[] machines = new Machine[count];
+
+		for (int i = 0; i < count; i++) {
+			Machine machine = new Machine("host-" + i);
+
+			machine.setEthernetAddress(EthernetAddress.toString(addresses[i]));
+			machine.setHost("10." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + ".255");
+			machine.setComment("Rack " + (i / 40));
+			machines[i] = machine;
+		}
+
+		return machines;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,90 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures importing a large <code>dhcpd.leases</code> file into an empty configuration. Every
+ * machine holds four leases, as after a few renewals. The heap is limited to show that the
+ * import only keeps one entry per machine.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+@State(Scope.Benchmark)
+public class ImporterBenchmark {
+	@Param({ "100000", "1000000" })
+	public int leases;
+
+	private File leasesFile;
+	private File hostsFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		long[] addresses = Fleet.addresses(Math.max(1, leases / 4), 42);
+
+		leasesFile = File.createTempFile("wakeonlan-dhcpd", ".leases");
+		hostsFile = File.createTempFile("wakeonlan-import", ".hosts");
+		hostsFile.delete();
+
+		Writer writer = new BufferedWriter(new FileWriter(leasesFile), 64 * 1024);
+
+		try {
+			for (int i = 0; i < leases; i++) {
+				int machine = i % addresses.length;
+
+				writer.write("lease 10." + ((machine >>> 16) & 0xFF) + '.' + ((machine >>> 8) & 0xFF) + '.' + (machine & 0xFF) + " {\n");
+				writer.write("  starts 3 2024/05/15 08:00:00;\n  ends 3 2024/05/15 20:00:00;\n  binding state active;\n");
+				writer.write("  hardware ethernet " + EthernetAddress.toString(addresses[machine]).toLowerCase() + ";\n");
+				writer.write("  client-hostname \"host-" + machine + "\";\n}\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		leasesFile.delete();
+	}
+
+	@Benchmark
+	public Configuration importLeases() throws Exception {
+		Configuration configuration = new Configuration(hostsFile);
+		DhcpLeasesImporter importer = new DhcpLeasesImporter(leasesFile);
+
+		try {
+			importer.importInto(configuration, false);
+		} finally {
+			importer.close();
+		}
+
+		return configuration;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from a cold start to the first wake up target: opening a memory mapped
+ * store and looking up one machine, compared with loading the whole configuration file.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MappedMachineStoreBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int machines;
+
+	private File hostsFile;
+	private File storeFile;
+	private long ethernetAddress;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		hostsFile = File.createTempFile("wakeonlan-load", ".hosts");
+		storeFile = File.createTempFile("wakeonlan-store", ".store");
+		hostsFile.delete();
+
+		Machine[] fleet = Fleet.machines(machines, 42);
+		Configuration source = new Configuration(hostsFile);
+
+		source.setMachines(fleet);
+		source.saveConfig();
+		MappedMachineStore.write(storeFile, Arrays.asList(fleet).iterator());
+		ethernetAddress = EthernetAddress.parse(fleet[machines / 2].getEthernetAddress());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		hostsFile.delete();
+		storeFile.delete();
+	}
+
+	@Benchmark
+	public Machine openAndFind() throws Exception {
+		MappedMachineStore store = MappedMachineStore.open(storeFile);
+
+		try {
+			return store.get(store.indexOf(ethernetAddress));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Benchmark
+	public Machine loadAndFind() throws Exception {
+		Configuration configuration = new Configuration(hostsFile);
+		Machine[] loaded = configuration.getMachines();
+
+		for (int i = 0; i < loaded.length; i++) {
+			if (ethernetAddress == EthernetAddress.parse(loaded[i].getEthernetAddress())) {
+				return loaded[i];
+			}
+		}
+
+		return null;
+	}
+}
+
+/*
+ * $Log$
+ */
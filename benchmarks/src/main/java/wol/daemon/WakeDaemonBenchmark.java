@@ -0,0 +1,142 @@
+/*
+ * $Id$
+ */
+package wol.daemon;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.LoopbackSink;
+import wol.WakeSender;
+import wol.configuration.Configuration;
+import wol.configuration.Fleet;
+import wol.configuration.Machine;
+
+/**
+ * Measures wake requests per second answered by a {@link WakeDaemon} on loopback, with 16 clients
+ * each waiting for the answer before sending the next request. The average latency per request is
+ * the number of clients divided by the score. The HTTP server runs with TCP_NODELAY as it does
+ * when started by {@link WakeDaemon#main(String[])}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(16)
+@State(Scope.Benchmark)
+public class WakeDaemonBenchmark {
+	private final static int MACHINES = 10000;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private WakeDaemon daemon;
+	private InetSocketAddress udpAddress;
+	private String httpBase;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		sink = new LoopbackSink();
+
+		InetSocketAddress target = sink.getAddress();
+		Machine[] machines = Fleet.machines(MACHINES, 42);
+
+		for (int i = 0; i < MACHINES; i++) {
+			machines[i].setHost(target.getAddress().getHostAddress());
+			machines[i].setPort(target.getPort());
+		}
+
+		File file = File.createTempFile("wakeonlan-daemon", ".hosts");
+
+		file.delete();
+
+		Configuration configuration = new Configuration(file);
+
+		configuration.setMachines(machines);
+		sender = new WakeSender(4 * 1024 * 1024);
+		daemon = new WakeDaemon(configuration, sender);
+		daemon.setHttpAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		daemon.setUdpAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		daemon.start();
+		udpAddress = daemon.getUdpAddress();
+		httpBase = "http://127.0.0.1:" + daemon.getHttpAddress().getPort() + "/wake?name=host-";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		daemon.close();
+		sender.close();
+		sink.close();
+	}
+
+	/**
+	 * The connection and request counter of one client.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		DatagramChannel channel;
+		ByteBuffer answer = ByteBuffer.allocate(256);
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(WakeDaemonBenchmark benchmark) throws Exception {
+			channel = DatagramChannel.open();
+			channel.connect(benchmark.udpAddress);
+			next = (int) (Thread.currentThread().getId() * 7919);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			channel.close();
+		}
+
+		int nextMachine() {
+			return (next++ & 0x7FFFFFFF) % MACHINES;
+		}
+	}
+
+	@Benchmark
+	public int udp(Client client) throws Exception {
+		client.channel.write(ByteBuffer.wrap(("name host-" + client.nextMachine()).getBytes(StandardCharsets.UTF_8)));
+		client.answer.clear();
+		client.channel.read(client.answer);
+
+		return client.answer.position();
+	}
+
+	@Benchmark
+	public int http(Client client) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(httpBase + client.nextMachine()).openConnection();
+		InputStream in = connection.getInputStream();
+		int length = in.readAllBytes().length;
+
+		in.close();
+		return length + connection.getResponseCode();
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,93 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wol.LoopbackSink;
+import wol.WakeSender;
+import wol.configuration.EthernetAddress;
+import wol.configuration.Fleet;
+
+/**
+ * Measures the cost of the {@link WakeMetrics} instrumentation: packets per second through a
+ * {@link WakeSender} with the metrics enabled and disabled, and the raw cost of recording into a
+ * {@link Histogram} from several threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+	private final static int BATCH = 1024;
+
+	@Param({ "true", "false" })
+	public boolean enabled;
+
+	private LoopbackSink sink;
+	private WakeSender sender;
+	private EthernetAddress[] ethernetAddresses;
+	private InetSocketAddress target;
+	private Histogram histogram;
+	private long value;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		WakeMetrics.getDefault().setEnabled(enabled);
+		sink = new LoopbackSink();
+		target = sink.getAddress();
+		sender = new WakeSender(4 * 1024 * 1024).open();
+		histogram = new Histogram();
+
+		long[] addresses = Fleet.addresses(BATCH, 42);
+
+		ethernetAddresses = new EthernetAddress[BATCH];
+
+		for (int i = 0; i < BATCH; i++) {
+			ethernetAddresses[i] = new EthernetAddress(addresses[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		sender.close();
+		sink.close();
+		WakeMetrics.getDefault().setEnabled(true);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int send() throws Exception {
+		return sender.send(ethernetAddresses, target.getAddress(), target.getPort());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void record() {
+		histogram.record(value++ & 0xFFFFF);
+	}
+}
+
+/*
+ * $Log$
+ */
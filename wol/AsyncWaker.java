@@ -0,0 +1,232 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+
+/**
+ * Sends magic packets without blocking the caller, with one result per target.
+ * <br>
+ * <br>
+ * The packets are sent through a {@link WakeSender} by the threads of an executor, by default
+ * a pool shared by all wakers with one daemon thread per processor. The returned futures never
+ * complete exceptionally: a target whose packet could not be sent gets a {@link WakeResult}
+ * with the cause, and the remaining targets are sent regardless. Every result also tells how
+ * long the target waited and how long its send took.
+ * <br>
+ * <br>
+ * {@link #wakeAll(WakeTarget[])} hands the targets to the executor in chunks of 256, so large
+ * batches are sent by several threads without one task per target.
+ */
+public class AsyncWaker {
+	private final static Logger LOG = Logger.getLogger(AsyncWaker.class.getName());
+	private final static int CHUNK = 256;
+	private final static Function<WakeResult[], WakeResult> FIRST = new Function<WakeResult[], WakeResult>() {
+		public WakeResult apply(WakeResult[] results) {
+			return results[0];
+		}
+	};
+
+	private static ExecutorService defaultExecutor;
+
+	private final WakeSender sender;
+	private final Executor executor;
+
+	/**
+	 * Creates a new waker running on the {@link #getDefaultExecutor() default executor}.
+	 *
+	 * @param sender the sender. Must be open while machines are woken up
+	 */
+	public AsyncWaker(WakeSender sender) {
+		this(sender, getDefaultExecutor());
+	}
+
+	/**
+	 * Creates a new waker.
+	 *
+	 * @param sender the sender. Must be open while machines are woken up
+	 * @param executor the executor the packets are sent on
+	 */
+	public AsyncWaker(WakeSender sender, Executor executor) {
+		super();
+		this.sender = sender;
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the executor shared by all wakers created without one: a pool with one daemon
+	 * thread per processor, created on first use.
+	 *
+	 * @return the default executor
+	 */
+	public static synchronized Executor getDefaultExecutor() {
+		if (null == defaultExecutor) {
+			final AtomicInteger count = new AtomicInteger();
+
+			defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "async-waker-" + count.incrementAndGet());
+
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return defaultExecutor;
+	}
+
+	/**
+	 * Returns the sender.
+	 *
+	 * @return the sender
+	 */
+	public WakeSender getSender() {
+		return sender;
+	}
+
+	/**
+	 * Returns the executor the packets are sent on.
+	 *
+	 * @return the executor
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sends the magic packet of the given target.
+	 *
+	 * @param target the target
+	 * @return a future completing with the result once the packet was sent or failed
+	 */
+	public CompletableFuture<WakeResult> wake(WakeTarget target) {
+		return wakeAll(new WakeTarget[]{ target }).thenApply(FIRST);
+	}
+
+	/**
+	 * Sends the magic packet of the given ethernet address to the given host and port.
+	 *
+	 * @param ethernetAddress the ethernet address to wake up
+	 * @param host the host the magic packet will be sent to
+	 * @param port the port
+	 * @return a future completing with the result once the packet was sent or failed
+	 */
+	public CompletableFuture<WakeResult> wake(EthernetAddress ethernetAddress, InetAddress host, int port) {
+		return wake(new WakeTarget(ethernetAddress, host, port));
+	}
+
+	/**
+	 * Sends the magic packets of all given targets. A failed target does not keep the others from
+	 * being sent.
+	 *
+	 * @param targets the targets
+	 * @return a future completing once every packet was sent or failed, with the result of every
+	 * target at its index
+	 */
+	public CompletableFuture<WakeResult[]> wakeAll(WakeTarget[] targets) {
+		long requested = System.nanoTime();
+		WakeResult[] results = new WakeResult[targets.length];
+		CompletableFuture<WakeResult[]> completion = new CompletableFuture<WakeResult[]>();
+		int chunks = (targets.length + CHUNK - 1) / CHUNK;
+
+		if (0 == chunks) {
+			completion.complete(results);
+			return completion;
+		}
+
+		AtomicInteger remaining = new AtomicInteger(chunks);
+
+		for (int i = 0; i < chunks; i++) {
+			Chunk chunk = new Chunk(targets, results, i * CHUNK, Math.min(targets.length, (i + 1) * CHUNK), requested, remaining, completion);
+
+			try {
+				executor.execute(chunk);
+			} catch (RejectedExecutionException e) {
+				LOG.log(Level.FINE, "Executor rejected " + (chunk.to - chunk.from) + " targets", e);
+				chunk.fail(e);
+			}
+		}
+
+		return completion;
+	}
+
+	/**
+	 * A range of the targets of one call, sent by one task.
+	 */
+	private class Chunk implements Runnable {
+		final WakeTarget[] targets;
+		final WakeResult[] results;
+		final int from;
+		final int to;
+		final long requested;
+		final AtomicInteger remaining;
+		final CompletableFuture<WakeResult[]> completion;
+
+		Chunk(WakeTarget[] targets, WakeResult[] results, int from, int to, long requested, AtomicInteger remaining,
+				CompletableFuture<WakeResult[]> completion) {
+			this.targets = targets;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.requested = requested;
+			this.remaining = remaining;
+			this.completion = completion;
+		}
+
+		public void run() {
+			ByteBuffer frame = ByteBuffer.allocate(WakeUpUtil.FRAME_LENGTH);
+
+			for (int i = from; i < to; i++) {
+				long start = System.nanoTime();
+				Throwable cause = null;
+
+				try {
+					frame.clear();
+					WakeUpUtil.createWakeupFrame(targets[i].getEthernetAddress(), frame);
+					frame.flip();
+					sender.send(frame, targets[i].getAddress());
+				} catch (Exception e) {
+					cause = e;
+				}
+
+				results[i] = new WakeResult(targets[i], cause, start - requested, System.nanoTime() - start);
+			}
+
+			done();
+		}
+
+		void fail(Throwable cause) {
+			for (int i = from; i < to; i++) {
+				results[i] = new WakeResult(targets[i], cause, System.nanoTime() - requested, 0);
+			}
+
+			done();
+		}
+
+		private void done() {
+			// the atomic countdown also publishes the results written by this chunk
+			if (0 == remaining.decrementAndGet()) {
+				completion.complete(results);
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
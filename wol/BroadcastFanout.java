@@ -0,0 +1,462 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.Machine;
+
+/**
+ * Sends magic packets to the directed broadcast address of every local IPv4 interface.
+ * <br>
+ * <br>
+ * The limited broadcast address {@link WakeUpUtil#DEFAULT_HOST} only leaves through one
+ * interface, so machines on other attached networks are missed. A fan-out sends every frame to
+ * the subnet broadcast address of each interface which is up, is not a loopback interface and
+ * supports broadcasts, through a channel bound to the address of that interface. The interfaces
+ * are sent to in parallel.
+ * <br>
+ * <br>
+ * The interfaces are enumerated once and cached. Once the recheck interval has passed, a send
+ * enumerates the interfaces again in the background and goes on with the cached channels, which
+ * are only reopened if an address was added or removed. Channels replaced this way or by
+ * {@link #close()} are closed once the sends using them have finished. Machines with the host
+ * {@link Machine#AUTO_HOST} are woken up this way.
+ */
+public class BroadcastFanout implements Closeable {
+	private final static Logger LOG = Logger.getLogger(BroadcastFanout.class.getName());
+	private final int sendBufferSize;
+	private volatile long recheckIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+	private Generation generation;
+	private List<String> fingerprint;
+	private long lastCheck;
+	private boolean checking;
+	private ExecutorService executor;
+	private final Runnable recheck = new Runnable() {
+		public void run() {
+			try {
+				refresh(true);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not enumerate the interfaces, keeping the current channels", e);
+			} finally {
+				synchronized (BroadcastFanout.this) {
+					checking = false;
+				}
+			}
+		}
+	};
+
+	/**
+	 * Creates a new fan-out using the operating system's default send buffer size.
+	 */
+	public BroadcastFanout() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new fan-out.
+	 *
+	 * @param sendBufferSize the send buffer size of every channel in bytes, or 0 for the operating system's default
+	 */
+	public BroadcastFanout(int sendBufferSize) {
+		super();
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * Returns the interval after which the interfaces are enumerated again.
+	 *
+	 * @return the interval in nanoseconds
+	 */
+	public long getRecheckIntervalNanos() {
+		return recheckIntervalNanos;
+	}
+
+	/**
+	 * Sets the interval after which the interfaces are enumerated again. The default is 5 seconds.
+	 *
+	 * @param recheckInterval the interval
+	 * @param unit the unit of the interval
+	 */
+	public void setRecheckInterval(long recheckInterval, TimeUnit unit) {
+		this.recheckIntervalNanos = Math.max(0, unit.toNanos(recheckInterval));
+	}
+
+	/**
+	 * Returns the directed broadcast addresses currently sent to.
+	 *
+	 * @return the broadcast addresses, one per interface address
+	 * @throws IOException if the interfaces could not be enumerated
+	 */
+	public InetAddress[] getBroadcastAddresses() throws IOException {
+		Generation current = acquire();
+
+		try {
+			InetAddress[] addresses = new InetAddress[current.routes.length];
+
+			for (int i = 0; i < current.routes.length; i++) {
+				addresses[i] = current.routes[i].broadcast;
+			}
+
+			return addresses;
+		} finally {
+			current.release();
+		}
+	}
+
+	/**
+	 * Enumerates the interfaces now and reopens the channels if they changed.
+	 *
+	 * @throws IOException if the interfaces could not be enumerated
+	 */
+	public void refresh() throws IOException {
+		refresh(false);
+	}
+
+	/**
+	 * Enumerates the interfaces without holding the lock of this fan-out and replaces the current
+	 * routes if they changed. A background recheck is dropped if the fan-out was closed meanwhile.
+	 */
+	private void refresh(boolean recheck) throws IOException {
+		List<String> current = new ArrayList<String>();
+		List<Route> found = new ArrayList<Route>();
+
+		for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+			if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+				continue;
+			}
+
+			for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+				if (interfaceAddress.getAddress() instanceof Inet4Address && null != interfaceAddress.getBroadcast()) {
+					current.add(networkInterface.getName() + ' ' + interfaceAddress.getAddress().getHostAddress() + '/' + interfaceAddress.getNetworkPrefixLength());
+					found.add(new Route(networkInterface.getName(), interfaceAddress.getAddress(), interfaceAddress.getBroadcast()));
+				}
+			}
+		}
+
+		Generation replaced;
+
+		synchronized (this) {
+			if (recheck && null == generation) {
+				return;
+			}
+
+			lastCheck = System.nanoTime();
+
+			if (null != generation && current.equals(fingerprint)) {
+				return;
+			}
+
+			for (Route route : found) {
+				try {
+					route.open(sendBufferSize);
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Could not open channel on " + route, e);
+				}
+			}
+
+			replaced = generation;
+			generation = new Generation(found.toArray(new Route[found.size()]));
+			fingerprint = current;
+		}
+
+		// sends still using the replaced routes hold references, the last one closes them
+		if (null != replaced) {
+			replaced.release();
+		}
+
+		LOG.fine("Broadcasting to " + found);
+	}
+
+	/**
+	 * Sends the magic sequences for the given ethernet addresses on all interfaces.
+	 *
+	 * @param ethernetAddresses the ethernet addresses to wake up
+	 * @param port the port number
+	 * @return the number of packets sent
+	 * @throws IOException if the interfaces could not be enumerated or no packet could be sent
+	 */
+	public int send(EthernetAddress[] ethernetAddresses, int port) throws IOException {
+		ByteBuffer frames = ByteBuffer.allocate(ethernetAddresses.length * WakeUpUtil.FRAME_LENGTH);
+		int[] ports = new int[ethernetAddresses.length];
+
+		for (int i = 0; i < ethernetAddresses.length; i++) {
+			WakeUpUtil.createWakeupFrame(ethernetAddresses[i], frames);
+			ports[i] = port;
+		}
+
+		return send(frames, ports);
+	}
+
+	/**
+	 * Sends the frames of all machines in the given cache whose host is {@link Machine#AUTO_HOST}
+	 * on all interfaces.
+	 *
+	 * @param frameCache the frame cache
+	 * @return the number of packets sent
+	 * @throws IOException if the interfaces could not be enumerated or no packet could be sent
+	 */
+	public int send(FrameCache frameCache) throws IOException {
+		return frameCache.send(this);
+	}
+
+	/**
+	 * Sends the given frames on all interfaces.
+	 *
+	 * @param frames the frames, {@link WakeUpUtil#FRAME_LENGTH} bytes each, starting at index 0
+	 * @param ports the port of every frame
+	 * @return the number of packets sent
+	 * @throws IOException if the interfaces could not be enumerated or no packet could be sent
+	 */
+	int send(ByteBuffer frames, int[] ports) throws IOException {
+		if (0 == ports.length) {
+			return 0;
+		}
+
+		Generation current = acquire();
+
+		try {
+			return send(current.routes, frames, ports);
+		} finally {
+			current.release();
+		}
+	}
+
+	private int send(Route[] current, final ByteBuffer frames, final int[] ports) throws IOException {
+		if (0 == current.length) {
+			return 0;
+		}
+
+		if (1 == current.length) {
+			return current[0].send(frames.duplicate(), ports);
+		}
+
+		ExecutorService pool;
+
+		synchronized (this) {
+			pool = executor();
+		}
+
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(current.length);
+
+		for (int i = 0; i < current.length; i++) {
+			final Route route = current[i];
+			FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+				public Integer call() throws IOException {
+					return Integer.valueOf(route.send(frames.duplicate(), ports));
+				}
+			});
+
+			try {
+				pool.execute(task);
+			} catch (RejectedExecutionException e) {
+				// the fan-out was closed meanwhile, its routes stay open until this send is done
+				task.run();
+			}
+
+			results.add(task);
+		}
+
+		int sent = 0;
+		IOException failure = null;
+
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				sent += results.get(i).get().intValue();
+			} catch (ExecutionException e) {
+				LOG.log(Level.WARNING, "Could not send on " + current[i], e.getCause());
+
+				if (e.getCause() instanceof IOException) {
+					failure = (IOException) e.getCause();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while sending", e);
+			}
+		}
+
+		if (0 == sent && null != failure) {
+			throw failure;
+		}
+
+		return sent;
+	}
+
+	/**
+	 * Closes all channels once the sends using them have finished. The fan-out opens them again on
+	 * the next send.
+	 */
+	public void close() {
+		Generation closed;
+
+		synchronized (this) {
+			closed = generation;
+			generation = null;
+			fingerprint = null;
+
+			if (null != executor) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+
+		if (null != closed) {
+			closed.release();
+		}
+	}
+
+	/**
+	 * Returns the current routes with a reference held for the caller, enumerating the interfaces
+	 * on first use and in the background once the recheck interval has passed.
+	 */
+	private Generation acquire() throws IOException {
+		while (true) {
+			synchronized (this) {
+				if (null != generation) {
+					if (!checking && System.nanoTime() - lastCheck >= recheckIntervalNanos) {
+						checking = true;
+						executor().execute(recheck);
+					}
+
+					// the fan-out holds a reference to its current routes, so they are still open
+					generation.acquire();
+					return generation;
+				}
+			}
+
+			refresh(false);
+		}
+	}
+
+	private ExecutorService executor() {
+		if (null == executor) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "broadcast-fanout");
+
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return executor;
+	}
+
+	/**
+	 * The routes of one enumeration of the interfaces. The fan-out holds one reference while they
+	 * are current and every send one more; the last reference released closes the channels.
+	 */
+	private static class Generation {
+		final Route[] routes;
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		Generation(Route[] routes) {
+			this.routes = routes;
+		}
+
+		void acquire() {
+			references.incrementAndGet();
+		}
+
+		void release() {
+			if (0 == references.decrementAndGet()) {
+				for (int i = 0; i < routes.length; i++) {
+					routes[i].close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The broadcast address of one interface address, and the channel bound to it.
+	 */
+	private static class Route {
+		final String interfaceName;
+		final InetAddress local;
+		final InetAddress broadcast;
+		DatagramChannel channel;
+
+		Route(String interfaceName, InetAddress local, InetAddress broadcast) {
+			this.interfaceName = interfaceName;
+			this.local = local;
+			this.broadcast = broadcast;
+		}
+
+		void open(int sendBufferSize) throws IOException {
+			channel = DatagramChannel.open();
+			channel.setOption(StandardSocketOptions.SO_BROADCAST, Boolean.TRUE);
+
+			if (sendBufferSize > 0) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF, Integer.valueOf(sendBufferSize));
+			}
+
+			channel.bind(new InetSocketAddress(local, 0));
+		}
+
+		int send(ByteBuffer frames, int[] ports) throws IOException {
+			if (null == channel) {
+				return 0;
+			}
+
+			InetSocketAddress target = null;
+
+			for (int i = 0; i < ports.length; i++) {
+				int offset = i * WakeUpUtil.FRAME_LENGTH;
+
+				if (null == target || target.getPort() != ports[i]) {
+					target = new InetSocketAddress(broadcast, ports[i]);
+				}
+
+				frames.limit(offset + WakeUpUtil.FRAME_LENGTH).position(offset);
+				channel.send(frames, target);
+			}
+
+			return ports.length;
+		}
+
+		void close() {
+			if (null != channel) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					LOG.log(Level.FINE, "Could not close channel on " + this, e);
+				}
+			}
+		}
+
+		public String toString() {
+			return interfaceName + " " + local.getHostAddress() + " -> " + broadcast.getHostAddress();
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
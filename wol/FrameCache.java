@@ -0,0 +1,474 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.Configuration;
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.Machine;
+import wol.metrics.WakeMetrics;
+
+/**
+ * A cache of prebuilt wakeupframes for all machines of a {@link Configuration}.
+ * <br>
+ * <br>
+ * The frames are kept in one direct buffer (the slab), one frame of {@link WakeUpUtil#FRAME_LENGTH}
+ * bytes per machine, addressed by the index of the machine in {@link Configuration#getMachines()}.
+ * The target address of each machine is looked up in a {@link HostCache} when its frame is built. Sending a frame
+ * therefore only positions a view on the slab and does not allocate anything.
+ * <br>
+ * <br>
+ * Building a frame never waits for name resolution. A machine whose host is not cached yet has
+ * no valid target while its host is resolved in the background, and its frame is marked stale
+ * again once the address arrives. Sending skips such a machine and records it as a failed send
+ * in the {@link WakeMetrics}.
+ * <br>
+ * <br>
+ * Machines whose host is {@link Machine#AUTO_HOST} have a frame but no target. They are skipped
+ * when sending through a {@link WakeSender} and are sent by {@link BroadcastFanout#send(FrameCache)}.
+ * <br>
+ * <br>
+ * The cache listens to its configuration: the whole slab is rebuilt when the machines are replaced,
+ * and a single frame is rebuilt when the <code>ethernetAddress</code>, <code>host</code> or
+ * <code>port</code> of a machine changes. Machine changes are received through one
+ * {@link Configuration#addMachineListener(PropertyChangeListener) machine listener} on the
+ * configuration, not a listener per machine.
+ */
+public class FrameCache {
+	private final static Logger LOG = Logger.getLogger(FrameCache.class.getName());
+	private final Configuration configuration;
+	private final HostCache hostCache;
+	private final PropertyChangeListener configurationListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			invalidateAll();
+		}
+	};
+	private final PropertyChangeListener machineListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			String propertyName = evt.getPropertyName();
+
+			if ("ethernetAddress".equals(propertyName) || "host".equals(propertyName)
+					|| "port".equals(propertyName)) {
+				invalidate((Machine) evt.getSource());
+			}
+		}
+	};
+	private Machine[] machines = new Machine[0];
+	private Map<Machine, Integer> indexes = new IdentityHashMap<Machine, Integer>();
+	private SocketAddress[] targets = new SocketAddress[0];
+	private boolean[] valid = new boolean[0];
+	private boolean[] auto = new boolean[0];
+	private boolean[] resolving = new boolean[0];
+	private boolean[] dirty = new boolean[0];
+	private boolean anyDirty;
+	private boolean allDirty = true;
+	private ByteBuffer slab = ByteBuffer.allocateDirect(0);
+	private ByteBuffer view = slab.duplicate();
+
+	/**
+	 * Creates a new frame cache for the machines of the given configuration.
+	 *
+	 * @param configuration the configuration
+	 */
+	public FrameCache(Configuration configuration) {
+		this(configuration, HostCache.getDefault());
+	}
+
+	/**
+	 * Creates a new frame cache for the machines of the given configuration. The hosts of the
+	 * machines are resolved in parallel through the given host cache whenever the machines are set.
+	 *
+	 * @param configuration the configuration
+	 * @param hostCache the host cache
+	 */
+	public FrameCache(Configuration configuration, HostCache hostCache) {
+		super();
+		this.configuration = configuration;
+		this.hostCache = hostCache;
+		hostCache.attach(configuration);
+		configuration.addPropertyChangeListener("machines", configurationListener);
+		configuration.addMachineListener(machineListener);
+		refresh();
+	}
+
+	/**
+	 * Returns the configuration of this cache.
+	 *
+	 * @return the configuration
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Returns the number of machines in this cache.
+	 *
+	 * @return the number of machines
+	 */
+	public synchronized int size() {
+		refresh();
+
+		return machines.length;
+	}
+
+	/**
+	 * Returns the machine with the given index.
+	 *
+	 * @param index the index
+	 * @return the machine
+	 */
+	public synchronized Machine getMachine(int index) {
+		refresh();
+
+		return machines[index];
+	}
+
+	/**
+	 * Returns whether the machine with the given index has a valid frame and target.
+	 * A machine has no valid frame if its ethernet address or its host can not be parsed.
+	 *
+	 * @param index the index
+	 * @return <code>true</code> if the machine can be woken up
+	 */
+	public synchronized boolean isValid(int index) {
+		refresh();
+
+		return valid[index];
+	}
+
+	/**
+	 * Returns whether the machine with the given index has a valid frame and the host
+	 * {@link Machine#AUTO_HOST}.
+	 *
+	 * @param index the index
+	 * @return <code>true</code> if the machine can be woken up through a {@link BroadcastFanout}
+	 */
+	public synchronized boolean isAuto(int index) {
+		refresh();
+
+		return auto[index];
+	}
+
+	/**
+	 * Returns the address the frame of the machine with the given index is sent to.
+	 *
+	 * @param index the index
+	 * @return the target, or <code>null</code> if the machine has no valid frame
+	 */
+	public synchronized SocketAddress getTarget(int index) {
+		refresh();
+
+		return valid[index] ? targets[index] : null;
+	}
+
+	/**
+	 * Copies the frame of the machine with the given index into the given buffer.
+	 *
+	 * @param index the index
+	 * @param buffer the buffer. Must have at least {@link WakeUpUtil#FRAME_LENGTH} bytes remaining
+	 * @return <code>true</code> if the frame was copied, <code>false</code> if the machine
+	 * 		   has no valid frame
+	 */
+	public synchronized boolean copyFrame(int index, ByteBuffer buffer) {
+		refresh();
+
+		if (!valid[index] && !auto[index]) {
+			return false;
+		}
+
+		buffer.put(select(index));
+
+		return true;
+	}
+
+	/**
+	 * Marks all frames as stale. They will be rebuilt on next access.
+	 */
+	public synchronized void invalidateAll() {
+		allDirty = true;
+	}
+
+	/**
+	 * Marks the frame of the machine with the given index as stale. It will be rebuilt on next access.
+	 *
+	 * @param index the index
+	 */
+	public synchronized void invalidate(int index) {
+		if (index < dirty.length) {
+			dirty[index] = true;
+			anyDirty = true;
+		}
+	}
+
+	/**
+	 * Detaches this cache from its configuration and its machines.
+	 * The cache must not be used afterwards.
+	 */
+	public synchronized void dispose() {
+		configuration.removePropertyChangeListener("machines", configurationListener);
+		configuration.removeMachineListener(machineListener);
+		hostCache.detach(configuration);
+		machines = new Machine[0];
+		indexes = new IdentityHashMap<Machine, Integer>();
+		valid = new boolean[0];
+		auto = new boolean[0];
+		resolving = new boolean[0];
+	}
+
+	/**
+	 * Sends the frames of all valid machines through the given sender.
+	 *
+	 * @param sender the sender
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs
+	 */
+	synchronized int send(WakeSender sender) throws IOException {
+		refresh();
+
+		int sent = 0;
+
+		for (int i = 0; i < machines.length; i++) {
+			if (valid[i]) {
+				sender.send(select(i), targets[i]);
+				sent++;
+			} else if (resolving[i]) {
+				unresolved(i);
+			}
+		}
+
+		return sent;
+	}
+
+	/**
+	 * Sends the frames of the machines with the given indexes through the given sender.
+	 * Machines without a valid frame are skipped.
+	 *
+	 * @param sender the sender
+	 * @param indexes the indexes of the machines
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs
+	 */
+	synchronized int send(WakeSender sender, int[] indexes) throws IOException {
+		refresh();
+
+		int sent = 0;
+
+		for (int i = 0; i < indexes.length; i++) {
+			int index = indexes[i];
+
+			if (valid[index]) {
+				sender.send(select(index), targets[index]);
+				sent++;
+			} else if (resolving[index]) {
+				unresolved(index);
+			}
+		}
+
+		return sent;
+	}
+
+	/**
+	 * Sends the frames of all machines with the host {@link Machine#AUTO_HOST} through the given fan-out.
+	 *
+	 * @param fanout the fan-out
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs
+	 */
+	int send(BroadcastFanout fanout) throws IOException {
+		ByteBuffer frames;
+		int[] ports;
+
+		synchronized (this) {
+			refresh();
+
+			int count = 0;
+
+			for (int i = 0; i < machines.length; i++) {
+				if (auto[i]) {
+					count++;
+				}
+			}
+
+			frames = ByteBuffer.allocate(count * WakeUpUtil.FRAME_LENGTH);
+			ports = new int[count];
+			count = 0;
+
+			for (int i = 0; i < machines.length; i++) {
+				if (auto[i]) {
+					frames.put(select(i));
+					ports[count++] = machines[i].getPort();
+				}
+			}
+		}
+
+		return fanout.send(frames, ports);
+	}
+
+	/**
+	 * Positions the shared view on the frame with the given index.
+	 */
+	private ByteBuffer select(int index) {
+		int offset = index * WakeUpUtil.FRAME_LENGTH;
+
+		view.limit(offset + WakeUpUtil.FRAME_LENGTH).position(offset);
+
+		return view;
+	}
+
+	private void refresh() {
+		if (allDirty) {
+			rebuild();
+		} else if (anyDirty) {
+			// cleared first, a host resolved while building marks its frame stale again
+			anyDirty = false;
+
+			for (int i = 0; i < dirty.length; i++) {
+				if (dirty[i]) {
+					build(i);
+				}
+			}
+		}
+	}
+
+	private void rebuild() {
+		Machine[] newMachines = configuration.getMachines();
+		int count = newMachines.length;
+
+		machines = newMachines;
+		allDirty = false;
+		anyDirty = false;
+		indexes = new IdentityHashMap<Machine, Integer>(count);
+		targets = new SocketAddress[count];
+		valid = new boolean[count];
+		auto = new boolean[count];
+		resolving = new boolean[count];
+		dirty = new boolean[count];
+
+		if (slab.capacity() < count * WakeUpUtil.FRAME_LENGTH) {
+			slab = ByteBuffer.allocateDirect(count * WakeUpUtil.FRAME_LENGTH);
+			view = slab.duplicate();
+		}
+
+		for (int i = 0; i < count; i++) {
+			indexes.put(machines[i], Integer.valueOf(i));
+			build(i);
+		}
+	}
+
+	private void build(int index) {
+		Machine machine = machines[index];
+
+		dirty[index] = false;
+		valid[index] = false;
+		auto[index] = false;
+		resolving[index] = false;
+		targets[index] = null;
+
+		if (null == machine.getEthernetAddress() || null == machine.getHost()) {
+			return;
+		}
+
+		try {
+			EthernetAddress ethernetAddress = new EthernetAddress(machine.getEthernetAddress());
+
+			if (!machine.isAutoHost()) {
+				InetAddress address = lookup(machine);
+
+				if (null != address) {
+					targets[index] = new InetSocketAddress(address, machine.getPort());
+				} else {
+					resolving[index] = true;
+				}
+			}
+
+			ByteBuffer buffer = slab.duplicate();
+			WakeMetrics metrics = WakeMetrics.getDefault();
+			long start = metrics.time();
+
+			buffer.position(index * WakeUpUtil.FRAME_LENGTH);
+			WakeUpUtil.createWakeupFrame(ethernetAddress, buffer);
+			metrics.frameBuilt(start);
+			valid[index] = null != targets[index];
+			auto[index] = machine.isAutoHost();
+		} catch (IllegalEthernetAddressException e) {
+			LOG.log(Level.FINE, "Skipping machine " + machine + ": " + e.getMessage());
+		} catch (UnknownHostException e) {
+			LOG.log(Level.WARNING, "Skipping machine " + machine + ": unknown host " + machine.getHost());
+		}
+	}
+
+	/**
+	 * Reports the machine with the given index, whose host is still being resolved, as a failed
+	 * send.
+	 */
+	private void unresolved(int index) {
+		Machine machine = machines[index];
+		UnknownHostException e = new UnknownHostException(machine.getHost() + ": not resolved yet");
+
+		LOG.warning("Could not wake up " + machine + ": " + e.getMessage());
+		WakeMetrics.getDefault().sendFailed(InetSocketAddress.createUnresolved(machine.getHost(), machine.getPort()), e);
+	}
+
+	/**
+	 * Returns the cached address of the host of the given machine without blocking, or
+	 * <code>null</code> if the host is still being resolved. The frame of the machine is marked
+	 * stale once the address arrives.
+	 */
+	private InetAddress lookup(final Machine machine) throws UnknownHostException {
+		InetAddress address = hostCache.getIfPresent(machine.getHost());
+
+		if (null != address) {
+			return address;
+		}
+
+		CompletableFuture<InetAddress> future = hostCache.resolveAsync(machine.getHost());
+
+		if (!future.isDone()) {
+			future.whenComplete(new BiConsumer<InetAddress, Throwable>() {
+				public void accept(InetAddress resolved, Throwable failure) {
+					invalidate(machine);
+				}
+			});
+
+			return null;
+		}
+
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw new UnknownHostException(machine.getHost());
+		}
+	}
+
+	/**
+	 * Marks the frame of the given machine as stale, if the machine is in this cache.
+	 */
+	private synchronized void invalidate(Machine machine) {
+		Integer index = indexes.get(machine);
+
+		if (null != index) {
+			invalidate(index.intValue());
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,454 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.Configuration;
+import wol.configuration.Machine;
+import wol.metrics.WakeMetrics;
+
+/**
+ * A cache of resolved hosts, so waking up a machine does not wait for name resolution.
+ * <br>
+ * <br>
+ * Resolved addresses are kept for the time to live, failures for the negative time to live.
+ * Once three quarters of the time to live have passed, a lookup still returns the cached address
+ * and refreshes it in the background, so hosts in regular use never expire. Names are resolved on
+ * a small pool of daemon threads, and concurrent lookups of the same name share one resolution.
+ * IP address literals are never cached or passed to the resolver.
+ * <br>
+ * <br>
+ * A cache attached to a {@link Configuration} resolves the hosts of all its machines in parallel
+ * whenever the machines are set or reloaded, and refreshes them on a timer before they expire,
+ * so the hosts of machines which are rarely woken up stay cached as well. The wake paths look
+ * hosts up with {@link #resolveCached(String)}, which never blocks.
+ */
+public class HostCache {
+	private final static Logger LOG = Logger.getLogger(HostCache.class.getName());
+	private static HostCache defaultCache;
+
+	private final HostResolver resolver;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentHashMap<String, CompletableFuture<InetAddress>> pending = new ConcurrentHashMap<String, CompletableFuture<InetAddress>>();
+	private final ExecutorService executor;
+	private final List<Configuration> attached = new CopyOnWriteArrayList<Configuration>();
+	private final Runnable refresh = new Runnable() {
+		public void run() {
+			refreshAttached();
+		}
+	};
+	private TimerWheel refreshWheel;
+	private final PropertyChangeListener configurationListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			Machine[] machines = (Machine[]) evt.getNewValue();
+
+			if (null != machines) {
+				prewarm(machines);
+			}
+		}
+	};
+	private volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+	private volatile long negativeTtlNanos = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * Creates a new cache using the {@link HostResolver#SYSTEM} resolver.
+	 */
+	public HostCache() {
+		this(HostResolver.SYSTEM, 8);
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param resolver the resolver
+	 * @param parallelism the number of threads resolving hosts
+	 */
+	public HostCache(HostResolver resolver, int parallelism) {
+		super();
+		this.resolver = resolver;
+
+		final AtomicInteger threads = new AtomicInteger();
+
+		this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "host-resolver-" + threads.incrementAndGet());
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the cache shared by {@link FrameCache} and {@link WakeTarget}.
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized HostCache getDefault() {
+		if (null == defaultCache) {
+			defaultCache = new HostCache();
+		}
+
+		return defaultCache;
+	}
+
+	/**
+	 * Sets the time resolved addresses are kept. The default is 5 minutes.
+	 *
+	 * @param ttl the time to live
+	 * @param unit the unit of the time to live
+	 */
+	public void setTtl(long ttl, TimeUnit unit) {
+		this.ttlNanos = Math.max(0, unit.toNanos(ttl));
+	}
+
+	/**
+	 * Sets the time failed resolutions are kept. The default is 30 seconds.
+	 *
+	 * @param negativeTtl the time to live of failures
+	 * @param unit the unit of the time to live
+	 */
+	public void setNegativeTtl(long negativeTtl, TimeUnit unit) {
+		this.negativeTtlNanos = Math.max(0, unit.toNanos(negativeTtl));
+	}
+
+	/**
+	 * Returns the address of the given host. Blocks only if the host is not cached yet or its entry
+	 * has expired.
+	 *
+	 * @param host the host name or IP address literal
+	 * @return the address
+	 * @throws UnknownHostException if the host could not be resolved, now or within the negative time to live
+	 */
+	public InetAddress resolve(String host) throws UnknownHostException {
+		if (isLiteral(host)) {
+			return InetAddress.getByName(host);
+		}
+
+		Entry entry = lookup(host);
+
+		if (null != entry) {
+			return entry.get();
+		}
+
+		try {
+			return resolveAsync(host).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+
+			throw new UnknownHostException(host + ": " + e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException(host + ": interrupted");
+		}
+	}
+
+	/**
+	 * Returns the address of the given host without blocking. A host which is not cached is
+	 * resolved in the background and reported as unknown until its address arrives.
+	 *
+	 * @param host the host name or IP address literal
+	 * @return the address
+	 * @throws UnknownHostException if the host could not be resolved, or is still being resolved
+	 */
+	public InetAddress resolveCached(String host) throws UnknownHostException {
+		if (isLiteral(host)) {
+			return InetAddress.getByName(host);
+		}
+
+		Entry entry = lookup(host);
+
+		if (null != entry) {
+			return entry.get();
+		}
+
+		start(host);
+		throw new UnknownHostException(host + ": not resolved yet");
+	}
+
+	/**
+	 * Returns the cached address of the given host without blocking. A host which is not cached
+	 * is resolved in the background.
+	 *
+	 * @param host the host name or IP address literal
+	 * @return the address, or <code>null</code> if the host is not cached or could not be resolved
+	 */
+	public InetAddress getIfPresent(String host) {
+		if (isLiteral(host)) {
+			try {
+				return InetAddress.getByName(host);
+			} catch (UnknownHostException e) {
+				return null;
+			}
+		}
+
+		Entry entry = lookup(host);
+
+		if (null == entry) {
+			resolveAsync(host);
+			return null;
+		}
+
+		return entry.address;
+	}
+
+	/**
+	 * Resolves the given host in the background, unless it is cached.
+	 *
+	 * @param host the host name
+	 * @return a future completing with the address, or exceptionally with an {@link UnknownHostException}
+	 */
+	public CompletableFuture<InetAddress> resolveAsync(String host) {
+		Entry entry = lookup(host);
+
+		if (null != entry) {
+			return null == entry.address ? CompletableFuture.<InetAddress>failedFuture(entry.failure) : CompletableFuture.completedFuture(entry.address);
+		}
+
+		return start(host);
+	}
+
+	/**
+	 * Resolves the hosts of the given machines in parallel. Machines with IP address literals or
+	 * the host {@link Machine#AUTO_HOST} are skipped.
+	 *
+	 * @param machines the machines
+	 * @return a future completing when all hosts are resolved or failed
+	 */
+	public CompletableFuture<Void> prewarm(Machine[] machines) {
+		Set<String> hosts = new LinkedHashSet<String>();
+
+		for (int i = 0; i < machines.length; i++) {
+			String host = machines[i].getHost();
+
+			if (null != host && !machines[i].isAutoHost() && !isLiteral(host)) {
+				hosts.add(host);
+			}
+		}
+
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[hosts.size()];
+		int i = 0;
+
+		for (String host : hosts) {
+			futures[i++] = resolveAsync(host);
+		}
+
+		return CompletableFuture.allOf(futures);
+	}
+
+	/**
+	 * Resolves the hosts of the machines of the given configuration now, whenever its machines
+	 * are set, and before their entries expire. A configuration attached more than once has to
+	 * be detached as often.
+	 *
+	 * @param configuration the configuration
+	 */
+	public void attach(Configuration configuration) {
+		configuration.addPropertyChangeListener("machines", configurationListener);
+		attached.add(configuration);
+		prewarm(configuration.getMachines());
+
+		synchronized (this) {
+			if (null == refreshWheel) {
+				refreshWheel = new TimerWheel("host-cache-refresh", 1, TimeUnit.SECONDS, 64);
+				refreshWheel.schedule(refresh, refreshIntervalNanos(), TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Stops resolving the hosts of the given configuration.
+	 *
+	 * @param configuration the configuration
+	 */
+	public void detach(Configuration configuration) {
+		configuration.removePropertyChangeListener("machines", configurationListener);
+		attached.remove(configuration);
+	}
+
+	/**
+	 * Removes the given host from the cache.
+	 *
+	 * @param host the host name
+	 */
+	public void invalidate(String host) {
+		entries.remove(host);
+	}
+
+	/**
+	 * Removes all hosts from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of cached hosts, including failures.
+	 *
+	 * @return the number of hosts
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Resolves the hosts of all attached configurations whose entries are due for a refresh or
+	 * have expired, and arms the next refresh. Runs on the refresh wheel.
+	 */
+	private void refreshAttached() {
+		for (Configuration configuration : attached) {
+			prewarm(configuration.getMachines());
+		}
+
+		refreshWheel.schedule(refresh, refreshIntervalNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the interval of the refresh timer, short enough to visit every entry between the
+	 * start of its refresh period and its expiry.
+	 */
+	private long refreshIntervalNanos() {
+		return Math.max(TimeUnit.SECONDS.toNanos(1), ttlNanos / 8);
+	}
+
+	/**
+	 * Returns the entry of the given host if it has not expired, starting a background refresh if
+	 * it is due.
+	 */
+	private Entry lookup(String host) {
+		Entry entry = entries.get(host);
+
+		if (null == entry) {
+			return null;
+		}
+
+		long age = System.nanoTime() - entry.resolved;
+		long ttl = null == entry.address ? negativeTtlNanos : ttlNanos;
+
+		if (age >= ttl) {
+			return null;
+		}
+
+		if (null != entry.address && age >= ttl - ttl / 4) {
+			start(host);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Starts resolving the given host unless it is being resolved already.
+	 */
+	private CompletableFuture<InetAddress> start(final String host) {
+		final CompletableFuture<InetAddress> future = new CompletableFuture<InetAddress>();
+		CompletableFuture<InetAddress> running = pending.putIfAbsent(host, future);
+
+		if (null != running) {
+			return running;
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				WakeMetrics metrics = WakeMetrics.getDefault();
+				long start = metrics.time();
+
+				try {
+					InetAddress address = resolver.resolve(host);
+
+					metrics.hostResolved(host, true, start);
+					entries.put(host, new Entry(address, null));
+					pending.remove(host, future);
+					future.complete(address);
+				} catch (UnknownHostException e) {
+					metrics.hostResolved(host, false, start);
+					LOG.log(Level.FINE, "Could not resolve " + host, e);
+
+					Entry previous = entries.get(host);
+
+					// a failed refresh keeps the previous address until it expires
+					if (null == previous || null == previous.address || System.nanoTime() - previous.resolved >= ttlNanos) {
+						entries.put(host, new Entry(null, e));
+					}
+
+					pending.remove(host, future);
+					future.completeExceptionally(e);
+				} catch (RuntimeException e) {
+					pending.remove(host, future);
+					future.completeExceptionally(e);
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Returns whether the given host is an IP address literal, which needs no resolution.
+	 */
+	private static boolean isLiteral(String host) {
+		if (host.indexOf(':') >= 0) {
+			return true;
+		}
+
+		int dots = 0;
+
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+
+			if ('.' == c) {
+				dots++;
+			} else if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+
+		return 3 == dots;
+	}
+
+	/**
+	 * The address a host resolved to, or the failure.
+	 */
+	private static class Entry {
+		final InetAddress address;
+		final UnknownHostException failure;
+		final long resolved = System.nanoTime();
+
+		Entry(InetAddress address, UnknownHostException failure) {
+			this.address = address;
+			this.failure = failure;
+		}
+
+		InetAddress get() throws UnknownHostException {
+			if (null == address) {
+				throw failure;
+			}
+
+			return address;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
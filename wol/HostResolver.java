@@ -0,0 +1,35 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names for a {@link HostCache}. Tests plug in a stub resolver instead of the
+ * {@link #SYSTEM} resolver.
+ */
+public interface HostResolver {
+	/**
+	 * Resolves host names with {@link InetAddress#getByName(String)}.
+	 */
+	HostResolver SYSTEM = new HostResolver() {
+		public InetAddress resolve(String host) throws UnknownHostException {
+			return InetAddress.getByName(host);
+		}
+	};
+
+	/**
+	 * Resolves the given host name. This method may block.
+	 *
+	 * @param host the host name
+	 * @return the address
+	 * @throws UnknownHostException if the host could not be resolved
+	 */
+	InetAddress resolve(String host) throws UnknownHostException;
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,504 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Verifies that woken up machines come up, by probing them until they answer or a timeout expires.
+ * <br>
+ * <br>
+ * A machine is probed either with a non-blocking TCP connect to a port (e.g. 22 or 445) or with
+ * a UDP echo request (port 7). A connect attempt that is neither accepted nor refused within the
+ * retry interval is abandoned and repeated, as are unanswered echo requests.
+ * <br>
+ * <br>
+ * All probes are driven by one thread and one {@link Selector}, so thousands of machines can be
+ * probed at the same time without a thread per machine.
+ */
+public class LivenessProbe implements Closeable {
+	private final static Logger LOG = Logger.getLogger(LivenessProbe.class.getName());
+
+	/**
+	 * The default port probed: 22 (ssh).
+	 */
+	public final static int DEFAULT_PORT = 22;
+
+	/**
+	 * The UDP echo port: 7.
+	 */
+	public final static int ECHO_PORT = 7;
+
+	private final static byte[] ECHO_PAYLOAD = "wol-liveness-probe".getBytes();
+
+	/**
+	 * How a machine is probed.
+	 */
+	public enum Mode {
+		/**
+		 * A non-blocking TCP connect. A connection accepted by the machine means it is up, and so
+		 * does a refused one unless {@link LivenessProbe#setRefusedUp(boolean)} is turned off: a
+		 * reset comes from the network stack of the machine even if nothing listens on the port.
+		 */
+		TCP,
+		/** A UDP echo request. An echo from the machine means it is up. */
+		UDP_ECHO
+	}
+
+	private final Mode mode;
+	private final int port;
+	private volatile long timeoutNanos = TimeUnit.MINUTES.toNanos(5);
+	private volatile long retryIntervalNanos = TimeUnit.SECONDS.toNanos(2);
+	private volatile boolean refusedUp = true;
+	private final ConcurrentLinkedQueue<Probe> incoming = new ConcurrentLinkedQueue<Probe>();
+
+	// state below is only accessed by the probe thread
+	private final PriorityQueue<Timeout> timeouts = new PriorityQueue<Timeout>();
+	private final Map<SocketAddress, List<Probe>> echoProbes = new HashMap<SocketAddress, List<Probe>>();
+	private final ByteBuffer echoBuffer = ByteBuffer.allocateDirect(512);
+	private Selector selector;
+	private DatagramChannel echoChannel;
+	private Thread thread;
+
+	/**
+	 * Creates a new TCP probe on the default port.
+	 *
+	 * @see #DEFAULT_PORT
+	 */
+	public LivenessProbe() {
+		this(Mode.TCP, DEFAULT_PORT);
+	}
+
+	/**
+	 * Creates a new probe.
+	 *
+	 * @param mode how machines are probed
+	 * @param port the TCP port connected to, or the UDP port echo requests are sent to
+	 * @throws IllegalArgumentException if the port is not between 1 and 0xFFFF
+	 */
+	public LivenessProbe(Mode mode, int port) {
+		super();
+
+		if (port < 1 || port > 0xFFFF) {
+			throw new IllegalArgumentException("Port value out of range: " + port);
+		}
+
+		this.mode = mode;
+		this.port = port;
+	}
+
+	/**
+	 * Returns how machines are probed.
+	 *
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the port probed.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets the time after which a machine that did not answer is reported as timed out.
+	 * Applies to probes started after this call.
+	 *
+	 * @param timeout the timeout
+	 * @param unit the unit of the timeout
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Sets the time between two connect attempts or echo requests to the same machine.
+	 * Applies to probes started after this call.
+	 *
+	 * @param retryInterval the interval
+	 * @param unit the unit of the interval
+	 */
+	public void setRetryInterval(long retryInterval, TimeUnit unit) {
+		this.retryIntervalNanos = Math.max(1, unit.toNanos(retryInterval));
+	}
+
+	/**
+	 * Returns whether a refused TCP connect means the machine is up.
+	 *
+	 * @return <code>true</code> if a refused connect counts as an answer
+	 */
+	public boolean isRefusedUp() {
+		return refusedUp;
+	}
+
+	/**
+	 * Sets whether a refused TCP connect means the machine is up. The default is
+	 * <code>true</code>, so a machine is recognized as up as soon as its network stack runs,
+	 * whether or not the probed port is open. Turn it off to wait for the service on the port.
+	 *
+	 * @param refusedUp <code>true</code> if a refused connect counts as an answer
+	 */
+	public void setRefusedUp(boolean refusedUp) {
+		this.refusedUp = refusedUp;
+	}
+
+	/**
+	 * Starts the probe thread. Calling this method on a started probe has no effect.
+	 *
+	 * @return this probe
+	 * @throws IOException if the selector or the echo channel could not be opened
+	 */
+	public synchronized LivenessProbe start() throws IOException {
+		if (null != thread) {
+			return this;
+		}
+
+		selector = Selector.open();
+
+		if (Mode.UDP_ECHO == mode) {
+			echoChannel = DatagramChannel.open();
+			echoChannel.configureBlocking(false);
+			echoChannel.bind(null);
+			echoChannel.register(selector, SelectionKey.OP_READ);
+		}
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "liveness-probe");
+		thread.setDaemon(true);
+		thread.start();
+
+		return this;
+	}
+
+	/**
+	 * Stops the probe thread. Probes still running complete as timed out.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void close() throws IOException {
+		if (null != selector) {
+			selector.close();
+		}
+	}
+
+	/**
+	 * Probes the given machine, measuring the time to up from now.
+	 *
+	 * @param address the address of the machine itself (not the broadcast address it is woken up through)
+	 * @return a future completing with the result of the probe
+	 */
+	public CompletableFuture<ProbeResult> probe(InetAddress address) {
+		return probe(address, System.nanoTime());
+	}
+
+	/**
+	 * Probes the given machine. This method does not block.
+	 *
+	 * @param address the address of the machine itself (not the broadcast address it is woken up through)
+	 * @param wakeTime the {@link System#nanoTime()} the machine was woken up at. The time to up is measured from here
+	 * @return a future completing with the result of the probe
+	 * @throws IllegalStateException if the probe has not been started or has been closed
+	 */
+	public CompletableFuture<ProbeResult> probe(InetAddress address, long wakeTime) {
+		Selector current = selector;
+
+		if (null == current || !current.isOpen()) {
+			throw new IllegalStateException("Probe is not running");
+		}
+
+		Probe probe = new Probe(new InetSocketAddress(address, port), wakeTime, System.nanoTime() + timeoutNanos, retryIntervalNanos);
+
+		incoming.add(probe);
+		current.wakeup();
+
+		return probe.future;
+	}
+
+	private void loop() {
+		try {
+			while (selector.isOpen()) {
+				long now = System.nanoTime();
+
+				drainIncoming(now);
+				expire(now);
+
+				Timeout next = timeouts.peek();
+
+				if (null == next) {
+					selector.select();
+				} else {
+					long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.at - now));
+
+					selector.select(millis);
+				}
+
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+					SelectionKey key = it.next();
+
+					it.remove();
+
+					if (key.isValid() && key.isConnectable()) {
+						connected(key);
+					} else if (key.isValid() && key.isReadable()) {
+						echoed();
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// closed by close()
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Liveness probe failed", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void drainIncoming(long now) {
+		Probe probe;
+
+		while (null != (probe = incoming.poll())) {
+			attempt(probe, now);
+		}
+	}
+
+	private void expire(long now) {
+		Timeout timeout;
+
+		while (null != (timeout = timeouts.peek()) && timeout.at <= now) {
+			timeouts.poll();
+
+			Probe probe = timeout.probe;
+
+			if (probe.future.isDone() || timeout.generation != probe.generation) {
+				continue;
+			}
+
+			if (now >= probe.deadline) {
+				probe.future.complete(new ProbeResult(probe.address, false, -1, probe.attempts));
+				abandonAttempt(probe);
+			} else {
+				abandonAttempt(probe);
+				attempt(probe, now);
+			}
+		}
+	}
+
+	private void attempt(Probe probe, long now) {
+		probe.attempts++;
+		probe.generation++;
+
+		try {
+			if (Mode.TCP == mode) {
+				SocketChannel channel = SocketChannel.open();
+
+				probe.channel = channel;
+				channel.configureBlocking(false);
+
+				if (channel.connect(probe.address)) {
+					up(probe, now);
+					return;
+				}
+
+				channel.register(selector, SelectionKey.OP_CONNECT, probe);
+			} else {
+				List<Probe> probes = echoProbes.get(probe.address);
+
+				if (null == probes) {
+					probes = new ArrayList<Probe>(1);
+					echoProbes.put(probe.address, probes);
+				}
+
+				if (!probes.contains(probe)) {
+					probes.add(probe);
+				}
+
+				echoChannel.send(ByteBuffer.wrap(ECHO_PAYLOAD), probe.address);
+			}
+		} catch (ConnectException e) {
+			if (refusedUp) {
+				up(probe, now);
+				return;
+			}
+
+			LOG.log(Level.FINEST, "Probe attempt to " + probe.address + " refused", e);
+			abandonAttempt(probe);
+		} catch (IOException e) {
+			// the machine may not be reachable yet, try again after the retry interval
+			LOG.log(Level.FINEST, "Probe attempt to " + probe.address + " failed", e);
+			abandonAttempt(probe);
+		}
+
+		timeouts.add(new Timeout(Math.min(probe.deadline, now + probe.retryIntervalNanos), probe));
+	}
+
+	private void connected(SelectionKey key) {
+		Probe probe = (Probe) key.attachment();
+		long now = System.nanoTime();
+
+		try {
+			if (((SocketChannel) key.channel()).finishConnect()) {
+				up(probe, now);
+			}
+		} catch (ConnectException e) {
+			if (refusedUp) {
+				up(probe, now);
+			} else {
+				// the retry is already scheduled
+				abandonAttempt(probe);
+			}
+		} catch (IOException e) {
+			// unreachable, the retry is already scheduled
+			abandonAttempt(probe);
+		}
+	}
+
+	private void echoed() throws IOException {
+		long now = System.nanoTime();
+		SocketAddress source;
+
+		echoBuffer.clear();
+
+		while (null != (source = echoChannel.receive(echoBuffer))) {
+			List<Probe> probes = echoProbes.remove(source);
+
+			if (null != probes) {
+				for (int i = 0; i < probes.size(); i++) {
+					up(probes.get(i), now);
+				}
+			}
+
+			echoBuffer.clear();
+		}
+	}
+
+	private void up(Probe probe, long now) {
+		abandonAttempt(probe);
+		probe.generation++;
+		probe.future.complete(new ProbeResult(probe.address, true, now - probe.wakeTime, probe.attempts));
+	}
+
+	private void abandonAttempt(Probe probe) {
+		if (null != probe.channel) {
+			try {
+				probe.channel.close();
+			} catch (IOException e) {
+				// ignore, the channel is discarded anyway
+			}
+
+			probe.channel = null;
+		}
+
+		if (Mode.UDP_ECHO == mode && probe.future.isDone()) {
+			List<Probe> probes = echoProbes.get(probe.address);
+
+			if (null != probes) {
+				probes.remove(probe);
+
+				if (probes.isEmpty()) {
+					echoProbes.remove(probe.address);
+				}
+			}
+		}
+	}
+
+	private void shutdown() {
+		for (Iterator<Timeout> it = timeouts.iterator(); it.hasNext(); ) {
+			Probe probe = it.next().probe;
+
+			abandonAttempt(probe);
+			probe.future.complete(new ProbeResult(probe.address, false, -1, probe.attempts));
+		}
+
+		Probe probe;
+
+		while (null != (probe = incoming.poll())) {
+			probe.future.complete(new ProbeResult(probe.address, false, -1, probe.attempts));
+		}
+
+		timeouts.clear();
+		echoProbes.clear();
+
+		if (null != echoChannel) {
+			try {
+				echoChannel.close();
+			} catch (IOException e) {
+				// ignore, shutting down
+			}
+		}
+	}
+
+	/**
+	 * The state of probing one machine.
+	 */
+	private static class Probe {
+		private final InetSocketAddress address;
+		private final long wakeTime;
+		private final long deadline;
+		private final long retryIntervalNanos;
+		private final CompletableFuture<ProbeResult> future = new CompletableFuture<ProbeResult>();
+		private SocketChannel channel;
+		private int attempts;
+		private int generation;
+
+		Probe(InetSocketAddress address, long wakeTime, long deadline, long retryIntervalNanos) {
+			this.address = address;
+			this.wakeTime = wakeTime;
+			this.deadline = deadline;
+			this.retryIntervalNanos = retryIntervalNanos;
+		}
+	}
+
+	/**
+	 * The end of an attempt of a probe. Timeouts of earlier attempts are recognized by their generation.
+	 */
+	private static class Timeout implements Comparable<Timeout> {
+		private final long at;
+		private final Probe probe;
+		private final int generation;
+
+		Timeout(long at, Probe probe) {
+			this.at = at;
+			this.probe = probe;
+			this.generation = probe.generation;
+		}
+
+		public int compareTo(Timeout other) {
+			return Long.compare(at - other.at, 0);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
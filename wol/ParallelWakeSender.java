@@ -0,0 +1,425 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+import wol.metrics.WakeMetrics;
+
+/**
+ * Sends large batches of magic packets on several threads.
+ * <br>
+ * <br>
+ * The sender runs a fixed number of worker threads. Every worker owns a {@link WakeSender}, and
+ * so its own channel, and its own frame buffer. A batch is split into contiguous shards, one per
+ * worker; each worker builds and sends the frames of its shard without touching any state shared
+ * with the other workers. The last worker to finish its shard completes the batch, so results
+ * are joined without a thread waiting for the workers.
+ * <br>
+ * <br>
+ * A packet which cannot be sent does not stop the batch. The failures are logged and recorded in
+ * the {@link WakeMetrics} of the workers; a batch only fails if not a single packet could be sent.
+ *
+ * @see WakeSender
+ */
+public class ParallelWakeSender implements Closeable {
+	private final static Logger LOG = Logger.getLogger(ParallelWakeSender.class.getName());
+
+	/**
+	 * The smallest number of packets worth handing to a worker of its own.
+	 */
+	private final static int MIN_SHARD = 64;
+
+	private final int threads;
+	private final int sendBufferSize;
+	private volatile WakeMetrics metrics = WakeMetrics.getDefault();
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile Worker[] workers;
+
+	/**
+	 * Creates a new sender with one worker per available processor.
+	 */
+	public ParallelWakeSender() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new sender with the given number of workers, using the operating system's default
+	 * send buffer size.
+	 *
+	 * @param threads the number of workers
+	 * @throws IllegalArgumentException if the number of workers is not positive
+	 */
+	public ParallelWakeSender(int threads) {
+		this(threads, 0);
+	}
+
+	/**
+	 * Creates a new sender.
+	 *
+	 * @param threads the number of workers
+	 * @param sendBufferSize the requested size of the send buffer of each channel in bytes, or 0 to
+	 * 		  use the operating system's default
+	 * @throws IllegalArgumentException if the number of workers is not positive or the send buffer size is negative
+	 */
+	public ParallelWakeSender(int threads, int sendBufferSize) {
+		super();
+
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+
+		if (sendBufferSize < 0) {
+			throw new IllegalArgumentException("Send buffer size must not be negative: " + sendBufferSize);
+		}
+
+		this.threads = threads;
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * Returns the number of workers.
+	 *
+	 * @return the number of workers
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the metrics packets are recorded in.
+	 *
+	 * @return the metrics
+	 */
+	public WakeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics packets are recorded in. Must be called before {@link #open()}.
+	 *
+	 * @param metrics the metrics
+	 */
+	public void setMetrics(WakeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Opens the channels and starts the workers. Calling this method on an already open sender
+	 * has no effect.
+	 *
+	 * @return this sender
+	 * @throws IOException if a channel could not be opened
+	 */
+	public synchronized ParallelWakeSender open() throws IOException {
+		if (null != workers) {
+			return this;
+		}
+
+		Worker[] started = new Worker[threads];
+
+		try {
+			for (int i = 0; i < threads; i++) {
+				WakeSender sender = new WakeSender(sendBufferSize);
+
+				sender.setMetrics(metrics);
+				started[i] = new Worker("parallel-wake-sender-" + i, sender.open());
+			}
+		} catch (IOException e) {
+			stop(started);
+			throw e;
+		}
+
+		for (int i = 0; i < threads; i++) {
+			started[i].start();
+		}
+
+		workers = started;
+
+		return this;
+	}
+
+	/**
+	 * Returns whether this sender is open.
+	 *
+	 * @return <code>true</code> if {@link #open()} was called and the sender is not closed yet
+	 */
+	public boolean isOpen() {
+		return null != workers;
+	}
+
+	/**
+	 * Sends the magic packet of every ethernet address to the target with the same index. Waits
+	 * until all packets are sent.
+	 *
+	 * @param ethernetAddresses the ethernet addresses to wake up
+	 * @param targets the targets, the same length as the ethernet addresses
+	 * @return the number of packets sent
+	 * @throws IOException if not a single packet could be sent or this sender is not open
+	 */
+	public int send(EthernetAddress[] ethernetAddresses, SocketAddress[] targets) throws IOException {
+		try {
+			return sendAsync(ethernetAddresses, targets).join().intValue();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the magic packet of every target. Waits until all packets are sent.
+	 *
+	 * @param targets the targets
+	 * @return the number of packets sent
+	 * @throws IOException if not a single packet could be sent or this sender is not open
+	 */
+	public int send(WakeTarget[] targets) throws IOException {
+		EthernetAddress[] ethernetAddresses = new EthernetAddress[targets.length];
+		SocketAddress[] addresses = new SocketAddress[targets.length];
+
+		for (int i = 0; i < targets.length; i++) {
+			ethernetAddresses[i] = targets[i].getEthernetAddress();
+			addresses[i] = targets[i].getAddress();
+		}
+
+		return send(ethernetAddresses, addresses);
+	}
+
+	/**
+	 * Sends the magic packet of every ethernet address to the target with the same index,
+	 * without waiting. The arrays must not be changed until the returned future completes.
+	 *
+	 * @param ethernetAddresses the ethernet addresses to wake up
+	 * @param targets the targets, the same length as the ethernet addresses
+	 * @return a future completing with the number of packets sent. It completes exceptionally if
+	 * not a single packet could be sent or this sender is not open
+	 * @throws IllegalArgumentException if the arrays differ in length
+	 */
+	public CompletableFuture<Integer> sendAsync(EthernetAddress[] ethernetAddresses, SocketAddress[] targets) {
+		if (ethernetAddresses.length != targets.length) {
+			throw new IllegalArgumentException(ethernetAddresses.length + " ethernet addresses but " + targets.length + " targets");
+		}
+
+		Worker[] current = workers;
+
+		if (null == current) {
+			return CompletableFuture.<Integer>failedFuture(new ClosedChannelException());
+		}
+
+		int length = ethernetAddresses.length;
+
+		if (0 == length) {
+			return CompletableFuture.completedFuture(Integer.valueOf(0));
+		}
+
+		int shards = Math.min(current.length, (length + MIN_SHARD - 1) / MIN_SHARD);
+		Batch batch = new Batch(shards);
+		// small batches leave workers idle, spread them over all workers
+		int first = shards < current.length ? (next.getAndIncrement() & 0x7FFFFFFF) % current.length : 0;
+
+		for (int i = 0; i < shards; i++) {
+			long from = (long) length * i / shards;
+			long to = (long) length * (i + 1) / shards;
+
+			current[(first + i) % current.length].submit(new Shard(batch, ethernetAddresses, targets, (int) from, (int) to));
+		}
+
+		return batch.completion;
+	}
+
+	/**
+	 * Stops the workers and closes their channels. Shards not sent yet are dropped and their
+	 * batches complete with the packets sent so far. Calling this method on a closed sender has no
+	 * effect.
+	 */
+	public synchronized void close() {
+		Worker[] current = workers;
+
+		workers = null;
+
+		if (null != current) {
+			stop(current);
+		}
+	}
+
+	private static void stop(Worker[] stopped) {
+		for (int i = 0; i < stopped.length; i++) {
+			if (null != stopped[i]) {
+				stopped[i].shutdown();
+			}
+		}
+	}
+
+	/**
+	 * The completion of one batch, shared by its shards.
+	 */
+	private static class Batch {
+		final CompletableFuture<Integer> completion = new CompletableFuture<Integer>();
+		final AtomicInteger remaining;
+		final AtomicInteger sent = new AtomicInteger();
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+		Batch(int shards) {
+			remaining = new AtomicInteger(shards);
+		}
+
+		void shardDone(int shardSent, IOException shardFailure) {
+			if (0 < shardSent) {
+				sent.addAndGet(shardSent);
+			}
+
+			if (null != shardFailure) {
+				failure.compareAndSet(null, shardFailure);
+			}
+
+			if (0 == remaining.decrementAndGet()) {
+				if (0 == sent.get() && null != failure.get()) {
+					completion.completeExceptionally(failure.get());
+				} else {
+					completion.complete(Integer.valueOf(sent.get()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A contiguous range of a batch sent by one worker.
+	 */
+	private static class Shard {
+		final Batch batch;
+		final EthernetAddress[] ethernetAddresses;
+		final SocketAddress[] targets;
+		final int from;
+		final int to;
+
+		Shard(Batch batch, EthernetAddress[] ethernetAddresses, SocketAddress[] targets, int from, int to) {
+			this.batch = batch;
+			this.ethernetAddresses = ethernetAddresses;
+			this.targets = targets;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * A worker thread with its own channel and frame buffer.
+	 */
+	private static class Worker implements Runnable {
+		private final static Shard STOP = new Shard(null, null, null, 0, 0);
+
+		private final LinkedBlockingQueue<Shard> shards = new LinkedBlockingQueue<Shard>();
+		private final WakeSender sender;
+		private final ByteBuffer frame = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+		private final Thread thread;
+		private volatile boolean stopped;
+
+		Worker(String name, WakeSender sender) {
+			this.sender = sender;
+			this.thread = new Thread(this, name);
+			this.thread.setDaemon(true);
+		}
+
+		void start() {
+			thread.start();
+		}
+
+		void submit(Shard shard) {
+			shards.add(shard);
+
+			// the sender was closed concurrently, the shard may never be taken
+			if (stopped && shards.remove(shard)) {
+				shard.batch.shardDone(0, new ClosedChannelException());
+			}
+		}
+
+		void shutdown() {
+			stopped = true;
+			shards.add(STOP);
+
+			if (!thread.isAlive()) {
+				drop();
+			}
+		}
+
+		public void run() {
+			try {
+				Shard shard;
+
+				while (STOP != (shard = shards.take())) {
+					send(shard);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				drop();
+			}
+		}
+
+		private void send(Shard shard) {
+			WakeMetrics metrics = sender.getMetrics();
+			int sent = 0;
+			IOException failure = null;
+
+			for (int i = shard.from; i < shard.to; i++) {
+				long start = metrics.time();
+
+				frame.clear();
+				WakeUpUtil.createWakeupFrame(shard.ethernetAddresses[i], frame);
+				frame.flip();
+				metrics.frameBuilt(start);
+
+				try {
+					sender.send(frame, shard.targets[i]);
+					sent++;
+				} catch (IOException e) {
+					if (null == failure) {
+						LOG.log(Level.FINE, "Could not wake up " + shard.ethernetAddresses[i] + " at " + shard.targets[i], e);
+					}
+
+					failure = e;
+				}
+			}
+
+			shard.batch.shardDone(sent, failure);
+		}
+
+		/**
+		 * Closes the channel and completes the batches of the shards left in the queue.
+		 */
+		private void drop() {
+			try {
+				sender.close();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Could not close " + thread.getName(), e);
+			}
+
+			Shard shard;
+
+			while (null != (shard = shards.poll())) {
+				if (STOP != shard) {
+					shard.batch.shardDone(0, new ClosedChannelException());
+				}
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
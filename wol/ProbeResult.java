@@ -0,0 +1,85 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The outcome of probing one machine with a {@link LivenessProbe}.
+ */
+public class ProbeResult {
+	private final InetSocketAddress address;
+	private final boolean up;
+	private final long timeToUpNanos;
+	private final int attempts;
+
+	/**
+	 * Creates a new result.
+	 *
+	 * @param address the probed address
+	 * @param up whether the machine answered before the timeout
+	 * @param timeToUpNanos the time between the wake up and the first answer, or -1 if the machine did not answer
+	 * @param attempts the number of connection attempts or echo requests sent
+	 */
+	public ProbeResult(InetSocketAddress address, boolean up, long timeToUpNanos, int attempts) {
+		super();
+		this.address = address;
+		this.up = up;
+		this.timeToUpNanos = timeToUpNanos;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Returns the probed address.
+	 *
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Returns whether the machine answered before the timeout.
+	 *
+	 * @return <code>true</code> if the machine is up
+	 */
+	public boolean isUp() {
+		return up;
+	}
+
+	/**
+	 * Returns whether the machine did not answer before the timeout.
+	 *
+	 * @return <code>true</code> if the probe timed out
+	 */
+	public boolean isTimedOut() {
+		return !up;
+	}
+
+	/**
+	 * Returns the time between the wake up and the first answer of the machine.
+	 *
+	 * @return the time in nanoseconds, or -1 if the machine did not answer
+	 */
+	public long getTimeToUpNanos() {
+		return timeToUpNanos;
+	}
+
+	/**
+	 * Returns the number of connection attempts or echo requests sent.
+	 *
+	 * @return the number of attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public String toString() {
+		return address + (up ? " up after " + (timeToUpNanos / 1000000) + " ms" : " timed out") + " (" + attempts + " attempts)";
+	}
+}
+
+/*
+ * $Log$
+ */
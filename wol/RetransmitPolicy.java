@@ -0,0 +1,118 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often and how far apart the magic packet of one machine is sent by a {@link Retransmitter}.
+ * <br>
+ * <br>
+ * A policy sends a number of copies of the same packet. The first copy is sent at once, every
+ * further copy after the interval plus a random jitter between 0 and the jitter, so the copies
+ * of many machines woken up together do not arrive in bursts. Policies are immutable.
+ */
+public class RetransmitPolicy {
+	/**
+	 * Sends the packet once, without retransmits.
+	 */
+	public final static RetransmitPolicy ONCE = new RetransmitPolicy(1, 0, 0, TimeUnit.MILLISECONDS);
+
+	/**
+	 * Sends 3 copies, one second apart with a jitter of up to 250 milliseconds.
+	 */
+	public final static RetransmitPolicy DEFAULT = new RetransmitPolicy(3, 1000, 250, TimeUnit.MILLISECONDS);
+
+	private final int copies;
+	private final long intervalNanos;
+	private final long jitterNanos;
+
+	/**
+	 * Creates a new policy.
+	 *
+	 * @param copies the number of packets sent, including the first one
+	 * @param interval the time between two copies
+	 * @param jitter the largest random time added to the interval
+	 * @param unit the unit of the interval and the jitter
+	 * @throws IllegalArgumentException if the number of copies is less than 1, or the interval or jitter is negative
+	 */
+	public RetransmitPolicy(int copies, long interval, long jitter, TimeUnit unit) {
+		super();
+
+		if (copies < 1) {
+			throw new IllegalArgumentException("At least one copy is required: " + copies);
+		}
+
+		if (interval < 0 || jitter < 0) {
+			throw new IllegalArgumentException("Interval and jitter must not be negative: " + interval + ", " + jitter);
+		}
+
+		this.copies = copies;
+		this.intervalNanos = unit.toNanos(interval);
+		this.jitterNanos = unit.toNanos(jitter);
+	}
+
+	/**
+	 * Returns the number of packets sent, including the first one.
+	 *
+	 * @return the number of copies
+	 */
+	public int getCopies() {
+		return copies;
+	}
+
+	/**
+	 * Returns the time between two copies.
+	 *
+	 * @return the interval in nanoseconds
+	 */
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	/**
+	 * Returns the largest random time added to the interval.
+	 *
+	 * @return the jitter in nanoseconds
+	 */
+	public long getJitterNanos() {
+		return jitterNanos;
+	}
+
+	/**
+	 * Returns the delay before the next copy: the interval plus a random jitter.
+	 *
+	 * @return the delay in nanoseconds
+	 */
+	public long nextDelayNanos() {
+		return 0 == jitterNanos ? intervalNanos : intervalNanos + ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (null == obj || obj.getClass() != this.getClass()) {
+			return false;
+		}
+
+		RetransmitPolicy other = (RetransmitPolicy) obj;
+
+		return copies == other.copies && intervalNanos == other.intervalNanos && jitterNanos == other.jitterNanos;
+	}
+
+	public int hashCode() {
+		return (int) (31 * (31 * copies + intervalNanos) + jitterNanos);
+	}
+
+	public String toString() {
+		return copies + " copies every " + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + " ms +" + TimeUnit.NANOSECONDS.toMillis(jitterNanos) + " ms";
+	}
+}
+
+/*
+ * $Log$
+ */
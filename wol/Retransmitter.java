@@ -0,0 +1,338 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.Machine;
+
+/**
+ * Sends the magic packet of a machine several times, as UDP packets get dropped on busy segments.
+ * <br>
+ * <br>
+ * The number of copies and their spacing are given by a {@link RetransmitPolicy}: a default
+ * policy, which may be overridden per machine. The first copy is sent by the calling thread, the
+ * retransmits by the thread of a {@link TimerWheel}, so no thread sleeps between two copies and
+ * the retransmits of any number of machines are sent by one thread. All copies of a wake up send
+ * the same frame, which is built (or copied from a {@link FrameCache}) once.
+ * <br>
+ * <br>
+ * The retransmits of a machine can be cancelled, typically once a {@link LivenessProbe} reports
+ * the machine up, see {@link #cancelWhenUp(EthernetAddress, CompletableFuture)}. Waking up a
+ * machine which is still being retransmitted to replaces the running retransmits.
+ */
+public class Retransmitter implements Closeable {
+	private final static Logger LOG = Logger.getLogger(Retransmitter.class.getName());
+
+	private final WakeSender sender;
+	private final TimerWheel wheel;
+	private final boolean ownsWheel;
+	private final ConcurrentHashMap<EthernetAddress, Retransmission> active = new ConcurrentHashMap<EthernetAddress, Retransmission>();
+	private final ConcurrentHashMap<EthernetAddress, RetransmitPolicy> policies = new ConcurrentHashMap<EthernetAddress, RetransmitPolicy>();
+	private volatile RetransmitPolicy defaultPolicy = RetransmitPolicy.DEFAULT;
+
+	/**
+	 * Creates a new retransmitter with its own timer wheel.
+	 *
+	 * @param sender the sender. Must be open while machines are woken up
+	 */
+	public Retransmitter(WakeSender sender) {
+		this(sender, new TimerWheel("retransmitter"), true);
+	}
+
+	/**
+	 * Creates a new retransmitter scheduling its retransmits on the given wheel. The wheel is not
+	 * closed by {@link #close()}.
+	 *
+	 * @param sender the sender. Must be open while machines are woken up
+	 * @param wheel the timer wheel
+	 */
+	public Retransmitter(WakeSender sender, TimerWheel wheel) {
+		this(sender, wheel, false);
+	}
+
+	private Retransmitter(WakeSender sender, TimerWheel wheel, boolean ownsWheel) {
+		super();
+		this.sender = sender;
+		this.wheel = wheel;
+		this.ownsWheel = ownsWheel;
+	}
+
+	/**
+	 * Returns the policy of machines without a policy of their own.
+	 *
+	 * @return the default policy
+	 */
+	public RetransmitPolicy getDefaultPolicy() {
+		return defaultPolicy;
+	}
+
+	/**
+	 * Sets the policy of machines without a policy of their own. The default is
+	 * {@link RetransmitPolicy#DEFAULT}.
+	 *
+	 * @param defaultPolicy the policy
+	 * @throws NullPointerException if the policy is null
+	 */
+	public void setDefaultPolicy(RetransmitPolicy defaultPolicy) {
+		if (null == defaultPolicy) {
+			throw new NullPointerException("Default policy is required");
+		}
+
+		this.defaultPolicy = defaultPolicy;
+	}
+
+	/**
+	 * Returns the policy of the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return the policy of the address, or the default policy
+	 */
+	public RetransmitPolicy getPolicy(EthernetAddress ethernetAddress) {
+		RetransmitPolicy policy = policies.get(ethernetAddress);
+
+		return null == policy ? defaultPolicy : policy;
+	}
+
+	/**
+	 * Sets the policy of the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @param policy the policy, or <code>null</code> to use the default policy
+	 */
+	public void setPolicy(EthernetAddress ethernetAddress, RetransmitPolicy policy) {
+		if (null == policy) {
+			policies.remove(ethernetAddress);
+		} else {
+			policies.put(ethernetAddress, policy);
+		}
+	}
+
+	/**
+	 * Sets the policy of the given machine.
+	 *
+	 * @param machine the machine
+	 * @param policy the policy, or <code>null</code> to use the default policy
+	 * @throws IllegalEthernetAddressException if the ethernet address of the machine is not valid
+	 */
+	public void setPolicy(Machine machine, RetransmitPolicy policy) throws IllegalEthernetAddressException {
+		setPolicy(new EthernetAddress(machine.getEthernetAddress()), policy);
+	}
+
+	/**
+	 * Wakes up the given target with the policy of its ethernet address.
+	 *
+	 * @param target the target
+	 * @return a future completing with the number of copies sent, once the last copy was sent or
+	 * the retransmits were cancelled. It completes exceptionally if not a single copy could be sent
+	 */
+	public CompletableFuture<Integer> wake(WakeTarget target) {
+		ByteBuffer frame = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+
+		WakeUpUtil.createWakeupFrame(target.getEthernetAddress(), frame);
+		frame.flip();
+
+		return start(target.getEthernetAddress(), frame, target.getAddress());
+	}
+
+	/**
+	 * Wakes up the machine with the given index in the given cache with the policy of its
+	 * ethernet address. The frame is copied from the cache once.
+	 *
+	 * @param frameCache the frame cache
+	 * @param index the index of the machine in the cache
+	 * @return a future completing with the number of copies sent, see {@link #wake(WakeTarget)}.
+	 * It completes with 0 if the machine has no valid frame
+	 */
+	public CompletableFuture<Integer> wake(FrameCache frameCache, int index) {
+		ByteBuffer frame = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+		SocketAddress target;
+		String ethernetAddress;
+
+		synchronized (frameCache) {
+			target = frameCache.getTarget(index);
+			ethernetAddress = frameCache.getMachine(index).getEthernetAddress();
+
+			if (null == target || !frameCache.copyFrame(index, frame)) {
+				return CompletableFuture.completedFuture(Integer.valueOf(0));
+			}
+		}
+
+		frame.flip();
+
+		try {
+			return start(new EthernetAddress(ethernetAddress), frame, target);
+		} catch (IllegalEthernetAddressException e) {
+			// the frame was built, so the address was valid a moment ago
+			return CompletableFuture.<Integer>failedFuture(e);
+		}
+	}
+
+	/**
+	 * Cancels the retransmits to the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return <code>true</code> if retransmits were running
+	 */
+	public boolean cancel(EthernetAddress ethernetAddress) {
+		Retransmission retransmission = active.remove(ethernetAddress);
+
+		if (null == retransmission) {
+			return false;
+		}
+
+		retransmission.cancel();
+		return true;
+	}
+
+	/**
+	 * Cancels the retransmits to the given ethernet address once the given probe reports the
+	 * machine up.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @param probe the probe of the machine, see {@link LivenessProbe#probe(java.net.InetAddress)}
+	 */
+	public void cancelWhenUp(final EthernetAddress ethernetAddress, CompletableFuture<ProbeResult> probe) {
+		probe.whenComplete(new BiConsumer<ProbeResult, Throwable>() {
+			public void accept(ProbeResult result, Throwable failure) {
+				if (null != result && result.isUp()) {
+					cancel(ethernetAddress);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of machines being retransmitted to.
+	 *
+	 * @return the number of machines
+	 */
+	public int getActive() {
+		return active.size();
+	}
+
+	/**
+	 * Cancels all retransmits, and closes the timer wheel if it was created by this retransmitter.
+	 */
+	public void close() {
+		for (Iterator<Retransmission> it = active.values().iterator(); it.hasNext(); ) {
+			Retransmission retransmission = it.next();
+
+			it.remove();
+			retransmission.cancel();
+		}
+
+		if (ownsWheel) {
+			wheel.close();
+		}
+	}
+
+	private CompletableFuture<Integer> start(EthernetAddress ethernetAddress, ByteBuffer frame, SocketAddress target) {
+		Retransmission retransmission = new Retransmission(ethernetAddress, frame, target, getPolicy(ethernetAddress));
+		Retransmission previous = active.put(ethernetAddress, retransmission);
+
+		if (null != previous) {
+			previous.cancel();
+		}
+
+		retransmission.run();
+
+		return retransmission.completion;
+	}
+
+	/**
+	 * The copies of one frame still to be sent.
+	 */
+	private class Retransmission implements Runnable {
+		private final EthernetAddress ethernetAddress;
+		private final ByteBuffer frame;
+		private final SocketAddress target;
+		private final RetransmitPolicy policy;
+		private final CompletableFuture<Integer> completion = new CompletableFuture<Integer>();
+		private int sent;
+		private int attempts;
+		private IOException failure;
+		private TimerWheel.Timeout timeout;
+		private boolean done;
+
+		Retransmission(EthernetAddress ethernetAddress, ByteBuffer frame, SocketAddress target, RetransmitPolicy policy) {
+			this.ethernetAddress = ethernetAddress;
+			this.frame = frame;
+			this.target = target;
+			this.policy = policy;
+		}
+
+		public synchronized void run() {
+			if (done) {
+				return;
+			}
+
+			attempts++;
+			frame.rewind();
+
+			try {
+				sender.send(frame, target);
+				sent++;
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Could not send copy " + attempts + " to " + ethernetAddress, e);
+				failure = e;
+			}
+
+			if (attempts >= policy.getCopies()) {
+				finish();
+				return;
+			}
+
+			try {
+				timeout = wheel.schedule(this, policy.nextDelayNanos(), TimeUnit.NANOSECONDS);
+			} catch (IllegalStateException e) {
+				finish();
+			}
+		}
+
+		synchronized void cancel() {
+			if (done) {
+				return;
+			}
+
+			if (null != timeout) {
+				timeout.cancel();
+			}
+
+			done = true;
+			completion.complete(Integer.valueOf(sent));
+		}
+
+		private void finish() {
+			done = true;
+			active.remove(ethernetAddress, this);
+
+			if (0 == sent && null != failure) {
+				completion.completeExceptionally(failure);
+			} else {
+				completion.complete(Integer.valueOf(sent));
+			}
+		}
+
+		public String toString() {
+			return "Retransmission to " + ethernetAddress + " (" + attempts + "/" + policy.getCopies() + ")";
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
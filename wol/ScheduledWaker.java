@@ -0,0 +1,614 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.Configuration;
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.Machine;
+import wol.configuration.WakeSchedule;
+
+/**
+ * Wakes up the machines of a configuration on their {@link WakeSchedule}s.
+ * <br>
+ * <br>
+ * Every schedule of a machine is one timeout on a {@link TimerWheel} with a tick of one second,
+ * which is armed again for the next due time whenever it expires. The hierarchical wheel keeps
+ * the cost of a tick constant, so a million scheduled machines cost one small object per
+ * schedule and no scanning. The wakes which became due in one tick are collected and sent
+ * together on an executor in the following tick, one batch per destination host and port;
+ * machines with the host {@link Machine#AUTO_HOST} are woken up through a {@link BroadcastFanout}.
+ * <br>
+ * <br>
+ * The waker follows the configuration: changed schedules of a machine are applied at once, and
+ * when the machines are replaced, e.g. by {@link Configuration#reload()}, machines whose
+ * schedules did not change keep their timeouts. Due times are computed in the time zone of the
+ * waker, the default time zone unless set. Due times missed while the process was suspended are
+ * caught up once, not once per missed time.
+ * <br>
+ * <br>
+ * The configuration is attached to the {@link HostCache#getDefault() shared host cache} while
+ * the waker runs, so a due wake never waits for name resolution. A host which is not resolved
+ * when its machines are due is logged as a failed wake.
+ */
+public class ScheduledWaker implements Closeable {
+	private final static Logger LOG = Logger.getLogger(ScheduledWaker.class.getName());
+	private final static Entry[] NO_ENTRIES = new Entry[0];
+
+	private final Configuration configuration;
+	private final WakeSender sender;
+	private final TimerWheel wheel;
+	private final boolean ownsWheel;
+	private final Executor executor;
+	private final BroadcastFanout fanout = new BroadcastFanout();
+	private volatile TimeZone timeZone = TimeZone.getDefault();
+	private final PropertyChangeListener machinesListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			request(null, false);
+		}
+	};
+	private final PropertyChangeListener schedulesListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			request((Machine) evt.getSource(), false);
+		}
+	};
+	private final Runnable flush = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	// guarded by this
+	private final Map<Machine, Entry[]> entries = new IdentityHashMap<Machine, Entry[]>();
+	private int scheduled;
+	private boolean started;
+	private boolean syncing;
+	private boolean syncAll;
+	private boolean rearmAll;
+	private final Set<Machine> syncMachines = Collections.newSetFromMap(new IdentityHashMap<Machine, Boolean>());
+
+	// state below is only accessed by the wheel thread
+	private final List<Entry> dueEntries = new ArrayList<Entry>();
+	private final Map<WakeSchedule, Long> dueNextTimes = new HashMap<WakeSchedule, Long>();
+	private long dueFrom = -1;
+	private TimeZone dueTimeZone;
+
+	/**
+	 * Creates a new waker with its own timer wheel, sending on the
+	 * {@link AsyncWaker#getDefaultExecutor() default executor} of the asynchronous wakers.
+	 *
+	 * @param configuration the configuration whose machines are woken up
+	 * @param sender the sender. Must be open while the waker runs
+	 */
+	public ScheduledWaker(Configuration configuration, WakeSender sender) {
+		this(configuration, sender, new TimerWheel("scheduled-waker", 1, TimeUnit.SECONDS, 64), true, AsyncWaker.getDefaultExecutor());
+	}
+
+	/**
+	 * Creates a new waker. The wheel is not closed by {@link #close()}; its tick should not be
+	 * shorter than needed, as schedules are due at minutes.
+	 *
+	 * @param configuration the configuration whose machines are woken up
+	 * @param sender the sender. Must be open while the waker runs
+	 * @param wheel the timer wheel the schedules are armed on
+	 * @param executor the executor the due wakes are sent on
+	 */
+	public ScheduledWaker(Configuration configuration, WakeSender sender, TimerWheel wheel, Executor executor) {
+		this(configuration, sender, wheel, false, executor);
+	}
+
+	private ScheduledWaker(Configuration configuration, WakeSender sender, TimerWheel wheel, boolean ownsWheel, Executor executor) {
+		super();
+		this.configuration = configuration;
+		this.sender = sender;
+		this.wheel = wheel;
+		this.ownsWheel = ownsWheel;
+		this.executor = executor;
+	}
+
+	/**
+	 * Arms the schedules of all machines and starts following the configuration. Calling this
+	 * method on a started waker has no effect.
+	 *
+	 * @return this waker
+	 */
+	public ScheduledWaker start() {
+		synchronized (this) {
+			if (started) {
+				return this;
+			}
+
+			started = true;
+		}
+
+		configuration.addPropertyChangeListener("machines", machinesListener);
+		configuration.addMachineListener("schedules", schedulesListener);
+		HostCache.getDefault().attach(configuration);
+		request(null, false);
+
+		return this;
+	}
+
+	/**
+	 * Returns the time zone the schedules are evaluated in.
+	 *
+	 * @return the time zone
+	 */
+	public TimeZone getTimeZone() {
+		return timeZone;
+	}
+
+	/**
+	 * Sets the time zone the schedules are evaluated in and arms all schedules again.
+	 *
+	 * @param timeZone the time zone
+	 */
+	public void setTimeZone(TimeZone timeZone) {
+		this.timeZone = timeZone;
+		request(null, true);
+	}
+
+	/**
+	 * Returns the number of schedules armed.
+	 *
+	 * @return the number of schedules
+	 */
+	public synchronized int getScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * Returns the next time the given machine will be woken up.
+	 *
+	 * @param machine the machine
+	 * @return the time in milliseconds since the epoch, or -1 if the machine has no schedule which
+	 * is ever due
+	 */
+	public synchronized long getNextWake(Machine machine) {
+		Entry[] machineEntries = entries.get(machine);
+		long next = -1;
+
+		if (null != machineEntries) {
+			for (int i = 0; i < machineEntries.length; i++) {
+				long entryNext = machineEntries[i].next;
+
+				if (-1 != entryNext && (-1 == next || entryNext < next)) {
+					next = entryNext;
+				}
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Stops following the configuration and cancels all schedules. The timer wheel is closed if
+	 * it was created by this waker.
+	 */
+	public void close() {
+		configuration.removePropertyChangeListener("machines", machinesListener);
+		configuration.removeMachineListener("schedules", schedulesListener);
+
+		boolean wasStarted;
+
+		synchronized (this) {
+			wasStarted = started;
+			started = false;
+
+			for (Iterator<Entry[]> it = entries.values().iterator(); it.hasNext(); ) {
+				cancel(it.next());
+			}
+
+			entries.clear();
+			scheduled = 0;
+		}
+
+		if (wasStarted) {
+			HostCache.getDefault().detach(configuration);
+		}
+
+		if (ownsWheel) {
+			wheel.close();
+		}
+
+		fanout.close();
+	}
+
+	/**
+	 * Requests the schedules of all machines, or of the given machine, to be armed again.
+	 * <br>
+	 * <br>
+	 * The configuration is only read without holding the lock of this waker, since its events
+	 * may be fired while the lock of the configuration is held. One thread at a time reads the
+	 * configuration and applies the requests; requests arriving meanwhile are applied by that
+	 * thread in a further round, so the state read last is applied last.
+	 *
+	 * @param machine the machine, or <code>null</code> for all machines
+	 * @param rearm whether all schedules are armed again, even unchanged ones
+	 */
+	private void request(Machine machine, boolean rearm) {
+		synchronized (this) {
+			if (!started) {
+				return;
+			}
+
+			if (null == machine) {
+				syncAll = true;
+			} else {
+				syncMachines.add(machine);
+			}
+
+			rearmAll |= rearm;
+
+			if (syncing) {
+				return;
+			}
+
+			syncing = true;
+		}
+
+		boolean done = false;
+
+		try {
+			while (!done) {
+				done = syncRound();
+			}
+		} finally {
+			if (!done) {
+				synchronized (this) {
+					syncing = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the pending requests once.
+	 *
+	 * @return <code>true</code> if no request was pending, and this thread stopped syncing
+	 */
+	private boolean syncRound() {
+		boolean all;
+		boolean rearm;
+		Machine[] machines;
+
+		synchronized (this) {
+			if (!started || (!syncAll && syncMachines.isEmpty())) {
+				syncing = false;
+				return true;
+			}
+
+			all = syncAll;
+			rearm = rearmAll;
+			machines = all ? null : syncMachines.toArray(new Machine[syncMachines.size()]);
+			syncAll = false;
+			rearmAll = false;
+			syncMachines.clear();
+		}
+
+		if (all) {
+			machines = configuration.getScheduledMachines();
+		}
+
+		WakeSchedule[][] schedules = new WakeSchedule[machines.length][];
+
+		for (int i = 0; i < machines.length; i++) {
+			schedules[i] = configuration.getSchedules(machines[i]);
+		}
+
+		synchronized (this) {
+			if (started) {
+				if (all) {
+					sync(machines, schedules, rearm);
+				} else {
+					for (int i = 0; i < machines.length; i++) {
+						update(machines[i], schedules[i]);
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Arms the given schedules of the scheduled machines of the configuration. Machines whose
+	 * schedules are armed already keep their entries unless all are armed again.
+	 */
+	private void sync(Machine[] machines, WakeSchedule[][] schedules, boolean rearm) {
+		Map<Machine, Entry[]> previous = new IdentityHashMap<Machine, Entry[]>(entries);
+		// most machines share a few schedules, compute their due times once
+		Map<WakeSchedule, Long> nextTimes = new HashMap<WakeSchedule, Long>();
+		long now = System.currentTimeMillis();
+
+		entries.clear();
+		scheduled = 0;
+
+		for (int i = 0; i < machines.length; i++) {
+			Entry[] machineEntries = previous.remove(machines[i]);
+
+			if (rearm || !matches(machineEntries, schedules[i])) {
+				cancel(machineEntries);
+				machineEntries = arm(machines[i], schedules[i], now, nextTimes);
+			}
+
+			if (0 < machineEntries.length) {
+				entries.put(machines[i], machineEntries);
+				scheduled += machineEntries.length;
+			}
+		}
+
+		for (Iterator<Entry[]> it = previous.values().iterator(); it.hasNext(); ) {
+			cancel(it.next());
+		}
+	}
+
+	/**
+	 * Arms the given schedules of one machine again after they were changed.
+	 */
+	private void update(Machine machine, WakeSchedule[] schedules) {
+		Entry[] machineEntries = entries.remove(machine);
+
+		if (null != machineEntries) {
+			cancel(machineEntries);
+			scheduled -= machineEntries.length;
+		}
+
+		machineEntries = arm(machine, schedules, System.currentTimeMillis(), new HashMap<WakeSchedule, Long>());
+
+		if (0 < machineEntries.length) {
+			entries.put(machine, machineEntries);
+			scheduled += machineEntries.length;
+		}
+	}
+
+	private Entry[] arm(Machine machine, WakeSchedule[] schedules, long now, Map<WakeSchedule, Long> nextTimes) {
+		if (0 == schedules.length) {
+			return NO_ENTRIES;
+		}
+
+		Entry[] machineEntries = new Entry[schedules.length];
+		TimeZone zone = timeZone;
+
+		for (int i = 0; i < schedules.length; i++) {
+			Long next = nextTimes.get(schedules[i]);
+
+			if (null == next) {
+				next = Long.valueOf(schedules[i].next(now, zone));
+				nextTimes.put(schedules[i], next);
+			}
+
+			machineEntries[i] = new Entry(machine, schedules[i]);
+			machineEntries[i].arm(next.longValue(), now);
+		}
+
+		return machineEntries;
+	}
+
+	private static boolean matches(Entry[] machineEntries, WakeSchedule[] schedules) {
+		if (null == machineEntries || machineEntries.length != schedules.length) {
+			return false;
+		}
+
+		for (int i = 0; i < schedules.length; i++) {
+			if (!machineEntries[i].schedule.equals(schedules[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static void cancel(Entry[] machineEntries) {
+		if (null != machineEntries) {
+			for (int i = 0; i < machineEntries.length; i++) {
+				machineEntries[i].cancel();
+			}
+		}
+	}
+
+	/**
+	 * Collects a due entry; the entries collected in one tick are sent by the next flush.
+	 */
+	private void due(Entry entry) {
+		if (dueEntries.isEmpty()) {
+			wheel.schedule(flush, 0, TimeUnit.MILLISECONDS);
+		}
+
+		dueEntries.add(entry);
+	}
+
+	/**
+	 * Returns the first due time of the given schedule after the given time. The entries due in
+	 * one tick share the time, so every schedule is computed once per tick.
+	 */
+	private long nextDue(WakeSchedule schedule, long from) {
+		TimeZone zone = timeZone;
+
+		if (from != dueFrom || zone != dueTimeZone) {
+			dueNextTimes.clear();
+			dueFrom = from;
+			dueTimeZone = zone;
+		}
+
+		Long next = dueNextTimes.get(schedule);
+
+		if (null == next) {
+			next = Long.valueOf(schedule.next(from, zone));
+			dueNextTimes.put(schedule, next);
+		}
+
+		return next.longValue();
+	}
+
+	private void flush() {
+		final Entry[] batch = dueEntries.toArray(new Entry[dueEntries.size()]);
+
+		dueEntries.clear();
+
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					send(batch);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.log(Level.WARNING, "Could not wake up " + batch.length + " scheduled machines", e);
+		}
+	}
+
+	/**
+	 * Sends the magic packets of the given entries, one batch per host and port.
+	 */
+	private void send(Entry[] batch) {
+		Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+		for (int i = 0; i < batch.length; i++) {
+			Machine machine = batch[i].machine;
+			String host = machine.getHost();
+			int port = machine.getPort();
+			EthernetAddress ethernetAddress;
+
+			try {
+				ethernetAddress = new EthernetAddress(machine.getEthernetAddress());
+			} catch (IllegalEthernetAddressException e) {
+				LOG.warning("Could not wake up " + machine + " on schedule " + batch[i].schedule + ": " + e.getMessage());
+				continue;
+			}
+
+			if (null == host) {
+				LOG.warning("Could not wake up " + machine + " on schedule " + batch[i].schedule + ": no host");
+				continue;
+			}
+
+			String key = (machine.isAutoHost() ? Machine.AUTO_HOST : host) + '\t' + port;
+			Group group = groups.get(key);
+
+			if (null == group) {
+				group = new Group(host, machine.isAutoHost(), port);
+				groups.put(key, group);
+			}
+
+			group.ethernetAddresses.add(ethernetAddress);
+		}
+
+		for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+			Group group = it.next();
+			EthernetAddress[] ethernetAddresses = group.ethernetAddresses.toArray(new EthernetAddress[group.ethernetAddresses.size()]);
+
+			try {
+				if (group.autoHost) {
+					fanout.send(ethernetAddresses, group.port);
+				} else {
+					sender.send(ethernetAddresses, HostCache.getDefault().resolveCached(group.host), group.port);
+				}
+
+				LOG.fine("Woke up " + ethernetAddresses.length + " scheduled machines at " + group.host + ":" + group.port);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not wake up " + ethernetAddresses.length + " scheduled machines at " + group.host + ":" + group.port, e);
+			}
+		}
+	}
+
+	/**
+	 * The due machines sent to one host and port.
+	 */
+	private static class Group {
+		final String host;
+		final boolean autoHost;
+		final int port;
+		final List<EthernetAddress> ethernetAddresses = new ArrayList<EthernetAddress>();
+
+		Group(String host, boolean autoHost, int port) {
+			this.host = host;
+			this.autoHost = autoHost;
+			this.port = port;
+		}
+	}
+
+	/**
+	 * One schedule of a machine, armed on the wheel for its next due time.
+	 */
+	private class Entry implements Runnable {
+		final Machine machine;
+		final WakeSchedule schedule;
+		volatile long next;
+		volatile TimerWheel.Timeout timeout;
+		volatile boolean cancelled;
+
+		Entry(Machine machine, WakeSchedule schedule) {
+			this.machine = machine;
+			this.schedule = schedule;
+		}
+
+		/**
+		 * Arms this entry for the given due time, or not at all if the schedule is never due.
+		 */
+		void arm(long due, long now) {
+			next = due;
+
+			if (-1 == due || cancelled) {
+				return;
+			}
+
+			try {
+				timeout = wheel.schedule(this, due - now, TimeUnit.MILLISECONDS);
+			} catch (IllegalStateException e) {
+				LOG.log(Level.FINE, "Could not arm the schedule of " + machine, e);
+			}
+		}
+
+		void cancel() {
+			TimerWheel.Timeout current = timeout;
+
+			cancelled = true;
+
+			if (null != current) {
+				current.cancel();
+			}
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+
+			// the wheel follows System.nanoTime(), which may drift from the wall clock
+			if (now < next - 1000) {
+				arm(next, now);
+				return;
+			}
+
+			due(this);
+			// after a suspension the missed due times are skipped
+			arm(nextDue(schedule, now - next > 60000 ? now : next), now);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,373 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hierarchical timing wheel running large numbers of short tasks on a single thread.
+ * <br>
+ * <br>
+ * Time is divided into ticks. The wheel has several levels of slots: a slot of the first level
+ * covers one tick, a slot of every further level covers a whole revolution of the level below.
+ * Every timeout is put into the slot of the lowest level which reaches its deadline, and whenever
+ * a level completes a revolution, the next slot of the level above is cascaded, i.e. its timeouts
+ * are moved down. A timeout is moved at most once per level, so a tick costs constant time no
+ * matter how many timeouts are pending or how far ahead they are due. Scheduling and cancelling
+ * are constant time and never block, so hundreds of thousands of timeouts cost one thread and
+ * one small object each. Timeouts expire at the first tick at or after their deadline, so the
+ * tick duration is the resolution of the wheel.
+ * <br>
+ * <br>
+ * The thread is started by the first {@link #schedule(Runnable, long, TimeUnit)} and parks while
+ * no timeout is pending, and while the first level is empty until the next cascade. Tasks run
+ * on that thread and must not block.
+ */
+public class TimerWheel implements Closeable {
+	private final static Logger LOG = Logger.getLogger(TimerWheel.class.getName());
+
+	private final String name;
+	private final long tickNanos;
+	private final int bits;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<Timeout>();
+	private volatile boolean idle;
+	private volatile boolean closed;
+	private volatile Thread thread;
+
+	// state below is only accessed by the wheel thread
+	private ArrayDeque<Timeout>[][] levels;
+	private long tick;
+	private int size;
+	private int firstLevelSize;
+
+	/**
+	 * Creates a new wheel with a tick of 10 milliseconds and 512 slots per level.
+	 *
+	 * @param name the name of the wheel thread
+	 */
+	public TimerWheel(String name) {
+		this(name, 10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Creates a new wheel.
+	 *
+	 * @param name the name of the wheel thread
+	 * @param tick the duration of one tick
+	 * @param unit the unit of the tick
+	 * @param slots the number of slots of every level, rounded up to a power of two. Further levels
+	 * 		  are added when a timeout is due after a revolution of the levels so far
+	 * @throws IllegalArgumentException if the tick or the number of slots is not positive
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TimerWheel(String name, long tick, TimeUnit unit, int slots) {
+		super();
+
+		if (tick <= 0 || slots <= 0) {
+			throw new IllegalArgumentException("Tick and slots must be positive: " + tick + ", " + slots);
+		}
+
+		int length = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+
+		this.name = name;
+		this.tickNanos = unit.toNanos(tick);
+		this.bits = Integer.numberOfTrailingZeros(length);
+		this.mask = length - 1;
+		this.levels = new ArrayDeque[][]{ newLevel() };
+	}
+
+	/**
+	 * Returns the duration of one tick.
+	 *
+	 * @return the tick in nanoseconds
+	 */
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Runs the given task on the wheel thread once the given delay has passed.
+	 *
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the timeout, which can be cancelled
+	 * @throws IllegalStateException if this wheel has been closed
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (closed) {
+			throw new IllegalStateException("Timer wheel " + name + " is closed");
+		}
+
+		Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+
+		incoming.add(timeout);
+
+		if (null == thread) {
+			start();
+		} else if (idle) {
+			LockSupport.unpark(thread);
+		}
+
+		return timeout;
+	}
+
+	/**
+	 * Stops the wheel thread. Pending timeouts are dropped without running.
+	 */
+	public synchronized void close() {
+		closed = true;
+
+		if (null != thread) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private synchronized void start() {
+		if (null != thread || closed) {
+			return;
+		}
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void loop() {
+		while (!closed) {
+			long now = System.nanoTime();
+			long current = (now - startTime) / tickNanos;
+
+			if (0 == size) {
+				// nothing to expire in between, skip the empty ticks
+				tick = Math.max(tick, current);
+			}
+
+			drainIncoming();
+
+			while (tick <= current && !closed) {
+				if (0 == firstLevelSize && 0 != (tick & mask)) {
+					// nothing expires before the next cascade
+					tick = Math.min(current + 1, (tick | mask) + 1);
+					continue;
+				}
+
+				advance();
+				tick++;
+			}
+
+			if (0 == size) {
+				idle = true;
+
+				if (incoming.isEmpty() && !closed) {
+					LockSupport.park(this);
+				}
+
+				idle = false;
+			} else if (0 == firstLevelSize && 0 != (tick & mask)) {
+				// sleeps longer than a tick, new timeouts have to wake the thread
+				idle = true;
+
+				if (incoming.isEmpty() && !closed) {
+					LockSupport.parkNanos(this, startTime + ((tick | mask) + 1) * tickNanos - System.nanoTime());
+				}
+
+				idle = false;
+			} else {
+				LockSupport.parkNanos(this, startTime + tick * tickNanos - System.nanoTime());
+			}
+		}
+
+		incoming.clear();
+
+		for (int level = 0; level < levels.length; level++) {
+			for (int i = 0; i < levels[level].length; i++) {
+				levels[level][i].clear();
+			}
+		}
+	}
+
+	private void drainIncoming() {
+		Timeout timeout;
+
+		while (null != (timeout = incoming.poll())) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+
+			timeout.expiry = Math.max(tick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos);
+			add(timeout);
+			size++;
+		}
+	}
+
+	/**
+	 * Puts the given timeout into the slot of the lowest level which reaches its expiry.
+	 */
+	private void add(Timeout timeout) {
+		int level = 0;
+		int shift = 0;
+
+		// terminates before the shift reaches 63, the expiry and the tick are not negative
+		while ((timeout.expiry >>> shift) - (tick >>> shift) > mask) {
+			level++;
+			shift += bits;
+		}
+
+		if (level >= levels.length) {
+			int length = levels.length;
+
+			levels = Arrays.copyOf(levels, level + 1);
+
+			for (int i = length; i <= level; i++) {
+				levels[i] = newLevel();
+			}
+		}
+
+		levels[level][(int) ((timeout.expiry >>> shift) & mask)].addLast(timeout);
+
+		if (0 == level) {
+			firstLevelSize++;
+		}
+	}
+
+	/**
+	 * Cascades the levels completing a revolution at the current tick, highest first, and expires
+	 * the timeouts of the tick.
+	 */
+	private void advance() {
+		for (int level = levels.length - 1; level > 0; level--) {
+			int shift = level * bits;
+
+			if (0 == (tick & ((1L << shift) - 1))) {
+				cascade(levels[level][(int) ((tick >>> shift) & mask)]);
+			}
+		}
+
+		ArrayDeque<Timeout> slot = levels[0][(int) (tick & mask)];
+		Timeout timeout;
+
+		while (null != (timeout = slot.pollFirst())) {
+			size--;
+			firstLevelSize--;
+			timeout.expire();
+		}
+	}
+
+	private void cascade(ArrayDeque<Timeout> slot) {
+		Timeout timeout;
+
+		while (null != (timeout = slot.pollFirst())) {
+			if (timeout.isCancelled()) {
+				size--;
+			} else {
+				add(timeout);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private ArrayDeque<Timeout>[] newLevel() {
+		ArrayDeque<Timeout>[] slots = new ArrayDeque[mask + 1];
+
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new ArrayDeque<Timeout>();
+		}
+
+		return slots;
+	}
+
+	/**
+	 * A task scheduled on a {@link TimerWheel}.
+	 */
+	public static class Timeout {
+		private final static int PENDING = 0;
+		private final static int EXPIRED = 1;
+		private final static int CANCELLED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state;
+		private long expiry;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Returns the {@link System#nanoTime()} this timeout is due at.
+		 *
+		 * @return the deadline
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Cancels this timeout. A cancelled timeout does not run.
+		 *
+		 * @return <code>true</code> if the timeout was cancelled, <code>false</code> if it ran already
+		 */
+		public synchronized boolean cancel() {
+			if (PENDING != state) {
+				return CANCELLED == state;
+			}
+
+			state = CANCELLED;
+			return true;
+		}
+
+		/**
+		 * Returns whether this timeout has been cancelled.
+		 *
+		 * @return <code>true</code> if {@link #cancel()} was called before the timeout ran
+		 */
+		public boolean isCancelled() {
+			return CANCELLED == state;
+		}
+
+		/**
+		 * Returns whether the task of this timeout has run.
+		 *
+		 * @return <code>true</code> if the timeout expired
+		 */
+		public boolean isExpired() {
+			return EXPIRED == state;
+		}
+
+		private void expire() {
+			synchronized (this) {
+				if (PENDING != state) {
+					return;
+				}
+
+				state = EXPIRED;
+			}
+
+			try {
+				task.run();
+			} catch (Throwable t) {
+				LOG.log(Level.SEVERE, "Timer task " + task + " failed", t);
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
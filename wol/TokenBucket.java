@@ -0,0 +1,100 @@
+/*
+ * $Id$
+ */
+package wol;
+
+/**
+ * A token bucket rate limiter driven by {@link System#nanoTime()}. Tokens are added
+ * continuously at the configured rate, up to the capacity of the bucket.
+ * <br>
+ * <br>
+ * This class is not synchronized, it is meant to be owned by a single dispatching thread.
+ */
+public class TokenBucket {
+	private final static long NANOS_PER_SECOND = 1000000000L;
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Creates a new bucket which starts full.
+	 *
+	 * @param tokensPerSecond the rate tokens are added at. A rate of 0 or less means unlimited
+	 * @param capacity the maximum number of tokens, at least 1
+	 * @param now the current {@link System#nanoTime()}
+	 */
+	public TokenBucket(double tokensPerSecond, double capacity, long now) {
+		super();
+		this.tokensPerNano = tokensPerSecond / NANOS_PER_SECOND;
+		this.capacity = Math.max(1, capacity);
+		this.tokens = this.capacity;
+		this.lastRefill = now;
+	}
+
+	/**
+	 * Returns whether this bucket limits anything.
+	 *
+	 * @return <code>false</code> if the bucket was created with an unlimited rate
+	 */
+	public boolean isLimited() {
+		return tokensPerNano > 0;
+	}
+
+	/**
+	 * Adds the tokens accumulated since the last refill.
+	 *
+	 * @param now the current {@link System#nanoTime()}
+	 */
+	public void refill(long now) {
+		if (isLimited() && now > lastRefill) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+		}
+
+		lastRefill = now;
+	}
+
+	/**
+	 * Returns whether a token is available.
+	 *
+	 * @return <code>true</code> if {@link #take()} will succeed
+	 */
+	public boolean hasToken() {
+		return !isLimited() || tokens >= 1;
+	}
+
+	/**
+	 * Takes one token from the bucket if one is available.
+	 *
+	 * @return <code>true</code> if a token was taken
+	 */
+	public boolean take() {
+		if (!isLimited()) {
+			return true;
+		}
+
+		if (tokens >= 1) {
+			tokens -= 1;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the time until the next token is available, as of the last refill.
+	 *
+	 * @return the time in nanoseconds, 0 if a token is available
+	 */
+	public long nanosUntilToken() {
+		if (hasToken()) {
+			return 0;
+		}
+
+		return (long)Math.ceil((1 - tokens) / tokensPerNano);
+	}
+}
+
+/*
+ * $Log$
+ */
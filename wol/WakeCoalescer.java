@@ -0,0 +1,209 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import wol.configuration.EthernetAddress;
+
+/**
+ * Merges repeated wake ups of the same ethernet address into one magic packet.
+ * <br>
+ * <br>
+ * The first request for an ethernet address sends its magic packet at once and opens a window.
+ * Requests for the same address within the window send nothing, they complete together with the
+ * packet of the first request. Every request gets its own future, completing with
+ * <code>true</code> if the request sent the packet and <code>false</code> if it was coalesced,
+ * or exceptionally if the packet could not be sent. A failed packet closes the window, so the
+ * next request sends again.
+ * <br>
+ * <br>
+ * The window is keyed by the ethernet address only: a coalesced request is sent to the host and
+ * port of the first request. This class is thread safe.
+ */
+public class WakeCoalescer {
+	private final static Function<Void, Boolean> COALESCED = new Function<Void, Boolean>() {
+		public Boolean apply(Void ignored) {
+			return Boolean.FALSE;
+		}
+	};
+
+	private final WakeSender sender;
+	private final ConcurrentHashMap<EthernetAddress, Window> windows = new ConcurrentHashMap<EthernetAddress, Window>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private volatile long windowNanos = TimeUnit.SECONDS.toNanos(2);
+	private volatile long lastSweep = System.nanoTime();
+	private final BiFunction<Window, Window, Window> coalesce = new BiFunction<Window, Window, Window>() {
+		public Window apply(Window existing, Window created) {
+			return created.start - existing.start < windowNanos && !existing.failed ? existing : created;
+		}
+	};
+
+	/**
+	 * Creates a new coalescer sending through the given sender.
+	 *
+	 * @param sender the sender. It must be open when requests are made
+	 */
+	public WakeCoalescer(WakeSender sender) {
+		super();
+		this.sender = sender;
+	}
+
+	/**
+	 * Returns the window in which requests for the same ethernet address are coalesced.
+	 *
+	 * @return the window in nanoseconds
+	 */
+	public long getWindowNanos() {
+		return windowNanos;
+	}
+
+	/**
+	 * Sets the window in which requests for the same ethernet address are coalesced. The default
+	 * is 2 seconds. A window of 0 sends every request.
+	 *
+	 * @param window the window
+	 * @param unit the unit of the window
+	 */
+	public void setWindow(long window, TimeUnit unit) {
+		this.windowNanos = Math.max(0, unit.toNanos(window));
+	}
+
+	/**
+	 * Wakes up the given target unless its ethernet address was woken up within the window.
+	 *
+	 * @param target the target
+	 * @return a future completing with <code>true</code> if this request sent the magic packet and
+	 * <code>false</code> if it was coalesced with an earlier request
+	 */
+	public CompletableFuture<Boolean> wake(WakeTarget target) {
+		long now = System.nanoTime();
+		final Window window = new Window(now);
+		Window current = windows.merge(target.getEthernetAddress(), window, coalesce);
+
+		requests.increment();
+		sweep(now);
+
+		if (current != window) {
+			coalesced.increment();
+			return current.sent.thenApply(COALESCED);
+		}
+
+		CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+		try {
+			ByteBuffer frame = ByteBuffer.allocate(WakeUpUtil.FRAME_LENGTH);
+
+			WakeUpUtil.createWakeupFrame(target.getEthernetAddress(), frame);
+			frame.flip();
+			sender.send(frame, target.getAddress());
+			window.sent.complete(null);
+			result.complete(Boolean.TRUE);
+		} catch (IOException e) {
+			window.failed = true;
+			windows.remove(target.getEthernetAddress(), window);
+			window.sent.completeExceptionally(e);
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Wakes up the given ethernet address unless it was woken up within the window.
+	 *
+	 * @param ethernetAddress the ethernet address to wake up
+	 * @param host the host, the magic sequence will be send to
+	 * @param port the port number
+	 * @return a future completing with <code>true</code> if this request sent the magic packet and
+	 * <code>false</code> if it was coalesced with an earlier request
+	 * @see #wake(WakeTarget)
+	 */
+	public CompletableFuture<Boolean> wake(EthernetAddress ethernetAddress, InetAddress host, int port) {
+		return wake(new WakeTarget(ethernetAddress, host, port));
+	}
+
+	/**
+	 * Returns the number of requests made.
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Returns the number of requests which were coalesced with an earlier request.
+	 *
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Returns the share of requests which were coalesced with an earlier request.
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if no request was made
+	 */
+	public double getHitRate() {
+		long total = requests.sum();
+
+		return 0 == total ? 0 : (double) coalesced.sum() / total;
+	}
+
+	/**
+	 * Resets the request counters.
+	 */
+	public void resetCounters() {
+		requests.reset();
+		coalesced.reset();
+	}
+
+	/**
+	 * Removes expired windows, at most once per window.
+	 */
+	private void sweep(long now) {
+		long window = windowNanos;
+
+		if (now - lastSweep < window) {
+			return;
+		}
+
+		lastSweep = now;
+
+		for (Iterator<Window> i = windows.values().iterator(); i.hasNext();) {
+			if (now - i.next().start >= window) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * The window opened by the request which sent the packet.
+	 */
+	private static class Window {
+		final long start;
+		final CompletableFuture<Void> sent = new CompletableFuture<Void>();
+		volatile boolean failed;
+
+		Window(long start) {
+			this.start = start;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,128 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of targets handed to a {@link WakeScheduler}, together with the progress of their wake up.
+ * The plan is completed once a packet has been sent (or failed to send) for every target,
+ * or once it has been cancelled.
+ */
+public class WakePlan {
+	private final WakeTarget[] targets;
+	private final AtomicInteger sent = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger pending;
+	private final CompletableFuture<WakePlan> completion = new CompletableFuture<WakePlan>();
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a new plan for the given targets.
+	 *
+	 * @param targets the targets
+	 */
+	public WakePlan(WakeTarget[] targets) {
+		super();
+		this.targets = targets.clone();
+		this.pending = new AtomicInteger(targets.length);
+
+		if (0 == targets.length) {
+			completion.complete(this);
+		}
+	}
+
+	/**
+	 * Returns the number of targets in this plan.
+	 *
+	 * @return the number of targets
+	 */
+	public int size() {
+		return targets.length;
+	}
+
+	/**
+	 * Returns the target with the given index.
+	 *
+	 * @param index the index
+	 * @return the target
+	 */
+	public WakeTarget getTarget(int index) {
+		return targets[index];
+	}
+
+	/**
+	 * Returns the number of packets sent so far.
+	 *
+	 * @return the number of packets
+	 */
+	public int getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * Returns the number of packets which could not be sent.
+	 *
+	 * @return the number of packets
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns whether all targets of this plan have been handled, or the plan has been cancelled.
+	 *
+	 * @return <code>true</code> if the plan is done
+	 */
+	public boolean isDone() {
+		return completion.isDone();
+	}
+
+	/**
+	 * Returns whether this plan has been cancelled.
+	 *
+	 * @return <code>true</code> if {@link #cancel()} was called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancels this plan. Targets not yet woken up will be skipped.
+	 */
+	public void cancel() {
+		cancelled = true;
+		completion.complete(this);
+	}
+
+	/**
+	 * Returns a future which completes with this plan once the plan is done.
+	 *
+	 * @return the future
+	 */
+	public CompletableFuture<WakePlan> getCompletion() {
+		return completion;
+	}
+
+	void sent() {
+		sent.incrementAndGet();
+		handled();
+	}
+
+	void failed() {
+		failed.incrementAndGet();
+		handled();
+	}
+
+	private void handled() {
+		if (0 == pending.decrementAndGet()) {
+			completion.complete(this);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,399 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.MacIndex;
+
+/**
+ * Listens for magic packets on a UDP port and counts them per ethernet address.
+ * <br>
+ * <br>
+ * Every datagram is checked with {@link WakeUpUtil#readWakeupFrame(ByteBuffer)}. Valid packets
+ * are counted for the ethernet address they wake up, together with the time the address was
+ * first and last seen; everything else is counted as invalid. The datagrams are received into
+ * one reused buffer by a single thread, and only the first packet of an ethernet address
+ * allocates, so the receiver keeps up with hundreds of thousands of packets per second. That
+ * makes it usable both as the sink of load tests and to audit the wake traffic of a network,
+ * see {@link #main(String[])}.
+ * <br>
+ * <br>
+ * The counters can be read from any thread while packets are received; they are updated by the
+ * receiving thread only and never locked.
+ */
+public class WakeReceiver implements Closeable {
+	private final static Logger LOG = Logger.getLogger(WakeReceiver.class.getName());
+	private final static Sighting[] NO_SIGHTINGS = new Sighting[0];
+
+	private final InetSocketAddress bindAddress;
+	private DatagramChannel channel;
+	private Thread thread;
+	private volatile long received;
+	private volatile long invalid;
+
+	// written by the receiving thread only, entries[0..size) is published through size
+	private final MacIndex<Entry> index = new MacIndex<Entry>();
+	private volatile Entry[] entries = new Entry[64];
+	private volatile int size;
+
+	/**
+	 * Creates a new receiver listening on the given port of all local addresses.
+	 *
+	 * @param port the port, e.g. {@link WakeUpUtil#DEFAULT_PORT} or 7
+	 */
+	public WakeReceiver(int port) {
+		this(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Creates a new receiver listening on the given address.
+	 *
+	 * @param bindAddress the local address, port 0 picks a free port
+	 */
+	public WakeReceiver(InetSocketAddress bindAddress) {
+		super();
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Binds the port and starts receiving. Calling this method on a started receiver has no
+	 * effect.
+	 *
+	 * @return this receiver
+	 * @throws IOException if the port could not be bound
+	 */
+	public synchronized WakeReceiver start() throws IOException {
+		if (null != channel) {
+			return this;
+		}
+
+		final DatagramChannel newChannel = DatagramChannel.open();
+
+		try {
+			newChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			newChannel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.valueOf(4 * 1024 * 1024));
+			newChannel.bind(bindAddress);
+		} catch (IOException e) {
+			newChannel.close();
+			throw e;
+		}
+
+		channel = newChannel;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				receive(newChannel);
+			}
+		}, "wake-receiver-" + bindAddress.getPort());
+		thread.setDaemon(true);
+		thread.start();
+
+		return this;
+	}
+
+	/**
+	 * Returns the address this receiver listens on.
+	 *
+	 * @return the bound address
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalStateException if the receiver is not started
+	 */
+	public synchronized InetSocketAddress getAddress() throws IOException {
+		if (null == channel) {
+			throw new IllegalStateException("Receiver is not started");
+		}
+
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+
+	/**
+	 * Stops receiving and releases the port. Calling this method on a closed receiver has no
+	 * effect. The counters are kept.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void close() throws IOException {
+		DatagramChannel current = channel;
+
+		channel = null;
+
+		if (null != current) {
+			current.close();
+		}
+
+		if (null != thread) {
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			thread = null;
+		}
+	}
+
+	/**
+	 * Returns the number of datagrams received.
+	 *
+	 * @return the number of datagrams, valid or not
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Returns the number of datagrams which were not magic packets.
+	 *
+	 * @return the number of invalid datagrams
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+
+	/**
+	 * Returns the number of ethernet addresses seen.
+	 *
+	 * @return the number of ethernet addresses
+	 */
+	public int getEthernetAddressCount() {
+		return size;
+	}
+
+	/**
+	 * Returns the sightings of all ethernet addresses, in the order they were first seen.
+	 *
+	 * @return the sightings, an empty array if no magic packet was received
+	 */
+	public Sighting[] getSightings() {
+		return getSightings(0);
+	}
+
+	/**
+	 * Returns the sightings of the ethernet addresses first seen after the given number of
+	 * addresses, e.g. the addresses new since an earlier {@link #getEthernetAddressCount()}.
+	 *
+	 * @param from the number of addresses to skip
+	 * @return the sightings, an empty array if there are none
+	 */
+	public Sighting[] getSightings(int from) {
+		int count = size;
+		Entry[] current = entries;
+
+		if (from >= count) {
+			return NO_SIGHTINGS;
+		}
+
+		Sighting[] sightings = new Sighting[count - from];
+
+		for (int i = from; i < count; i++) {
+			sightings[i - from] = current[i].toSighting();
+		}
+
+		return sightings;
+	}
+
+	/**
+	 * Returns the sighting of the given ethernet address. Scans all addresses seen; use
+	 * {@link #getSightings()} to look up many addresses.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return the sighting, or <code>null</code> if no magic packet for the address was received
+	 */
+	public Sighting getSighting(EthernetAddress ethernetAddress) {
+		long value = ethernetAddress.toLong();
+		int count = size;
+		Entry[] current = entries;
+
+		for (int i = 0; i < count; i++) {
+			if (value == current[i].ethernetAddress) {
+				return current[i].toSighting();
+			}
+		}
+
+		return null;
+	}
+
+	private void receive(DatagramChannel current) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+
+		try {
+			while (true) {
+				buffer.clear();
+				current.receive(buffer);
+				buffer.flip();
+
+				long ethernetAddress = WakeUpUtil.readWakeupFrame(buffer);
+
+				received++;
+
+				if (EthernetAddress.INVALID == ethernetAddress) {
+					invalid++;
+					continue;
+				}
+
+				long now = System.currentTimeMillis();
+				Entry entry = index.get(ethernetAddress);
+
+				if (null == entry) {
+					entry = new Entry(ethernetAddress, now);
+					index.put(ethernetAddress, entry);
+					append(entry);
+				}
+
+				entry.packets++;
+				entry.lastSeen = now;
+			}
+		} catch (ClosedChannelException e) {
+			// closed by close()
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Stopped receiving on " + bindAddress, e);
+		}
+	}
+
+	private void append(Entry entry) {
+		Entry[] current = entries;
+		int count = size;
+
+		if (count == current.length) {
+			current = Arrays.copyOf(current, count * 2);
+			entries = current;
+		}
+
+		current[count] = entry;
+		size = count + 1;
+	}
+
+	/**
+	 * Receives magic packets and prints every ethernet address when it is first seen, and the
+	 * number of packets received every second.
+	 *
+	 * @param args the port, by default {@link WakeUpUtil#DEFAULT_PORT}
+	 * @throws Exception if the port could not be bound
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = 0 < args.length ? Integer.parseInt(args[0]) : WakeUpUtil.DEFAULT_PORT;
+		WakeReceiver receiver = new WakeReceiver(port).start();
+		int seen = 0;
+		long last = 0;
+
+		System.out.println("Listening on " + receiver.getAddress());
+
+		while (true) {
+			Thread.sleep(1000);
+
+			Sighting[] sightings = receiver.getSightings(seen);
+			long total = receiver.getReceived();
+
+			for (int i = 0; i < sightings.length; i++) {
+				System.out.println("new " + sightings[i]);
+			}
+
+			seen += sightings.length;
+			System.out.println((total - last) + " packets/s, " + total + " received, " + receiver.getInvalid() + " invalid, " + seen
+					+ " ethernet addresses");
+			last = total;
+		}
+	}
+
+	/**
+	 * The magic packets received for one ethernet address.
+	 */
+	public static class Sighting {
+		private final long ethernetAddress;
+		private final long packets;
+		private final long firstSeen;
+		private final long lastSeen;
+
+		/**
+		 * Creates a new sighting.
+		 *
+		 * @param ethernetAddress the 48 bit value of the ethernet address
+		 * @param packets the number of magic packets received
+		 * @param firstSeen the time the first packet was received
+		 * @param lastSeen the time the last packet was received
+		 */
+		public Sighting(long ethernetAddress, long packets, long firstSeen, long lastSeen) {
+			super();
+			this.ethernetAddress = ethernetAddress;
+			this.packets = packets;
+			this.firstSeen = firstSeen;
+			this.lastSeen = lastSeen;
+		}
+
+		/**
+		 * Returns the ethernet address the packets wake up.
+		 *
+		 * @return the 48 bit value of the ethernet address
+		 */
+		public long getEthernetAddress() {
+			return ethernetAddress;
+		}
+
+		/**
+		 * Returns the number of magic packets received.
+		 *
+		 * @return the number of packets
+		 */
+		public long getPackets() {
+			return packets;
+		}
+
+		/**
+		 * Returns the time the first packet was received.
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getFirstSeen() {
+			return firstSeen;
+		}
+
+		/**
+		 * Returns the time the last packet was received.
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getLastSeen() {
+			return lastSeen;
+		}
+
+		public String toString() {
+			return EthernetAddress.toString(ethernetAddress) + ": " + packets + " packets, first " + new Date(firstSeen) + ", last "
+					+ new Date(lastSeen);
+		}
+	}
+
+	/**
+	 * The counters of one ethernet address, written by the receiving thread only.
+	 */
+	private static class Entry {
+		final long ethernetAddress;
+		final long firstSeen;
+		volatile long packets;
+		volatile long lastSeen;
+
+		Entry(long ethernetAddress, long firstSeen) {
+			this.ethernetAddress = ethernetAddress;
+			this.firstSeen = firstSeen;
+		}
+
+		Sighting toSighting() {
+			return new Sighting(ethernetAddress, packets, firstSeen, lastSeen);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ */
+package wol;
+
+/**
+ * The outcome of sending the magic packet of one target with an {@link AsyncWaker}.
+ */
+public class WakeResult {
+	/**
+	 * Whether the packet was sent.
+	 */
+	public enum Status {
+		/**
+		 * The packet was handed to the operating system.
+		 */
+		SENT,
+
+		/**
+		 * The packet could not be sent, see {@link WakeResult#getCause()}.
+		 */
+		FAILED
+	}
+
+	private final WakeTarget target;
+	private final Throwable cause;
+	private final long queuedNanos;
+	private final long sendNanos;
+
+	/**
+	 * Creates a new result.
+	 *
+	 * @param target the target
+	 * @param cause why the packet could not be sent, or <code>null</code> if it was sent
+	 * @param queuedNanos the time between the request and the start of the send
+	 * @param sendNanos the time it took to build and send the packet
+	 */
+	public WakeResult(WakeTarget target, Throwable cause, long queuedNanos, long sendNanos) {
+		super();
+		this.target = target;
+		this.cause = cause;
+		this.queuedNanos = queuedNanos;
+		this.sendNanos = sendNanos;
+	}
+
+	/**
+	 * Returns the target.
+	 *
+	 * @return the target
+	 */
+	public WakeTarget getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns whether the packet was sent.
+	 *
+	 * @return the status
+	 */
+	public Status getStatus() {
+		return null == cause ? Status.SENT : Status.FAILED;
+	}
+
+	/**
+	 * Returns whether the packet was sent.
+	 *
+	 * @return <code>true</code> if the packet was handed to the operating system
+	 */
+	public boolean isSent() {
+		return null == cause;
+	}
+
+	/**
+	 * Returns whether the packet could not be sent.
+	 *
+	 * @return <code>true</code> if sending failed
+	 */
+	public boolean isFailed() {
+		return null != cause;
+	}
+
+	/**
+	 * Returns why the packet could not be sent.
+	 *
+	 * @return the cause, typically an {@link java.io.IOException}, or <code>null</code> if the packet was sent
+	 */
+	public Throwable getCause() {
+		return cause;
+	}
+
+	/**
+	 * Returns the time between the request and the start of the send, spent waiting for a thread
+	 * of the executor and for the targets sent before.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getQueuedNanos() {
+		return queuedNanos;
+	}
+
+	/**
+	 * Returns the time it took to build and send the packet.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getSendNanos() {
+		return sendNanos;
+	}
+
+	public String toString() {
+		return target + (null == cause ? " sent" : " failed: " + cause) + " (queued " + (queuedNanos / 1000) + " us, send " + (sendNanos / 1000) + " us)";
+	}
+}
+
+/*
+ * $Log$
+ */
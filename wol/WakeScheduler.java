@@ -0,0 +1,428 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wakes up large sets of machines at a limited rate, to avoid power inrush spikes and broadcast
+ * storms.
+ * <br>
+ * <br>
+ * Targets are grouped by the address their magic sequence is sent to (the broadcast host), or by
+ * the subnet of that address if a subnet prefix length is set. The groups are drained round robin,
+ * so the wakes of different groups are interleaved. Two token buckets limit the rate:
+ * <ul>
+ * <li>the packet rate over all groups, see {@link #setPacketsPerSecond(double)}</li>
+ * <li>the machine rate of each single group, see {@link #setMachinesPerSecond(double)}</li>
+ * </ul>
+ * All sending happens on one timer thread. {@link #schedule(WakePlan)} only queues the plan and
+ * never blocks. The timer thread sleeps until the next token is due, measured with
+ * {@link System#nanoTime()}, and then sends every packet that became due in the meantime.
+ */
+public class WakeScheduler implements Closeable {
+	private final static Logger LOG = Logger.getLogger(WakeScheduler.class.getName());
+
+	/**
+	 * The shortest time the timer thread sleeps between two rounds.
+	 */
+	private final static long MIN_TICK_NANOS = 200000L;
+
+	/**
+	 * The capacity of the token buckets, in seconds of their rate.
+	 */
+	private final static double BURST_SECONDS = 0.01;
+
+	private final WakeSender sender;
+	private final ScheduledThreadPoolExecutor timer;
+	private final ConcurrentLinkedQueue<WakePlan> incoming = new ConcurrentLinkedQueue<WakePlan>();
+	private final Runnable tick = new Runnable() {
+		public void run() {
+			tick();
+		}
+	};
+	private volatile double packetsPerSecond;
+	private volatile double machinesPerSecond;
+	private volatile int subnetPrefixLength = 32;
+
+	// state below is only accessed by the timer thread
+	private final Map<Object, Group> groups = new HashMap<Object, Group>();
+	private final ArrayDeque<Group> active = new ArrayDeque<Group>();
+	private final ByteBuffer frame = ByteBuffer.allocateDirect(WakeUpUtil.FRAME_LENGTH);
+	private TokenBucket packetBucket;
+	private double packetBucketRate = Double.NaN;
+	private ScheduledFuture<?> nextTick;
+
+	/**
+	 * Creates a new scheduler which sends through the given sender. The scheduler is not rate
+	 * limited until one of the rates is set.
+	 *
+	 * @param sender the sender. Must be open while plans are scheduled
+	 */
+	public WakeScheduler(WakeSender sender) {
+		super();
+		this.sender = sender;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "wake-scheduler");
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Returns the maximum number of packets sent per second over all groups.
+	 *
+	 * @return the rate, 0 if unlimited
+	 */
+	public double getPacketsPerSecond() {
+		return packetsPerSecond;
+	}
+
+	/**
+	 * Sets the maximum number of packets sent per second over all groups.
+	 *
+	 * @param packetsPerSecond the rate, 0 for unlimited
+	 * @throws IllegalArgumentException if the rate is negative
+	 */
+	public void setPacketsPerSecond(double packetsPerSecond) {
+		if (packetsPerSecond < 0) {
+			throw new IllegalArgumentException("Rate must not be negative: " + packetsPerSecond);
+		}
+
+		this.packetsPerSecond = packetsPerSecond;
+	}
+
+	/**
+	 * Returns the maximum number of machines woken up per second in each group.
+	 *
+	 * @return the rate, 0 if unlimited
+	 */
+	public double getMachinesPerSecond() {
+		return machinesPerSecond;
+	}
+
+	/**
+	 * Sets the maximum number of machines woken up per second in each group.
+	 * The rate applies to groups created after this call.
+	 *
+	 * @param machinesPerSecond the rate, 0 for unlimited
+	 * @throws IllegalArgumentException if the rate is negative
+	 */
+	public void setMachinesPerSecond(double machinesPerSecond) {
+		if (machinesPerSecond < 0) {
+			throw new IllegalArgumentException("Rate must not be negative: " + machinesPerSecond);
+		}
+
+		this.machinesPerSecond = machinesPerSecond;
+	}
+
+	/**
+	 * Returns the prefix length used to group IPv4 targets into subnets.
+	 *
+	 * @return the prefix length, 32 if targets are grouped by their host and port
+	 */
+	public int getSubnetPrefixLength() {
+		return subnetPrefixLength;
+	}
+
+	/**
+	 * Sets the prefix length used to group IPv4 targets into subnets. With a prefix length of 32
+	 * (the default) every host and port is a group of its own. Other targets are always grouped by
+	 * host and port. The prefix length applies to plans scheduled after this call.
+	 *
+	 * @param subnetPrefixLength the prefix length, between 0 and 32
+	 * @throws IllegalArgumentException if the prefix length is out of range
+	 */
+	public void setSubnetPrefixLength(int subnetPrefixLength) {
+		if (subnetPrefixLength < 0 || subnetPrefixLength > 32) {
+			throw new IllegalArgumentException("Prefix length out of range: " + subnetPrefixLength);
+		}
+
+		this.subnetPrefixLength = subnetPrefixLength;
+	}
+
+	/**
+	 * Schedules the given plan. This method returns immediately, use {@link WakePlan#getCompletion()}
+	 * to wait for the plan.
+	 *
+	 * @param plan the plan
+	 * @return the plan
+	 * @throws java.util.concurrent.RejectedExecutionException if this scheduler has been closed
+	 */
+	public WakePlan schedule(WakePlan plan) {
+		incoming.add(plan);
+		timer.execute(tick);
+
+		return plan;
+	}
+
+	/**
+	 * Schedules a new plan for the given targets.
+	 *
+	 * @param targets the targets
+	 * @return the plan
+	 * @see #schedule(WakePlan)
+	 */
+	public WakePlan schedule(WakeTarget[] targets) {
+		return schedule(new WakePlan(targets));
+	}
+
+	/**
+	 * Stops this scheduler. Plans which are not done yet are cancelled.
+	 */
+	public void close() {
+		if (!timer.isShutdown()) {
+			timer.execute(new Runnable() {
+				public void run() {
+					cancelAll();
+				}
+			});
+			timer.shutdown();
+		}
+	}
+
+	private void tick() {
+		try {
+			long now = System.nanoTime();
+
+			if (null != nextTick) {
+				nextTick.cancel(false);
+				nextTick = null;
+			}
+
+			drainIncoming(now);
+			dispatch(now);
+
+			if (!active.isEmpty()) {
+				long delay = Math.max(MIN_TICK_NANOS, nanosUntilNextPacket());
+
+				nextTick = timer.schedule(tick, delay, TimeUnit.NANOSECONDS);
+			}
+		} catch (Throwable t) {
+			LOG.log(Level.SEVERE, "Wake scheduler failed, cancelling all plans", t);
+			cancelAll();
+		}
+	}
+
+	private void dispatch(long now) {
+		double rate = packetsPerSecond;
+
+		if (rate != packetBucketRate) {
+			packetBucket = new TokenBucket(rate, rate * BURST_SECONDS, now);
+			packetBucketRate = rate;
+		}
+
+		packetBucket.refill(now);
+
+		for (Iterator<Group> it = active.iterator(); it.hasNext(); ) {
+			it.next().bucket.refill(now);
+		}
+
+		boolean progress = true;
+
+		while (progress && !active.isEmpty() && packetBucket.hasToken()) {
+			progress = false;
+
+			for (int n = active.size(); n > 0 && packetBucket.hasToken(); n--) {
+				Group group = active.pollFirst();
+
+				if (group.bucket.hasToken() && group.hasNext()) {
+					group.bucket.take();
+					packetBucket.take();
+					group.sendNext();
+					progress = true;
+				}
+
+				if (group.hasNext()) {
+					active.addLast(group);
+				} else {
+					groups.remove(group.key);
+				}
+			}
+		}
+	}
+
+	private long nanosUntilNextPacket() {
+		long groupDelay = Long.MAX_VALUE;
+
+		for (Iterator<Group> it = active.iterator(); it.hasNext(); ) {
+			groupDelay = Math.min(groupDelay, it.next().bucket.nanosUntilToken());
+		}
+
+		return Math.max(packetBucket.nanosUntilToken(), groupDelay);
+	}
+
+	private void drainIncoming(long now) {
+		WakePlan plan;
+
+		while (null != (plan = incoming.poll())) {
+			if (plan.isDone()) {
+				continue;
+			}
+
+			int prefixLength = subnetPrefixLength;
+			Map<Object, int[]> partition = new HashMap<Object, int[]>();
+			Object[] keys = new Object[plan.size()];
+
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = groupKey(plan.getTarget(i).getAddress(), prefixLength);
+
+				int[] count = partition.get(keys[i]);
+
+				if (null == count) {
+					partition.put(keys[i], new int[]{ 1 });
+				} else {
+					count[0]++;
+				}
+			}
+
+			for (Map.Entry<Object, int[]> entry : partition.entrySet()) {
+				entry.setValue(new int[entry.getValue()[0]]);
+			}
+
+			Map<Object, int[]> fill = new HashMap<Object, int[]>();
+
+			for (int i = 0; i < keys.length; i++) {
+				int[] indexes = partition.get(keys[i]);
+				int[] position = fill.get(keys[i]);
+
+				if (null == position) {
+					position = new int[1];
+					fill.put(keys[i], position);
+				}
+
+				indexes[position[0]++] = i;
+			}
+
+			for (Map.Entry<Object, int[]> entry : partition.entrySet()) {
+				Group group = groups.get(entry.getKey());
+
+				if (null == group) {
+					group = new Group(entry.getKey(), new TokenBucket(machinesPerSecond, machinesPerSecond * BURST_SECONDS, now));
+					groups.put(group.key, group);
+					active.addLast(group);
+				}
+
+				group.slices.addLast(new Slice(plan, entry.getValue()));
+			}
+		}
+	}
+
+	private void cancelAll() {
+		WakePlan plan;
+
+		while (null != (plan = incoming.poll())) {
+			plan.cancel();
+		}
+
+		for (Iterator<Group> it = active.iterator(); it.hasNext(); ) {
+			Group group = it.next();
+
+			for (Iterator<Slice> slices = group.slices.iterator(); slices.hasNext(); ) {
+				slices.next().plan.cancel();
+			}
+		}
+
+		active.clear();
+		groups.clear();
+	}
+
+	private static Object groupKey(InetSocketAddress address, int prefixLength) {
+		InetAddress host = address.getAddress();
+
+		if (prefixLength < 32 && host instanceof Inet4Address) {
+			byte[] bytes = host.getAddress();
+			int value = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+			int mask = 0 == prefixLength ? 0 : -1 << (32 - prefixLength);
+
+			return Integer.valueOf(value & mask);
+		}
+
+		return address;
+	}
+
+	/**
+	 * The targets sharing one broadcast host or subnet.
+	 */
+	private class Group {
+		private final Object key;
+		private final TokenBucket bucket;
+		private final ArrayDeque<Slice> slices = new ArrayDeque<Slice>();
+
+		Group(Object key, TokenBucket bucket) {
+			this.key = key;
+			this.bucket = bucket;
+		}
+
+		boolean hasNext() {
+			while (!slices.isEmpty()) {
+				Slice slice = slices.peekFirst();
+
+				if (slice.position < slice.indexes.length && !slice.plan.isCancelled()) {
+					return true;
+				}
+
+				slices.pollFirst();
+			}
+
+			return false;
+		}
+
+		void sendNext() {
+			Slice slice = slices.peekFirst();
+			WakeTarget target = slice.plan.getTarget(slice.indexes[slice.position++]);
+
+			frame.clear();
+			WakeUpUtil.createWakeupFrame(target.getEthernetAddress(), frame);
+			frame.flip();
+
+			try {
+				sender.send(frame, target.getAddress());
+				slice.plan.sent();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Could not wake up " + target, e);
+				slice.plan.failed();
+			}
+		}
+	}
+
+	/**
+	 * The part of a plan falling into one group.
+	 */
+	private static class Slice {
+		private final WakePlan plan;
+		private final int[] indexes;
+		private int position;
+
+		Slice(WakePlan plan, int[] indexes) {
+			this.plan = plan;
+			this.indexes = indexes;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,262 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import wol.configuration.EthernetAddress;
+import wol.metrics.WakeMetrics;
+
+/**
+ * A long-lived sender for magic packets. A sender owns a single broadcast enabled
+ * {@link DatagramChannel} which is opened by {@link #open()} and released by {@link #close()}.
+ * All packets sent in between go through that one channel.
+ * <br>
+ * <br>
+ * A sender may be shared by several threads. Each call to one of the <code>send</code> methods
+ * uses its own frame buffer.
+ * <br>
+ * <br>
+ * Every packet sent is recorded in the {@link WakeMetrics} of the sender, by default
+ * {@link WakeMetrics#getDefault()}.
+ *
+ * @see WakeUpUtil
+ */
+public class WakeSender implements Closeable {
+	private final int sendBufferSize;
+	private volatile DatagramChannel channel;
+	private volatile WakeMetrics metrics = WakeMetrics.getDefault();
+
+	/**
+	 * Creates a new sender which uses the operating system's default send buffer size.
+	 */
+	public WakeSender() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new sender with the given send buffer size.
+	 *
+	 * @param sendBufferSize the requested size of the socket send buffer in bytes, or 0 to
+	 * 		  use the operating system's default
+	 * @throws IllegalArgumentException if the send buffer size is negative
+	 */
+	public WakeSender(int sendBufferSize) {
+		super();
+
+		if (sendBufferSize < 0) {
+			throw new IllegalArgumentException("Send buffer size must not be negative: " + sendBufferSize);
+		}
+
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * Opens the channel of this sender and enables broadcast on it. Calling this method on an
+	 * already open sender has no effect.
+	 *
+	 * @return this sender
+	 * @throws IOException if the channel could not be opened or configured
+	 */
+	public synchronized WakeSender open() throws IOException {
+		if (null != channel) {
+			return this;
+		}
+
+		DatagramChannel newChannel = DatagramChannel.open();
+
+		try {
+			newChannel.setOption(StandardSocketOptions.SO_BROADCAST, Boolean.TRUE);
+
+			if (sendBufferSize > 0) {
+				newChannel.setOption(StandardSocketOptions.SO_SNDBUF, Integer.valueOf(sendBufferSize));
+			}
+		} catch (IOException e) {
+			newChannel.close();
+			throw e;
+		}
+
+		channel = newChannel;
+
+		return this;
+	}
+
+	/**
+	 * Returns whether this sender is open.
+	 *
+	 * @return <code>true</code> if {@link #open()} was called and the sender is not closed yet
+	 */
+	public boolean isOpen() {
+		DatagramChannel current = channel;
+
+		return null != current && current.isOpen();
+	}
+
+	/**
+	 * Closes the channel of this sender. Calling this method on a closed sender has no effect.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void close() throws IOException {
+		DatagramChannel current = channel;
+
+		channel = null;
+
+		if (null != current) {
+			current.close();
+		}
+	}
+
+	/**
+	 * Returns the send buffer size this sender was configured with.
+	 *
+	 * @return the send buffer size in bytes, or 0 if the operating system's default is used
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Returns the metrics the packets of this sender are recorded in.
+	 *
+	 * @return the metrics
+	 */
+	public WakeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics the packets of this sender are recorded in.
+	 *
+	 * @param metrics the metrics
+	 */
+	public void setMetrics(WakeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sends the magic sequence for the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address to wake up
+	 * @param host the host, the magic sequence will be send to
+	 * @param port the port number
+	 * @throws IOException if an I/O error occurs or this sender is not open
+	 */
+	public void send(EthernetAddress ethernetAddress, InetAddress host, int port) throws IOException {
+		send(new EthernetAddress[]{ ethernetAddress }, host, port);
+	}
+
+	/**
+	 * Sends the magic sequences for the given ethernet addresses. All sequences are sent
+	 * to the same host and port through the channel of this sender.
+	 *
+	 * @param ethernetAddresses the ethernet addresses to wake up
+	 * @param host the host, the magic sequences will be send to
+	 * @param port the port number
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs or this sender is not open
+	 */
+	public int send(EthernetAddress[] ethernetAddresses, InetAddress host, int port) throws IOException {
+		DatagramChannel current = channel();
+		SocketAddress target = new InetSocketAddress(host, port);
+		ByteBuffer frame = ByteBuffer.allocate(WakeUpUtil.FRAME_LENGTH);
+
+		for (int i = 0; i < ethernetAddresses.length; i++) {
+			long start = metrics.time();
+
+			frame.clear();
+			WakeUpUtil.createWakeupFrame(ethernetAddresses[i], frame);
+			frame.flip();
+			metrics.frameBuilt(start);
+
+			send(current, frame, target);
+		}
+
+		return ethernetAddresses.length;
+	}
+
+	/**
+	 * Sends the prebuilt frames of all machines in the given cache, each to the
+	 * host and port of its machine. Machines without a valid frame are skipped; machines whose
+	 * host is still being resolved are recorded as failed sends, see {@link FrameCache}.
+	 *
+	 * @param frameCache the frame cache
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs or this sender is not open
+	 */
+	public int send(FrameCache frameCache) throws IOException {
+		return frameCache.send(this);
+	}
+
+	/**
+	 * Sends the prebuilt frames of the machines with the given indexes in the given cache.
+	 * Machines without a valid frame are skipped, see {@link #send(FrameCache)}.
+	 *
+	 * @param frameCache the frame cache
+	 * @param indexes the indexes of the machines in the cache
+	 * @return the number of packets sent
+	 * @throws IOException if an I/O error occurs or this sender is not open
+	 */
+	public int send(FrameCache frameCache, int[] indexes) throws IOException {
+		return frameCache.send(this, indexes);
+	}
+
+	/**
+	 * Sends the remaining bytes of the given frame to the given target.
+	 *
+	 * @param frame the frame. Its position will be advanced by the number of bytes sent
+	 * @param target the target address
+	 * @return the number of bytes sent
+	 * @throws IOException if an I/O error occurs or this sender is not open
+	 */
+	public int send(ByteBuffer frame, SocketAddress target) throws IOException {
+		return send(channel(), frame, target);
+	}
+
+	/**
+	 * Sends the given frame through the given channel and records it in the metrics.
+	 */
+	private int send(DatagramChannel current, ByteBuffer frame, SocketAddress target) throws IOException {
+		WakeMetrics recorder = metrics;
+		long start = recorder.time();
+
+		try {
+			int sent = current.send(frame, target);
+
+			recorder.packetSent(target, start);
+			return sent;
+		} catch (IOException e) {
+			recorder.sendFailed(target, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the open channel of this sender.
+	 *
+	 * @return the channel
+	 * @throws ClosedChannelException if this sender is not open
+	 */
+	protected DatagramChannel channel() throws ClosedChannelException {
+		DatagramChannel current = channel;
+
+		if (null == current) {
+			throw new ClosedChannelException();
+		}
+
+		return current;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ */
+package wol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.Machine;
+import wol.configuration.MachineRecord;
+
+/**
+ * An ethernet address together with the host and port its magic sequence is sent to.
+ */
+public class WakeTarget {
+	private final static Logger LOG = Logger.getLogger(WakeTarget.class.getName());
+	private final EthernetAddress ethernetAddress;
+	private final InetSocketAddress address;
+
+	/**
+	 * Creates a new target.
+	 *
+	 * @param ethernetAddress the ethernet address to wake up
+	 * @param address the address the magic sequence will be sent to
+	 * @throws NullPointerException if one of the arguments is null
+	 */
+	public WakeTarget(EthernetAddress ethernetAddress, InetSocketAddress address) {
+		super();
+
+		if (null == ethernetAddress || null == address) {
+			throw new NullPointerException("Ethernet address and address are required");
+		}
+
+		this.ethernetAddress = ethernetAddress;
+		this.address = address;
+	}
+
+	/**
+	 * Creates a new target.
+	 *
+	 * @param ethernetAddress the ethernet address to wake up
+	 * @param host the host, the magic sequence will be send to
+	 * @param port the port number
+	 */
+	public WakeTarget(EthernetAddress ethernetAddress, InetAddress host, int port) {
+		this(ethernetAddress, new InetSocketAddress(host, port));
+	}
+
+	/**
+	 * Creates the target for the given machine configuration. The host of the machine is looked
+	 * up in the {@link HostCache#getDefault() shared host cache} without blocking; a host which is
+	 * not cached yet is resolved in the background and reported as unknown meanwhile.
+	 *
+	 * @param machine the machine
+	 * @return the target
+	 * @throws IllegalEthernetAddressException if the ethernet address of the machine is not valid
+	 * @throws UnknownHostException if the host of the machine is not resolved (yet) or is {@link Machine#AUTO_HOST}
+	 */
+	public static WakeTarget forMachine(Machine machine) throws IllegalEthernetAddressException, UnknownHostException {
+		if (null == machine.getEthernetAddress()) {
+			throw new IllegalEthernetAddressException("Machine " + machine + " has no ethernet address");
+		}
+
+		if (null == machine.getHost()) {
+			throw new UnknownHostException("Machine " + machine + " has no host");
+		}
+
+		if (machine.isAutoHost()) {
+			throw new UnknownHostException("Machine " + machine + " is woken up on all interfaces, see BroadcastFanout");
+		}
+
+		EthernetAddress ethernetAddress = new EthernetAddress(machine.getEthernetAddress());
+
+		return new WakeTarget(ethernetAddress, HostCache.getDefault().resolveCached(machine.getHost()), machine.getPort());
+	}
+
+	/**
+	 * Creates the target for the given machine record, see {@link #forMachine(Machine)}.
+	 *
+	 * @param record the machine record, typically of a {@link wol.configuration.ConfigurationSnapshot}
+	 * @return the target
+	 * @throws IllegalEthernetAddressException if the ethernet address of the machine is not valid
+	 * @throws UnknownHostException if the host of the machine is not resolved (yet) or is {@link Machine#AUTO_HOST}
+	 */
+	public static WakeTarget forRecord(MachineRecord record) throws IllegalEthernetAddressException, UnknownHostException {
+		if (!record.hasValidEthernetAddress()) {
+			throw new IllegalEthernetAddressException("Machine " + record + " has no valid ethernet address");
+		}
+
+		if (null == record.getHost()) {
+			throw new UnknownHostException("Machine " + record + " has no host");
+		}
+
+		if (record.isAutoHost()) {
+			throw new UnknownHostException("Machine " + record + " is woken up on all interfaces, see BroadcastFanout");
+		}
+
+		EthernetAddress ethernetAddress = new EthernetAddress(record.getEthernetAddress());
+
+		return new WakeTarget(ethernetAddress, HostCache.getDefault().resolveCached(record.getHost()), record.getPort());
+	}
+
+	/**
+	 * Creates the targets for the given machine configurations. Machines with an invalid ethernet
+	 * address or an unknown host are skipped and logged.
+	 *
+	 * @param machines the machines
+	 * @return the targets of all valid machines
+	 */
+	public static WakeTarget[] forMachines(Machine[] machines) {
+		List<WakeTarget> targets = new ArrayList<WakeTarget>(machines.length);
+
+		for (int i = 0; i < machines.length; i++) {
+			try {
+				targets.add(forMachine(machines[i]));
+			} catch (IllegalEthernetAddressException e) {
+				LOG.log(Level.WARNING, "Skipping machine " + machines[i] + ": " + e.getMessage());
+			} catch (UnknownHostException e) {
+				LOG.log(Level.WARNING, "Skipping machine " + machines[i] + ": unknown host " + machines[i].getHost());
+			}
+		}
+
+		return targets.toArray(new WakeTarget[targets.size()]);
+	}
+
+	/**
+	 * Returns the ethernet address to wake up.
+	 *
+	 * @return the ethernet address
+	 */
+	public EthernetAddress getEthernetAddress() {
+		return ethernetAddress;
+	}
+
+	/**
+	 * Returns the address the magic sequence will be sent to.
+	 *
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (null == obj || WakeTarget.class != obj.getClass()) {
+			return false;
+		}
+
+		WakeTarget other = (WakeTarget) obj;
+
+		return ethernetAddress.equals(other.ethernetAddress) && address.equals(other.address);
+	}
+
+	public int hashCode() {
+		return 31 * ethernetAddress.hashCode() + address.hashCode();
+	}
+
+	public String toString() {
+		return ethernetAddress + "@" + address;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -4,11 +4,13 @@
 package wol;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import wol.configuration.*;
 
@@ -41,6 +43,13 @@ public class WakeUpUtil {
 	 */
 	public final static int DEFAULT_PORT = 9;
 	
+	/**
+	 * The length of a wakeupframe: 6 bytes 0xFF followed by 16 repetitions of the ethernet address.
+	 */
+	public final static int FRAME_LENGTH = 6 + 16 * 6;
+	
+	private static WakeSender defaultSender;
+	
 	private WakeUpUtil() {
 		super();
 	}
@@ -109,7 +118,8 @@ public class WakeUpUtil {
 	
 	/**
 	 * Wakes up the machines with provided ethernet addresses. 
-	 * The magic sequences are sent to the given host and port.
+	 * The magic sequences are sent to the given host and port through the shared
+	 * sender returned by {@link #getDefaultSender()}.
 	 * 
 	 * @param ethernetAddresses the ethernet addresses to wake up
 	 * @param host the host, the magic sequence will be send to
@@ -117,15 +127,65 @@ public class WakeUpUtil {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public static void wakeup(EthernetAddress[] ethernetAddresses, InetAddress host, int port) throws IOException {
-		DatagramSocket socket = new DatagramSocket();
+		getDefaultSender().send(ethernetAddresses, host, port);
+	}
+	
+	/**
+	 * Wakes up the machines with the provided ethernet addresses without blocking. The magic
+	 * sequences are sent through the shared sender returned by {@link #getDefaultSender()} on the
+	 * threads of {@link AsyncWaker#getDefaultExecutor()}, which also open the sender if needed.
+	 * Unlike the blocking methods, a failed packet does not keep the remaining ones from being
+	 * sent, and a sender which cannot be opened fails every target.
+	 * 
+	 * @param ethernetAddresses the ethernet addresses to wake up
+	 * @param host the host, the magic sequence will be send to
+	 * @param port the port number
+	 * @return a future completing with the result of every ethernet address at its index
+	 * @see AsyncWaker#wakeAll(WakeTarget[])
+	 */
+	public static CompletableFuture<WakeResult[]> wakeupAsync(EthernetAddress[] ethernetAddresses, InetAddress host, int port) {
+		final WakeTarget[] targets = new WakeTarget[ethernetAddresses.length];
+		final long requested = System.nanoTime();
 		
 		for (int i = 0; i < ethernetAddresses.length; i++) {
-			byte[] wakeupFrame = createWakeupFrame(ethernetAddresses[i]);
-			
-			DatagramPacket packet = new DatagramPacket(wakeupFrame, wakeupFrame.length, host, port);
-			
-			socket.send(packet);
+			targets[i] = new WakeTarget(ethernetAddresses[i], host, port);
 		}
+		
+		// opening the sender takes the lock of getDefaultSender(), the caller must not wait for it
+		return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<WakeResult[]>>() {
+			public CompletableFuture<WakeResult[]> get() {
+				WakeSender sender;
+				
+				try {
+					sender = getDefaultSender();
+				} catch (IOException e) {
+					WakeResult[] results = new WakeResult[targets.length];
+					
+					for (int i = 0; i < targets.length; i++) {
+						results[i] = new WakeResult(targets[i], e, System.nanoTime() - requested, 0);
+					}
+					
+					return CompletableFuture.completedFuture(results);
+				}
+				
+				return new AsyncWaker(sender).wakeAll(targets);
+			}
+		}, AsyncWaker.getDefaultExecutor()).thenCompose(Function.<CompletableFuture<WakeResult[]>>identity());
+	}
+	
+	/**
+	 * Returns the sender used by the static <code>wakeup</code> methods. The sender is opened
+	 * on first use and reopened if it has been closed.
+	 * 
+	 * @return the open default sender
+	 * @throws IOException if the sender could not be opened
+	 */
+	public static synchronized WakeSender getDefaultSender() throws IOException {
+		if (null == defaultSender || !defaultSender.isOpen()) {
+			defaultSender = new WakeSender().open();
+		}
+		
+		return defaultSender;
 	}
 	
 	/**
@@ -147,6 +207,76 @@ public class WakeUpUtil {
 		
 		return wakeupFrame;
 	}
+	
+	/**
+	 * Writes the wakeupframe for the given ethernet address into the given buffer,
+	 * starting at its current position.
+	 * 
+	 * @param ethernetAddress the ethernet address
+	 * @param buffer the buffer. Must have at least {@link #FRAME_LENGTH} bytes remaining
+	 * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+	 */
+	public static void createWakeupFrame(EthernetAddress ethernetAddress, ByteBuffer buffer) {
+		createWakeupFrame(ethernetAddress.toLong(), buffer);
+	}
+	
+	/**
+	 * Writes the wakeupframe for the given 48 bit ethernet address into the given buffer,
+	 * starting at its current position. Nothing is allocated.
+	 * 
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @param buffer the buffer. Must have at least {@link #FRAME_LENGTH} bytes remaining
+	 * @throws java.nio.BufferOverflowException if there is not enough space in the buffer
+	 * @see EthernetAddress#toLong()
+	 */
+	public static void createWakeupFrame(long ethernetAddress, ByteBuffer buffer) {
+		for (int j = 0; j < 6; j++) {
+			buffer.put((byte)0xFF);
+		}
+		
+		for (int j = 0; j < 16; j++) {
+			for (int shift = 40; shift >= 0; shift -= 8) {
+				buffer.put((byte)(ethernetAddress >>> shift));
+			}
+		}
+	}
+	
+	/**
+	 * Reads the wakeupframe in the remaining bytes of the given buffer, the reverse of
+	 * {@link #createWakeupFrame(EthernetAddress, ByteBuffer)}. The frame may be followed by a
+	 * SecureOn password of 4 or 6 bytes. The buffer must be in big endian order, the default; its
+	 * position is not changed and nothing is allocated.
+	 * 
+	 * @param buffer the buffer
+	 * @return the 48 bit value of the ethernet address the frame wakes up, or
+	 * {@link EthernetAddress#INVALID} if the bytes are not a wakeupframe
+	 */
+	public static long readWakeupFrame(ByteBuffer buffer) {
+		int start = buffer.position();
+		int length = buffer.remaining();
+		
+		if (FRAME_LENGTH != length && FRAME_LENGTH + 4 != length && FRAME_LENGTH + 6 != length) {
+			return EthernetAddress.INVALID;
+		}
+		
+		if (-1 != buffer.getInt(start) || -1 != buffer.getShort(start + 4)) {
+			return EthernetAddress.INVALID;
+		}
+		
+		long ethernetAddress = readEthernetAddress(buffer, start + 6);
+		
+		for (int offset = start + 12; offset < start + FRAME_LENGTH; offset += 6) {
+			if (ethernetAddress != readEthernetAddress(buffer, offset)) {
+				return EthernetAddress.INVALID;
+			}
+		}
+		
+		return ethernetAddress;
+	}
+	
+	private static long readEthernetAddress(ByteBuffer buffer, int offset) {
+		return ((buffer.getInt(offset) & 0xFFFFFFFFL) << 16) | (buffer.getShort(offset + 4) & 0xFFFF);
+	}
 }
 
 /*
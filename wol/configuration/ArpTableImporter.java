@@ -0,0 +1,143 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Imports the machines of an ARP table in the format of <code>/proc/net/arp</code>.
+ * <br>
+ * <br>
+ * The first line holds the column titles, every following line one neighbour:
+ * <pre>
+ * IP address       HW type     Flags       HW address            Mask     Device
+ * 192.168.1.20     0x1         0x2         00:50:95:10:95:f5     *        eth0
+ * </pre>
+ * Incomplete entries (flags without 0x2) and entries with the null address are skipped. The
+ * machines are named after their IP address.
+ */
+public class ArpTableImporter extends MachineImporter {
+	/**
+	 * The ARP table of the local Linux kernel.
+	 */
+	public final static File PROC_NET_ARP = new File("/proc/net/arp");
+
+	private final static int ATF_COM = 0x2;
+
+	private boolean headerRead;
+
+	/**
+	 * Creates a new importer reading the given file.
+	 *
+	 * @param file the file, e.g. {@link #PROC_NET_ARP}
+	 * @throws IOException if the file could not be opened
+	 */
+	public ArpTableImporter(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param in the stream to read from
+	 */
+	public ArpTableImporter(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param reader the reader to read from
+	 */
+	public ArpTableImporter(Reader reader) {
+		super(reader);
+	}
+
+	public Machine read() throws IOException {
+		String line;
+
+		while (null != (line = readLine())) {
+			if (!headerRead) {
+				headerRead = true;
+
+				if (line.startsWith("IP address")) {
+					continue;
+				}
+			}
+
+			int position = skipBlanks(line, 0);
+
+			if (position == line.length()) {
+				continue;
+			}
+
+			int addressEnd = skipToken(line, position);
+			String address = line.substring(position, addressEnd);
+			int typeEnd = skipToken(line, skipBlanks(line, addressEnd));
+			int flagsStart = skipBlanks(line, typeEnd);
+			int flagsEnd = skipToken(line, flagsStart);
+			int macStart = skipBlanks(line, flagsEnd);
+			int macEnd = skipToken(line, macStart);
+
+			if (macStart == macEnd) {
+				skip("too few columns");
+				continue;
+			}
+
+			int flags;
+
+			try {
+				flags = Integer.decode(line.substring(flagsStart, flagsEnd)).intValue();
+			} catch (NumberFormatException e) {
+				skip("illegal flags '" + line.substring(flagsStart, flagsEnd) + "'");
+				continue;
+			}
+
+			if (0 == (flags & ATF_COM)) {
+				skip("incomplete entry for " + address);
+				continue;
+			}
+
+			long ethernetAddress = parseEthernetAddress(line, macStart, macEnd);
+
+			if (EthernetAddress.INVALID == ethernetAddress) {
+				continue;
+			}
+
+			if (0 == ethernetAddress) {
+				skip("null address for " + address);
+				continue;
+			}
+
+			return createMachine(null, ethernetAddress, address);
+		}
+
+		return null;
+	}
+
+	private static int skipBlanks(String line, int position) {
+		while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+
+		return position;
+	}
+
+	private static int skipToken(String line, int position) {
+		while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+
+		return position;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -3,23 +3,113 @@
  */
 package wol.configuration;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
 import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+
+import wol.metrics.WakeMetrics;
 /**
  * This class represents a WakeOnLan configuration.
+ * <br>
+ * <br>
+ * Configurations are saved in the compact format described in {@link MachineWriter}. Files in
+ * the XML format of earlier versions are still loaded. They are converted to the compact format
+ * on load, the original file is kept with the suffix <code>.xml</code>.
+ * <br>
+ * <br>
+ * Machines can be looked up by ethernet address, name, host and subnet. The indexes are built on
+ * the first lookup after the machines were set and follow later changes of the machines.
+ * <br>
+ * <br>
+ * Threads which only read the machines, e.g. to wake them up, should use {@link #getSnapshot()}.
+ * Every change of the machines publishes a new immutable snapshot, so readers never see a half
+ * applied change. Changes of single machines are collected and published together in the
+ * background shortly after, changes made during a batch when the batch ends; either way only the
+ * records of the changed machines are rebuilt. Taking a snapshot never locks.
+ * <br>
+ * <br>
+ * Machines can have {@link WakeSchedule}s, which are saved next to the configuration in the file
+ * returned by {@link #getScheduleFile()}.
  * 
  * @author <a href="&#109;&#97;&#105;&#108;&#116;&#111;&#58;&#115;&#46;&#109;&#111;&#108;&#100;&#97;&#110;&#101;&#114;&#64;&#103;&#109;&#120;&#46;&#110;&#101;&#116;">Steffen Moldaner</a>
  */
 public class Configuration {
 	private final static Logger LOG = Logger.getLogger(Configuration.class.getName());
-	private Machine[] machines;
+	private final static Machine[] NO_MACHINES = new Machine[0];
+	private final static WakeSchedule[] NO_SCHEDULES = new WakeSchedule[0];
+	
+	/**
+	 * The first line of every schedule file.
+	 */
+	public final static String SCHEDULES_HEADER = "# wakeonlan schedules 1";
+	
+	/**
+	 * Publishes the changes of single machines of all configurations.
+	 */
+	private final static ExecutorService PUBLISHER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "configuration-publisher");
+			
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private volatile Machine[] machines;
+	private final AtomicReference<ConfigurationSnapshot> snapshot = new AtomicReference<ConfigurationSnapshot>(ConfigurationSnapshot.EMPTY);
+	private int updating;
+	private boolean stale;
+	private final BitSet changed = new BitSet();
+	private boolean pending;
+	private final Runnable publisher = new Runnable() {
+		public void run() {
+			publishChanges();
+		}
+	};
+	private boolean replaced;
+	private Machine[] replacedMachines;
 	private File file;
+	private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+	private volatile PropertyChangeSupport machineListeners;
+	private MachineIndex index;
+	private final Map<Machine, WakeSchedule[]> schedules = new IdentityHashMap<Machine, WakeSchedule[]>();
+	private int subnetPrefixLength = 24;
 	
 	public Configuration() {
 		this(System.getProperty("user.home") + File.separatorChar + ".wakeonlan.hosts");
@@ -69,7 +159,7 @@ public class Configuration {
 	 * @return the machines
 	 */
 	public Machine[] getMachines() {
-		return null == machines ? new Machine[0] : machines;
+		return null == machines ? NO_MACHINES : machines;
 	}
 	
 	/**
@@ -78,58 +168,612 @@ public class Configuration {
 	 * @param machines the machines
 	 */
 	public void setMachines(Machine[] machines) {
-		this.machines = machines;
+		Machine[] oldValue;
+		
+		synchronized (this) {
+			oldValue = this.machines;
+			
+			if (null != oldValue) {
+				for (int i = 0; i < oldValue.length; i++) {
+					if (this == oldValue[i].getOwner()) {
+						oldValue[i].setOwner(null, -1);
+					}
+				}
+			}
+			
+			if (null != machines) {
+				for (int i = 0; i < machines.length; i++) {
+					// a machine set twice has no single position
+					machines[i].setOwner(this, this == machines[i].getOwner() ? -1 : i);
+				}
+			}
+			
+			if (null != oldValue && !schedules.isEmpty()) {
+				for (int i = 0; i < oldValue.length; i++) {
+					if (this != oldValue[i].getOwner()) {
+						schedules.remove(oldValue[i]);
+					}
+				}
+			}
+			
+			this.machines = machines;
+			publish();
+			discardIndex();
+			
+			// listeners must not be called while a batch holds the lock, see fireUpdate()
+			if (0 < updating) {
+				if (!replaced) {
+					replaced = true;
+					replacedMachines = oldValue;
+				}
+				
+				return;
+			}
+		}
+		
+		pcs.firePropertyChange("machines", oldValue, machines);
+	}
+	
+	/**
+	 * Returns the current snapshot of the machines. The snapshot never changes; a wake up of
+	 * several machines should take one snapshot and use it throughout, so it sees the machines
+	 * either before or after a concurrent change, but never partly changed. This method does
+	 * not lock; a change of a single machine shows in the snapshots shortly after it was made.
+	 * 
+	 * @return the snapshot
+	 */
+	public ConfigurationSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+	
+	/**
+	 * Starts a batch of changes. Until the matching {@link #endUpdate()} machine changes do not
+	 * publish snapshots, the last call publishes one for all of them. Replacing the machines
+	 * during the batch fires no event until {@link #fireUpdate()}. Must be called while holding
+	 * the lock of this configuration.
+	 */
+	void beginUpdate() {
+		updating++;
+	}
+	
+	/**
+	 * Ends a batch of changes started by {@link #beginUpdate()}.
+	 */
+	void endUpdate() {
+		if (0 == --updating) {
+			if (stale) {
+				publish();
+			} else {
+				publishChanges();
+			}
+		}
+	}
+	
+	/**
+	 * Fires the <code>machines</code> event held back by a batch, if the machines were replaced.
+	 * Must be called after {@link #endUpdate()} without holding the lock of this configuration,
+	 * so listeners may lock their own state and read this configuration in any order.
+	 */
+	void fireUpdate() {
+		Machine[] oldValue;
+		Machine[] newValue;
+		
+		synchronized (this) {
+			if (!replaced || 0 < updating) {
+				return;
+			}
+			
+			oldValue = replacedMachines;
+			newValue = machines;
+			replaced = false;
+			replacedMachines = null;
+		}
+		
+		pcs.firePropertyChange("machines", oldValue, newValue);
+	}
+	
+	/**
+	 * Publishes the snapshot of the current machines. Must be called while holding the lock of
+	 * this configuration.
+	 */
+	private void publish() {
+		if (0 < updating) {
+			stale = true;
+			return;
+		}
+		
+		stale = false;
+		pending = false;
+		changed.clear();
+		snapshot.set(ConfigurationSnapshot.of(snapshot.get().getVersion() + 1, getMachines()));
+	}
+	
+	/**
+	 * Publishes a snapshot with the records of the machines changed since the last snapshot,
+	 * unless a batch is running, which publishes them when it ends.
+	 */
+	private synchronized void publishChanges() {
+		if (!pending || 0 < updating) {
+			return;
+		}
+		
+		ConfigurationSnapshot previous = snapshot.get();
+		
+		pending = false;
+		snapshot.set(previous.with(previous.getVersion() + 1, getMachines(), changed));
+		changed.clear();
+	}
+	
+	/**
+	 * Marks the record of the given machine as changed. The first change after a snapshot
+	 * schedules the next one, so changes made in quick succession are published together.
+	 */
+	synchronized void machineChanged(Machine machine) {
+		if (stale) {
+			return;
+		}
+		
+		int position = machine.getPosition();
+		Machine[] current = getMachines();
+		
+		if (position < 0 || position >= current.length || current[position] != machine) {
+			publish();
+			return;
+		}
+		
+		changed.set(position);
+		
+		if (!pending) {
+			pending = true;
+			
+			if (0 == updating) {
+				PUBLISHER.execute(publisher);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the first machine with the given ethernet address.
+	 * 
+	 * @param ethernetAddress the ethernet address
+	 * @return the machine, or <code>null</code> if no machine has this address
+	 */
+	public Machine findByMac(EthernetAddress ethernetAddress) {
+		return index().findByMac(ethernetAddress.toLong());
+	}
+	
+	/**
+	 * Returns the first machine with the given ethernet address.
+	 * 
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return the machine, or <code>null</code> if no machine has this address
+	 * @see EthernetAddress#toLong()
+	 */
+	public Machine findByMac(long ethernetAddress) {
+		return index().findByMac(ethernetAddress);
+	}
+	
+	/**
+	 * Returns all machines with the given ethernet address.
+	 * 
+	 * @param ethernetAddress the ethernet address
+	 * @return the machines, an empty array if no machine has this address
+	 */
+	public Machine[] findAllByMac(EthernetAddress ethernetAddress) {
+		return index().findAllByMac(ethernetAddress.toLong());
+	}
+	
+	/**
+	 * Returns the first machine with the given name.
+	 * 
+	 * @param name the name
+	 * @return the machine, or <code>null</code> if no machine has this name
+	 */
+	public Machine findByName(String name) {
+		return index().findByName(name);
+	}
+	
+	/**
+	 * Returns all machines whose magic packets are sent to the given host.
+	 * 
+	 * @param host the host, as it was set on the machines
+	 * @return the machines, an empty array if no machine uses this host
+	 */
+	public Machine[] findByHost(String host) {
+		return index().findByHost(host);
+	}
+	
+	/**
+	 * Returns all machines whose host is an IPv4 address in the subnet of the given address.
+	 * Host names are not resolved.
+	 * 
+	 * @param address an address in the subnet
+	 * @return the machines, an empty array if no machine is in the subnet or the address is not an IPv4 address
+	 * @see #getSubnetPrefixLength()
+	 */
+	public Machine[] machinesInSubnet(InetAddress address) {
+		if (!(address instanceof Inet4Address)) {
+			return NO_MACHINES;
+		}
+		
+		byte[] bytes = address.getAddress();
+		int value = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+		
+		return index().findBySubnet(value);
+	}
+	
+	/**
+	 * Returns the wake up schedules of the given machine.
+	 * 
+	 * @param machine the machine
+	 * @return the schedules, an empty array if the machine has none
+	 */
+	public synchronized WakeSchedule[] getSchedules(Machine machine) {
+		WakeSchedule[] machineSchedules = schedules.get(machine);
+		
+		return null == machineSchedules ? NO_SCHEDULES : machineSchedules.clone();
 	}
 	
 	/**
-	 * Loads this configuration from the file returned by {@link #getFile()}.
+	 * Sets the wake up schedules of the given machine. The machine listeners are notified with a
+	 * property change of <code>schedules</code>, whose source is the machine. The schedules of a
+	 * machine are dropped when it is removed from this configuration.
+	 * 
+	 * @param machine a machine of this configuration
+	 * @param schedules the schedules, an empty array or <code>null</code> for none
+	 * @throws IllegalArgumentException if the machine does not belong to this configuration
+	 * @see wol.ScheduledWaker
+	 */
+	public void setSchedules(Machine machine, WakeSchedule[] schedules) {
+		WakeSchedule[] newValue = null == schedules || 0 == schedules.length ? NO_SCHEDULES : schedules.clone();
+		WakeSchedule[] oldValue;
+		
+		synchronized (this) {
+			if (this != machine.getOwner()) {
+				throw new IllegalArgumentException("Machine " + machine + " does not belong to this configuration");
+			}
+			
+			oldValue = 0 == newValue.length ? this.schedules.remove(machine) : this.schedules.put(machine, newValue);
+		}
+		
+		if (null == oldValue) {
+			oldValue = NO_SCHEDULES;
+		}
+		
+		if (!Arrays.equals(oldValue, newValue) && hasMachineListeners()) {
+			fireMachineChange(new PropertyChangeEvent(machine, "schedules", oldValue, newValue));
+		}
+	}
+	
+	/**
+	 * Returns the machines which have wake up schedules, in the order of {@link #getMachines()}.
+	 * 
+	 * @return the machines, an empty array if no machine has a schedule
+	 */
+	public synchronized Machine[] getScheduledMachines() {
+		if (schedules.isEmpty()) {
+			return NO_MACHINES;
+		}
+		
+		Machine[] current = getMachines();
+		List<Machine> scheduled = new ArrayList<Machine>(schedules.size());
+		
+		for (int i = 0; i < current.length; i++) {
+			if (schedules.containsKey(current[i])) {
+				scheduled.add(current[i]);
+			}
+		}
+		
+		return scheduled.toArray(new Machine[scheduled.size()]);
+	}
+	
+	/**
+	 * Returns the file the schedules of the machines are saved to: the file of this configuration
+	 * with the suffix <code>.schedules</code>.
+	 * <br>
+	 * <br>
+	 * The file is UTF-8 text. The first line is {@link #SCHEDULES_HEADER}, every following line
+	 * holds one schedule of a machine: ethernet address, schedule and name, separated by tabs. A
+	 * schedule belongs to the machine with the ethernet address and the name, or to the first
+	 * machine with the ethernet address, or to the first machine with the name. Empty lines and
+	 * lines starting with <code>#</code> are ignored.
+	 * 
+	 * @return the schedule file
+	 */
+	public File getScheduleFile() {
+		return new File(file.getPath() + ".schedules");
+	}
+	
+	/**
+	 * Returns the prefix length of the subnets used by {@link #machinesInSubnet(InetAddress)}.
+	 * The default is 24.
+	 * 
+	 * @return the prefix length
+	 */
+	public synchronized int getSubnetPrefixLength() {
+		return subnetPrefixLength;
+	}
+	
+	/**
+	 * Sets the prefix length of the subnets used by {@link #machinesInSubnet(InetAddress)}.
+	 * 
+	 * @param subnetPrefixLength the prefix length, between 0 and 32
+	 * @throws IllegalArgumentException if the prefix length is out of range
+	 */
+	public void setSubnetPrefixLength(int subnetPrefixLength) {
+		if (subnetPrefixLength < 0 || subnetPrefixLength > 32) {
+			throw new IllegalArgumentException("Prefix length out of range: " + subnetPrefixLength);
+		}
+		
+		synchronized (this) {
+			this.subnetPrefixLength = subnetPrefixLength;
+		}
+		
+		discardIndex();
+	}
+	
+	private synchronized MachineIndex index() {
+		if (null == index) {
+			index = new MachineIndex(this, getMachines(), subnetPrefixLength);
+		}
+		
+		return index;
+	}
+	
+	private synchronized void discardIndex() {
+		if (null != index) {
+			index.dispose();
+			index = null;
+		}
+	}
+	
+	/**
+	 * Loads this configuration from the file returned by {@link #getFile()}. A file in the XML
+	 * format of earlier versions is converted to the compact format.
 	 * 
 	 * @throws FileNotFoundException if the file does not exist.
 	 * @see #getFile()
 	 */
 	public void loadConfig() throws FileNotFoundException {
-		XMLDecoder decoder = new XMLDecoder(new FileInputStream(file));
+		long start = WakeMetrics.getDefault().time();
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		boolean xml = false;
 		
 		try {
-			this.machines = (Machine[]) decoder.readObject();
+			xml = isXml(in);
+			setMachines(xml ? readXml(in) : readCompact(in));
+			loadSchedules();
+			WakeMetrics.getDefault().configurationLoaded(file, getMachines().length, start);
 		} catch (Throwable t) {
 			String errMsg = "Could not load configuration";
 			
 			LOG.log(Level.SEVERE, errMsg, t);
+			xml = false;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "Could not close configuration", e);
+			}
+		}
+		
+		if (xml) {
+			migrate();
+		}
+	}
+	
+	/**
+	 * Reloads this configuration from the file returned by {@link #getFile()} and applies the
+	 * differences to the current machines.
+	 * <br>
+	 * <br>
+	 * A machine of the file is matched to a current machine with the same ethernet address or,
+	 * failing that, the same name. Matched machines are kept and updated with the setters, so their
+	 * listeners see the usual property change events. Machines which were added or removed replace
+	 * the machine array, previously returned arrays are never modified. If the file cannot be read
+	 * the current machines are kept. The schedules are reloaded as well.
+	 *
+	 * @throws IOException if the file could not be read
+	 * @see ConfigurationWatcher
+	 */
+	public void reload() throws IOException {
+		long start = WakeMetrics.getDefault().time();
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		Machine[] loaded;
+		
+		try {
+			loaded = isXml(in) ? readXml(in) : readCompact(in);
+		} catch (RuntimeException e) {
+			throw new IOException("Could not parse " + file, e);
+		} finally {
+			in.close();
+		}
+		
+		apply(loaded);
+		loadSchedules();
+		WakeMetrics.getDefault().configurationLoaded(file, loaded.length, start);
+	}
+	
+	/**
+	 * Reads the machines of the given file without creating a configuration. Unlike
+	 * {@link #loadConfig()}, the file is never written: a file in the XML format of earlier
+	 * versions is read as it is. Schedules are not read.
+	 * 
+	 * @param file the file
+	 * @return the snapshot of the machines, empty if the file does not exist
+	 * @throws IOException if the file could not be read
+	 */
+	public static ConfigurationSnapshot readSnapshot(File file) throws IOException {
+		if (!file.exists()) {
+			return ConfigurationSnapshot.EMPTY;
+		}
+		
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		Machine[] loaded;
+		
+		try {
+			loaded = isXml(in) ? readXml(in) : readCompact(in);
+		} catch (RuntimeException e) {
+			throw new IOException("Could not parse " + file, e);
+		} finally {
+			in.close();
+		}
+		
+		return ConfigurationSnapshot.of(1, loaded);
+	}
+	
+	/**
+	 * Applies the given machines to the current machines, see {@link #reload()}.
+	 */
+	private void apply(Machine[] loaded) {
+		synchronized (this) {
+			beginUpdate();
+			
+			try {
+				applyUpdate(loaded);
+			} finally {
+				endUpdate();
+			}
+		}
+		
+		fireUpdate();
+	}
+	
+	/**
+	 * Matches the given machines to the current machines and updates them, see {@link #apply(Machine[])}.
+	 */
+	private void applyUpdate(Machine[] loaded) {
+		Machine[] current = getMachines();
+		MacIndex<ArrayDeque<Machine>> byMac = new MacIndex<ArrayDeque<Machine>>(current.length);
+		Map<String, ArrayDeque<Machine>> byName = new HashMap<String, ArrayDeque<Machine>>(current.length * 2);
+		Set<Machine> remaining = Collections.newSetFromMap(new IdentityHashMap<Machine, Boolean>(current.length * 2));
+		
+		for (int i = 0; i < current.length; i++) {
+			Machine machine = current[i];
+			long ethernetAddress = toLong(machine.getEthernetAddress());
+			
+			if (EthernetAddress.INVALID != ethernetAddress) {
+				ArrayDeque<Machine> candidates = byMac.get(ethernetAddress);
+				
+				if (null == candidates) {
+					candidates = new ArrayDeque<Machine>(1);
+					byMac.put(ethernetAddress, candidates);
+				}
+				
+				candidates.add(machine);
+			}
+			
+			ArrayDeque<Machine> candidates = byName.get(machine.getName());
+			
+			if (null == candidates) {
+				candidates = new ArrayDeque<Machine>(1);
+				byName.put(machine.getName(), candidates);
+			}
+			
+			candidates.add(machine);
+			remaining.add(machine);
 		}
 		
-		decoder.close();
+		Machine[] result = new Machine[loaded.length];
+		boolean replace = loaded.length != current.length;
+		int added = 0;
+		int updated = 0;
+		
+		for (int i = 0; i < loaded.length; i++) {
+			Machine machine = loaded[i];
+			Machine match = null;
+			long ethernetAddress = toLong(machine.getEthernetAddress());
+			
+			if (EthernetAddress.INVALID != ethernetAddress) {
+				match = poll(byMac.get(ethernetAddress), remaining);
+			}
+			
+			if (null == match) {
+				match = poll(byName.get(machine.getName()), remaining);
+			}
+			
+			if (null == match) {
+				result[i] = machine;
+				added++;
+				replace = true;
+				continue;
+			}
+			
+			if (!match.equals(machine)) {
+				match.setName(machine.getName());
+				match.setEthernetAddress(machine.getEthernetAddress());
+				match.setHost(machine.getHost());
+				match.setPort(machine.getPort());
+				match.setComment(machine.getComment());
+				updated++;
+			}
+			
+			result[i] = match;
+			replace |= i >= current.length || current[i] != match;
+		}
+		
+		if (replace) {
+			setMachines(result);
+		}
+		
+		if (added > 0 || updated > 0 || remaining.size() > 0) {
+			LOG.info("Reloaded configuration " + file + ": " + added + " added, " + updated + " updated, " + remaining.size() + " removed");
+		}
+	}
+	
+	/**
+	 * Returns the first of the given candidates which is still unmatched and marks it as matched.
+	 */
+	private static Machine poll(ArrayDeque<Machine> candidates, Set<Machine> remaining) {
+		if (null != candidates) {
+			Machine candidate;
+			
+			while (null != (candidate = candidates.poll())) {
+				if (remaining.remove(candidate)) {
+					return candidate;
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	private static long toLong(String ethernetAddress) {
+		if (null == ethernetAddress) {
+			return EthernetAddress.INVALID;
+		}
+		
+		return EthernetAddress.parse(ethernetAddress, 0, ethernetAddress.length(), true);
 	}
 	
 	/**
 	 * Saves this configuration to the file returned by {@link #getFile()}.
 	 * This is equal to saveConfig(getFile()).
 	 * 
-	 * @throws FileNotFoundException if the file exists but is a directory
-    * 		  rather than a regular file, does not exist but cannot
-    *         be created, or cannot be opened for any other reason
+	 * @throws IOException if the file or its schedule file could not be written
 	 * @see #getFile()
 	 * @see #saveConfigAs(File)
 	 */
-	public void saveConfig() throws FileNotFoundException {
+	public void saveConfig() throws IOException {
 		saveConfigAs(this.file);
 	}
 	
 	/**
 	 * Saves this configuration to the given file. The configuration will then 
 	 * use this file for saves.
+	 * <br>
+	 * <br>
+	 * Both files are written to temporary files first, which then replace them, so readers
+	 * and a crash during the save never see a partly written file. If the save fails, the
+	 * configuration keeps using its current file.
 	 * 
 	 * @param file the file
-	 * @throws FileNotFoundException if the file exists but is a directory
-    * 		  rather than a regular file, does not exist but cannot
-    *         be created, or cannot be opened for any other reason
+	 * @throws IOException if the file or its schedule file could not be written
 	 * @see #saveConfigAs(File)
 	 */
-	public void saveConfigAs(File file) throws FileNotFoundException {
-		XMLEncoder encoder = new XMLEncoder(new FileOutputStream(file));
-		
-		encoder.writeObject(this.machines);
-		encoder.close();
+	public void saveConfigAs(File file) throws IOException {
+		writeCompact(file);
+		writeSchedules(new File(file.getPath() + ".schedules"));
 		this.file = file;
 	}
 	
@@ -141,6 +785,380 @@ public class Configuration {
 	public File getFile() {
 		return file;
 	}
+	
+	/**
+	 * Converts the XML file just loaded to the compact format, keeping a copy of the XML file.
+	 */
+	private void migrate() {
+		File backup = new File(file.getPath() + ".xml");
+		
+		try {
+			Files.copy(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			writeCompact(file);
+			LOG.info("Converted configuration " + file + " to the compact format, the XML file was saved as " + backup);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not convert configuration " + file + " to the compact format", e);
+		}
+	}
+	
+	private void writeCompact(File file) throws IOException {
+		Path temporary = createTemporary(file);
+		
+		try {
+			FileOutputStream out = new FileOutputStream(temporary.toFile());
+			
+			try {
+				MachineWriter writer = new MachineWriter(out);
+				
+				writer.write(getMachines());
+				writer.close();
+			} finally {
+				out.close();
+			}
+			
+			replace(temporary, file);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+	
+	/**
+	 * Creates an empty temporary file in the directory of the given file, with the permissions
+	 * of the file if it exists.
+	 */
+	private static Path createTemporary(File file) throws IOException {
+		Path target = file.getAbsoluteFile().toPath();
+		Path temporary = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+		
+		if (Files.exists(target)) {
+			try {
+				Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(target));
+			} catch (UnsupportedOperationException e) {
+				// not a POSIX file system, the temporary file has the default permissions
+			}
+		}
+		
+		return temporary;
+	}
+	
+	/**
+	 * Replaces the given file with the temporary file in one step, if the file system can.
+	 */
+	private static void replace(Path temporary, File file) throws IOException {
+		try {
+			Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Writes the schedules of the machines, or deletes the schedule file if no machine has a
+	 * schedule.
+	 */
+	private void writeSchedules(File scheduleFile) throws IOException {
+		Machine[] scheduled = getScheduledMachines();
+		
+		if (0 == scheduled.length) {
+			Files.deleteIfExists(scheduleFile.toPath());
+			return;
+		}
+		
+		Path temporary = createTemporary(scheduleFile);
+		
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary.toFile()), StandardCharsets.UTF_8), 64 * 1024);
+			
+			try {
+				writer.write(SCHEDULES_HEADER);
+				writer.write('\n');
+				
+				for (int i = 0; i < scheduled.length; i++) {
+					Machine machine = scheduled[i];
+					WakeSchedule[] machineSchedules = getSchedules(machine);
+					// the name is the last field, only line breaks have to be kept out of it
+					String name = null == machine.getName() ? "" : machine.getName().replace('\n', ' ').replace('\r', ' ');
+					
+					for (int j = 0; j < machineSchedules.length; j++) {
+						writer.write(null == machine.getEthernetAddress() ? "" : machine.getEthernetAddress());
+						writer.write('\t');
+						writer.write(machineSchedules[j].getExpression());
+						writer.write('\t');
+						writer.write(name);
+						writer.write('\n');
+					}
+				}
+			} finally {
+				writer.close();
+			}
+			
+			replace(temporary, scheduleFile);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+	
+	/**
+	 * Reads the schedule file and sets the schedules of all machines; machines without a line in
+	 * the file lose their schedules. Lines which cannot be parsed or match no machine are logged
+	 * and skipped.
+	 */
+	private void loadSchedules() {
+		File scheduleFile = getScheduleFile();
+		Map<Machine, List<WakeSchedule>> loaded = new IdentityHashMap<Machine, List<WakeSchedule>>();
+		
+		if (scheduleFile.exists()) {
+			try {
+				readSchedules(scheduleFile, loaded);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not load schedules " + scheduleFile + ", the current schedules are kept", e);
+				return;
+			}
+		}
+		
+		Machine[] current = getMachines();
+		
+		for (int i = 0; i < current.length; i++) {
+			List<WakeSchedule> machineSchedules = loaded.get(current[i]);
+			
+			setSchedules(current[i], null == machineSchedules ? null : machineSchedules.toArray(new WakeSchedule[machineSchedules.size()]));
+		}
+	}
+	
+	private void readSchedules(File scheduleFile, Map<Machine, List<WakeSchedule>> loaded) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(scheduleFile), StandardCharsets.UTF_8), 64 * 1024);
+		
+		try {
+			String line = reader.readLine();
+			
+			if (!SCHEDULES_HEADER.equals(line)) {
+				throw new IOException("Not a wakeonlan schedules file, expected '" + SCHEDULES_HEADER + "' in line 1");
+			}
+			
+			for (int lineNumber = 2; null != (line = reader.readLine()); lineNumber++) {
+				if (0 == line.length() || '#' == line.charAt(0)) {
+					continue;
+				}
+				
+				String[] fields = line.split("\t", 3);
+				
+				if (fields.length < 2) {
+					LOG.warning("Skipped line " + lineNumber + " of " + scheduleFile + ": expected ethernet address, schedule and name");
+					continue;
+				}
+				
+				WakeSchedule schedule;
+				
+				try {
+					schedule = WakeSchedule.parse(fields[1]);
+				} catch (IllegalArgumentException e) {
+					LOG.warning("Skipped line " + lineNumber + " of " + scheduleFile + ": " + e.getMessage());
+					continue;
+				}
+				
+				Machine machine = findScheduled(toLong(fields[0]), 3 == fields.length ? fields[2] : "");
+				
+				if (null == machine) {
+					LOG.warning("Skipped line " + lineNumber + " of " + scheduleFile + ": no machine " + fields[0] + " " + (3 == fields.length ? fields[2] : ""));
+					continue;
+				}
+				
+				List<WakeSchedule> machineSchedules = loaded.get(machine);
+				
+				if (null == machineSchedules) {
+					machineSchedules = new ArrayList<WakeSchedule>(1);
+					loaded.put(machine, machineSchedules);
+				}
+				
+				machineSchedules.add(schedule);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Returns the machine a line of the schedule file belongs to, see {@link #getScheduleFile()}.
+	 */
+	private Machine findScheduled(long ethernetAddress, String name) {
+		if (EthernetAddress.INVALID != ethernetAddress) {
+			Machine[] candidates = index().findAllByMac(ethernetAddress);
+			
+			for (int i = 0; i < candidates.length; i++) {
+				if (name.equals(candidates[i].getName())) {
+					return candidates[i];
+				}
+			}
+			
+			if (0 < candidates.length) {
+				return candidates[0];
+			}
+		}
+		
+		return findByName(name);
+	}
+	
+	private static Machine[] readCompact(InputStream in) throws IOException {
+		MachineReader reader = new MachineReader(in);
+		List<Machine> machines = new ArrayList<Machine>();
+		Machine machine;
+		
+		while (null != (machine = reader.read())) {
+			machines.add(machine);
+		}
+		
+		return machines.toArray(new Machine[machines.size()]);
+	}
+	
+	private static Machine[] readXml(InputStream in) {
+		XMLDecoder decoder = new XMLDecoder(in);
+		
+		try {
+			return (Machine[]) decoder.readObject();
+		} finally {
+			decoder.close();
+		}
+	}
+	
+	/**
+	 * Returns whether the given stream starts with an XML document. The stream must support mark.
+	 */
+	private static boolean isXml(InputStream in) throws IOException {
+		in.mark(1024);
+		
+		try {
+			int b;
+			
+			for (int i = 0; i < 1024 && -1 != (b = in.read()); i++) {
+				// skip whitespace and the UTF-8 byte order mark
+				if (' ' == b || '\t' == b || '\r' == b || '\n' == b || 0xEF == b || 0xBB == b || 0xBF == b) {
+					continue;
+				}
+				
+				return '<' == b;
+			}
+			
+			return false;
+		} finally {
+			in.reset();
+		}
+	}
+	
+	/**
+	 * @see PropertyChangeSupport#addPropertyChangeListener(java.beans.PropertyChangeListener)  
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+	
+	/**
+	 * @see PropertyChangeSupport#addPropertyChangeListener(java.lang.String, java.beans.PropertyChangeListener) 
+	 */
+	public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(propertyName, listener);
+	}
+	
+	/**
+	 * @see PropertyChangeSupport#removePropertyChangeListener(java.beans.PropertyChangeListener)
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		pcs.removePropertyChangeListener(listener);
+	}
+	
+	/**
+	 * @see PropertyChangeSupport#removePropertyChangeListener(java.lang.String, java.beans.PropertyChangeListener)
+	 */
+	public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		pcs.removePropertyChangeListener(propertyName, listener);
+	}
+	
+	/**
+	 * Adds a listener which is notified of the property changes of all machines of this
+	 * configuration. The source of the events is the machine which changed. One listener here
+	 * replaces a listener on every machine.
+	 * 
+	 * @param listener the listener
+	 */
+	public void addMachineListener(PropertyChangeListener listener) {
+		machineListeners().addPropertyChangeListener(listener);
+	}
+	
+	/**
+	 * Adds a listener which is notified when the given property of any machine of this
+	 * configuration changes.
+	 * 
+	 * @param propertyName the name of the machine property
+	 * @param listener the listener
+	 * @see #addMachineListener(PropertyChangeListener)
+	 */
+	public void addMachineListener(String propertyName, PropertyChangeListener listener) {
+		machineListeners().addPropertyChangeListener(propertyName, listener);
+	}
+	
+	/**
+	 * Removes a listener added by {@link #addMachineListener(PropertyChangeListener)}.
+	 * 
+	 * @param listener the listener
+	 */
+	public void removeMachineListener(PropertyChangeListener listener) {
+		PropertyChangeSupport support = machineListeners;
+		
+		if (null != support) {
+			support.removePropertyChangeListener(listener);
+		}
+	}
+	
+	/**
+	 * Removes a listener added by {@link #addMachineListener(String, PropertyChangeListener)}.
+	 * 
+	 * @param propertyName the name of the machine property
+	 * @param listener the listener
+	 */
+	public void removeMachineListener(String propertyName, PropertyChangeListener listener) {
+		PropertyChangeSupport support = machineListeners;
+		
+		if (null != support) {
+			support.removePropertyChangeListener(propertyName, listener);
+		}
+	}
+	
+	/**
+	 * Returns whether a machine listener has ever been registered.
+	 */
+	boolean hasMachineListeners() {
+		return null != machineListeners;
+	}
+	
+	/**
+	 * Reports a property change of one of the machines to the machine listeners.
+	 */
+	void fireMachineChange(PropertyChangeEvent evt) {
+		PropertyChangeSupport support = machineListeners;
+		
+		if (null != support) {
+			support.firePropertyChange(evt);
+		}
+	}
+	
+	/**
+	 * Returns the machine listener support, allocating it on first use.
+	 */
+	private PropertyChangeSupport machineListeners() {
+		PropertyChangeSupport support = machineListeners;
+		
+		if (null == support) {
+			synchronized (pcs) {
+				support = machineListeners;
+				
+				if (null == support) {
+					support = new PropertyChangeSupport(this);
+					machineListeners = support;
+				}
+			}
+		}
+		
+		return support;
+	}
 }
 
 /*
@@ -0,0 +1,414 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable version of the machines of a {@link Configuration}.
+ * <br>
+ * <br>
+ * The configuration publishes a new snapshot whenever its machines are set, and shortly after
+ * one of them changed. Readers take the current
+ * snapshot and keep using it for as long as they need one consistent view, e.g. for a whole batch
+ * of wake ups, while editors go on changing the configuration. Versions increase with every
+ * published snapshot.
+ * <br>
+ * <br>
+ * The lookup indexes are built on the first lookup. A snapshot with a few changed machines takes
+ * over the indexes of the snapshot it replaces and only updates the changed entries. Snapshots
+ * are thread safe.
+ */
+public final class ConfigurationSnapshot {
+	private final static MachineRecord[] NO_RECORDS = new MachineRecord[0];
+
+	/**
+	 * The snapshot of a configuration without machines.
+	 */
+	final static ConfigurationSnapshot EMPTY = new ConfigurationSnapshot(0, NO_RECORDS);
+
+	private final long version;
+	private final MachineRecord[] records;
+	private volatile Index index;
+
+	/**
+	 * Creates a new snapshot. The array is not copied and must not be changed afterwards.
+	 */
+	ConfigurationSnapshot(long version, MachineRecord[] records) {
+		this(version, records, null);
+	}
+
+	private ConfigurationSnapshot(long version, MachineRecord[] records, Index index) {
+		super();
+		this.version = version;
+		this.records = records;
+		this.index = index;
+	}
+
+	/**
+	 * Creates the snapshot of the given machines.
+	 */
+	static ConfigurationSnapshot of(long version, Machine[] machines) {
+		MachineRecord[] records = new MachineRecord[machines.length];
+
+		for (int i = 0; i < machines.length; i++) {
+			records[i] = machines[i].toRecord();
+		}
+
+		return new ConfigurationSnapshot(version, records);
+	}
+
+	/**
+	 * Returns a snapshot with the records at the given indexes replaced by the records of the
+	 * machines at these indexes. The indexes of this snapshot are carried forward if they were
+	 * built and only few records changed.
+	 */
+	ConfigurationSnapshot with(long version, Machine[] machines, BitSet positions) {
+		MachineRecord[] copy = records.clone();
+
+		for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+			copy[i] = machines[i].toRecord();
+		}
+
+		Index current = index;
+
+		// many changes are cheaper to index from scratch, on the first lookup
+		if (null == current || positions.cardinality() > records.length / 8) {
+			return new ConfigurationSnapshot(version, copy);
+		}
+
+		return new ConfigurationSnapshot(version, copy, new Index(current, records, copy, positions));
+	}
+
+	/**
+	 * Returns the version of this snapshot.
+	 *
+	 * @return the version, increasing with every snapshot a configuration publishes
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of machines.
+	 *
+	 * @return the number of machines
+	 */
+	public int size() {
+		return records.length;
+	}
+
+	/**
+	 * Returns the machine with the given index, in the order of {@link Configuration#getMachines()}.
+	 *
+	 * @param position the index
+	 * @return the machine
+	 */
+	public MachineRecord get(int position) {
+		return records[position];
+	}
+
+	/**
+	 * Returns all machines.
+	 *
+	 * @return a copy of the machines
+	 */
+	public MachineRecord[] getRecords() {
+		return records.clone();
+	}
+
+	/**
+	 * Returns the first machine with the given ethernet address.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return the machine, or <code>null</code> if no machine has this address
+	 */
+	public MachineRecord findByMac(long ethernetAddress) {
+		Integer position = index().byMac.get(ethernetAddress);
+
+		return null == position ? null : records[position.intValue()];
+	}
+
+	/**
+	 * Returns the first machine with the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return the machine, or <code>null</code> if no machine has this address
+	 */
+	public MachineRecord findByMac(EthernetAddress ethernetAddress) {
+		return findByMac(ethernetAddress.toLong());
+	}
+
+	/**
+	 * Returns the first machine with the given name.
+	 *
+	 * @param name the name
+	 * @return the machine, or <code>null</code> if no machine has this name
+	 */
+	public MachineRecord findByName(String name) {
+		Integer position = index().byName.get(name);
+
+		return null == position ? null : records[position.intValue()];
+	}
+
+	/**
+	 * Returns all machines whose magic packets are sent to the given host.
+	 *
+	 * @param host the host
+	 * @return the machines, an empty array if there are none
+	 */
+	public MachineRecord[] findByHost(String host) {
+		int[] positions = index().byHost.get(host);
+
+		if (null == positions) {
+			return NO_RECORDS;
+		}
+
+		MachineRecord[] found = new MachineRecord[positions.length];
+
+		for (int i = 0; i < positions.length; i++) {
+			found[i] = records[positions[i]];
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns all machines whose host is an IPv4 address in the subnet of the given address. Host
+	 * names are not resolved.
+	 *
+	 * @param address an address of the subnet
+	 * @param prefixLength the prefix length of the subnet, between 0 and 32
+	 * @return the machines, an empty array if there are none or the address is not an IPv4 address
+	 */
+	public MachineRecord[] findBySubnet(InetAddress address, int prefixLength) {
+		if (!(address instanceof Inet4Address)) {
+			return NO_RECORDS;
+		}
+
+		byte[] bytes = address.getAddress();
+		int mask = 0 == prefixLength ? 0 : -1 << (32 - prefixLength);
+		int subnet = (((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF)) & mask;
+		Index current = index();
+		List<MachineRecord> found = new ArrayList<MachineRecord>();
+
+		for (int i = 0; i < records.length; i++) {
+			if (current.valid[i] && (current.ipv4[i] & mask) == subnet) {
+				found.add(records[i]);
+			}
+		}
+
+		return found.toArray(new MachineRecord[found.size()]);
+	}
+
+	private Index index() {
+		Index current = index;
+
+		// racing readers may build the index twice, both results are equal
+		if (null == current) {
+			current = new Index(records);
+			index = current;
+		}
+
+		return current;
+	}
+
+	/**
+	 * The lookup tables of a snapshot. Keys shared by several machines map to the first of them,
+	 * except for hosts.
+	 */
+	private static class Index {
+		final MacIndex<Integer> byMac;
+		final Map<String, Integer> byName;
+		final Map<String, int[]> byHost;
+		final int[] ipv4;
+		final boolean[] valid;
+
+		Index(MachineRecord[] records) {
+			byMac = new MacIndex<Integer>(records.length);
+			byName = new HashMap<String, Integer>(records.length * 2);
+			byHost = new HashMap<String, int[]>();
+			ipv4 = new int[records.length];
+			valid = new boolean[records.length];
+
+			Map<String, int[]> counts = new HashMap<String, int[]>();
+
+			for (int i = 0; i < records.length; i++) {
+				MachineRecord record = records[i];
+
+				if (record.hasValidEthernetAddress() && !byMac.containsKey(record.getEthernetAddress())) {
+					byMac.put(record.getEthernetAddress(), Integer.valueOf(i));
+				}
+
+				if (!byName.containsKey(record.getName())) {
+					byName.put(record.getName(), Integer.valueOf(i));
+				}
+
+				int[] count = counts.get(record.getHost());
+
+				if (null == count) {
+					counts.put(record.getHost(), new int[]{ 1 });
+				} else {
+					count[0]++;
+				}
+
+				long address = null == record.getHost() ? -1 : MachineIndex.ipv4(record.getHost());
+
+				if (address >= 0) {
+					ipv4[i] = (int) address;
+					valid[i] = true;
+				}
+			}
+
+			for (int i = 0; i < records.length; i++) {
+				String host = records[i].getHost();
+				int[] positions = byHost.get(host);
+				int[] count = counts.get(host);
+
+				if (null == positions) {
+					positions = new int[count[0]];
+					byHost.put(host, positions);
+					count[0] = 0;
+				}
+
+				positions[count[0]++] = i;
+			}
+		}
+
+		/**
+		 * Creates the index of the given records from the index of the previous records. Only the
+		 * entries of the records at the given positions are updated, the tables are copied so the
+		 * previous index stays unchanged.
+		 */
+		Index(Index previous, MachineRecord[] before, MachineRecord[] records, BitSet positions) {
+			byMac = new MacIndex<Integer>(previous.byMac);
+			byName = new HashMap<String, Integer>(previous.byName);
+			byHost = new HashMap<String, int[]>(previous.byHost);
+			ipv4 = previous.ipv4.clone();
+			valid = previous.valid.clone();
+
+			// keys are moved in order of position; a key left by one position is searched again
+			// in all records, so entries of positions not yet updated cannot hide it
+			for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+				MachineRecord old = before[i];
+				MachineRecord record = records[i];
+				long oldMac = old.hasValidEthernetAddress() ? old.getEthernetAddress() : -1;
+				long mac = record.hasValidEthernetAddress() ? record.getEthernetAddress() : -1;
+
+				if (oldMac != mac) {
+					Integer last = oldMac < 0 ? null : byMac.get(oldMac);
+
+					if (null != last && last.intValue() == i) {
+						byMac.remove(oldMac);
+
+						for (int j = 0; j < records.length; j++) {
+							if (records[j].hasValidEthernetAddress() && records[j].getEthernetAddress() == oldMac) {
+								byMac.put(oldMac, Integer.valueOf(j));
+								break;
+							}
+						}
+					}
+
+					Integer first = mac < 0 ? null : byMac.get(mac);
+
+					if (mac >= 0 && (null == first || first.intValue() > i)) {
+						byMac.put(mac, Integer.valueOf(i));
+					}
+				}
+
+				if (!Objects.equals(old.getName(), record.getName())) {
+					Integer last = byName.get(old.getName());
+
+					if (null != last && last.intValue() == i) {
+						byName.remove(old.getName());
+
+						for (int j = 0; j < records.length; j++) {
+							if (Objects.equals(records[j].getName(), old.getName())) {
+								byName.put(old.getName(), Integer.valueOf(j));
+								break;
+							}
+						}
+					}
+
+					Integer first = byName.get(record.getName());
+
+					if (null == first || first.intValue() > i) {
+						byName.put(record.getName(), Integer.valueOf(i));
+					}
+				}
+
+				if (!Objects.equals(old.getHost(), record.getHost())) {
+					int[] left = without(byHost.get(old.getHost()), i);
+
+					if (0 == left.length) {
+						byHost.remove(old.getHost());
+					} else {
+						byHost.put(old.getHost(), left);
+					}
+
+					byHost.put(record.getHost(), with(byHost.get(record.getHost()), i));
+
+					long address = null == record.getHost() ? -1 : MachineIndex.ipv4(record.getHost());
+
+					ipv4[i] = address >= 0 ? (int) address : 0;
+					valid[i] = address >= 0;
+				}
+			}
+		}
+
+		/**
+		 * Returns a copy of the given sorted positions without the given position.
+		 */
+		private static int[] without(int[] positions, int position) {
+			int[] copy = new int[positions.length - 1];
+			int j = 0;
+
+			for (int i = 0; i < positions.length; i++) {
+				if (position != positions[i]) {
+					copy[j++] = positions[i];
+				}
+			}
+
+			return copy;
+		}
+
+		/**
+		 * Returns a copy of the given sorted positions with the given position, which may be
+		 * <code>null</code>.
+		 */
+		private static int[] with(int[] positions, int position) {
+			if (null == positions) {
+				return new int[]{ position };
+			}
+
+			int[] copy = new int[positions.length + 1];
+			int j = 0;
+
+			for (int i = 0; i < positions.length; i++) {
+				if (j == i && positions[i] > position) {
+					copy[j++] = position;
+				}
+
+				copy[j++] = positions[i];
+			}
+
+			if (j == positions.length) {
+				copy[j] = position;
+			}
+
+			return copy;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
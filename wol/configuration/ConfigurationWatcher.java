@@ -0,0 +1,176 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reloads a {@link Configuration} whenever its file changes.
+ * <br>
+ * <br>
+ * The directory of the file is watched with a {@link WatchService}. Editors often change a file
+ * with several writes, and {@link Configuration#saveConfig()} replaces the file and then its
+ * schedule file, so the
+ * configuration is reloaded once no further change was seen for the quiet period. Only the
+ * configuration file and its {@link Configuration#getScheduleFile() schedule file} are read,
+ * changes to other files in the directory are ignored. The
+ * configuration is reloaded with {@link Configuration#reload()} on the watcher thread, so its
+ * listeners are notified on that thread.
+ */
+public class ConfigurationWatcher implements Closeable {
+	private final static Logger LOG = Logger.getLogger(ConfigurationWatcher.class.getName());
+
+	private final Configuration configuration;
+	private final Path path;
+	private final Path schedulePath;
+	private volatile long quietPeriodMillis = 200;
+	private WatchService watchService;
+	private Thread thread;
+
+	/**
+	 * Creates a new watcher for the file the configuration uses when it is created.
+	 *
+	 * @param configuration the configuration
+	 */
+	public ConfigurationWatcher(Configuration configuration) {
+		super();
+		this.configuration = configuration;
+		this.path = configuration.getFile().getAbsoluteFile().toPath();
+		this.schedulePath = configuration.getScheduleFile().getAbsoluteFile().toPath();
+	}
+
+	/**
+	 * Returns the configuration reloaded by this watcher.
+	 *
+	 * @return the configuration
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Returns the time without changes to wait for before the configuration is reloaded.
+	 *
+	 * @return the quiet period in milliseconds
+	 */
+	public long getQuietPeriodMillis() {
+		return quietPeriodMillis;
+	}
+
+	/**
+	 * Sets the time without changes to wait for before the configuration is reloaded.
+	 * The default is 200 milliseconds.
+	 *
+	 * @param quietPeriod the quiet period
+	 * @param unit the unit of the quiet period
+	 */
+	public void setQuietPeriod(long quietPeriod, TimeUnit unit) {
+		this.quietPeriodMillis = Math.max(0, unit.toMillis(quietPeriod));
+	}
+
+	/**
+	 * Starts watching. Calling this method on a started watcher has no effect.
+	 *
+	 * @return this watcher
+	 * @throws IOException if the directory of the configuration could not be watched
+	 */
+	public synchronized ConfigurationWatcher start() throws IOException {
+		if (null != thread) {
+			return this;
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "configuration-watcher");
+		thread.setDaemon(true);
+		thread.start();
+
+		return this;
+	}
+
+	/**
+	 * Stops watching.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void close() throws IOException {
+		if (null != watchService) {
+			watchService.close();
+		}
+	}
+
+	private void loop() {
+		try {
+			while (true) {
+				boolean changed = drain(watchService.take());
+				WatchKey key;
+
+				while (null != (key = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS))) {
+					changed |= drain(key);
+				}
+
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns whether the given key reports a change of the configuration or schedule file, and
+	 * resets the key.
+	 */
+	private boolean drain(WatchKey key) {
+		boolean changed = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (StandardWatchEventKinds.OVERFLOW == event.kind() || path.getFileName().equals(event.context())
+					|| schedulePath.getFileName().equals(event.context())) {
+				changed = true;
+			}
+		}
+
+		key.reset();
+		return changed;
+	}
+
+	private void reload() {
+		try {
+			configuration.reload();
+		} catch (FileNotFoundException e) {
+			// replaced by an editor, the next event reloads
+			LOG.log(Level.FINE, "Configuration " + path + " disappeared", e);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not reload configuration " + path + ", keeping the current machines", e);
+		} catch (RuntimeException e) {
+			// keeps the watcher thread alive, the next change is reloaded again
+			LOG.log(Level.SEVERE, "Could not apply configuration " + path, e);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,237 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports machines from comma seperated values, e.g. exported from a spreadsheet or an inventory.
+ * <br>
+ * <br>
+ * If the first line names the columns, the columns are picked by their titles, in any order and
+ * ignoring case: <code>name</code>, <code>mac</code> (or <code>ethernet address</code>,
+ * <code>hardware address</code>, <code>hwaddr</code>), <code>host</code> (or <code>ip</code>,
+ * <code>ip address</code>, <code>address</code>), <code>port</code> and <code>comment</code>.
+ * Other columns are ignored. Without titles the columns are name, ethernet address, host, port
+ * and comment, as in the compact hosts format. Only the ethernet address is required.
+ * <br>
+ * <br>
+ * Fields may be quoted with <code>"</code>, a quote inside a quoted field is doubled. Quoted
+ * fields must not span lines.
+ */
+public class CsvImporter extends MachineImporter {
+	private final char delimiter;
+	private final List<String> fields = new ArrayList<String>();
+	private final StringBuilder field = new StringBuilder();
+	private boolean headerRead;
+	private int nameColumn = 0;
+	private int macColumn = 1;
+	private int hostColumn = 2;
+	private int portColumn = 3;
+	private int commentColumn = 4;
+
+	/**
+	 * Creates a new importer reading the given file with commas as delimiter.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file could not be opened
+	 */
+	public CsvImporter(File file) throws IOException {
+		this(new FileInputStream(file), ',');
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param in the stream to read from, UTF-8 encoded
+	 * @param delimiter the delimiter between two fields, e.g. <code>','</code> or <code>';'</code>
+	 */
+	public CsvImporter(InputStream in, char delimiter) {
+		super(in);
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param reader the reader to read from
+	 * @param delimiter the delimiter between two fields, e.g. <code>','</code> or <code>';'</code>
+	 */
+	public CsvImporter(Reader reader, char delimiter) {
+		super(reader);
+		this.delimiter = delimiter;
+	}
+
+	public Machine read() throws IOException {
+		String line;
+
+		while (null != (line = readLine())) {
+			if (0 == line.trim().length()) {
+				continue;
+			}
+
+			split(line);
+
+			if (!headerRead) {
+				headerRead = true;
+
+				if (readHeader()) {
+					continue;
+				}
+			}
+
+			String ethernetAddress = field(macColumn);
+
+			if (null == ethernetAddress || 0 == ethernetAddress.length()) {
+				skip("no ethernet address");
+				continue;
+			}
+
+			long value = parseEthernetAddress(ethernetAddress, 0, ethernetAddress.length());
+
+			if (EthernetAddress.INVALID == value) {
+				continue;
+			}
+
+			String host = field(hostColumn);
+			Machine machine = createMachine(field(nameColumn), value, null == host || 0 == host.length() ? null : host);
+			String port = field(portColumn);
+			String comment = field(commentColumn);
+
+			if (null != port && 0 < port.length()) {
+				try {
+					machine.setPort(Integer.parseInt(port));
+				} catch (IllegalArgumentException e) {
+					skip("illegal port '" + port + "'");
+					continue;
+				}
+			}
+
+			if (null != comment) {
+				machine.setComment(comment);
+			}
+
+			return machine;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Maps the columns if the current fields are column titles.
+	 *
+	 * @return <code>true</code> if the fields are titles
+	 */
+	private boolean readHeader() throws IOException {
+		int name = -1;
+		int mac = -1;
+		int host = -1;
+		int port = -1;
+		int comment = -1;
+
+		for (int i = 0; i < fields.size(); i++) {
+			String title = fields.get(i).toLowerCase().replace(" ", "").replace("_", "").replace("-", "");
+
+			if ("name".equals(title) || "hostname".equals(title)) {
+				name = i;
+			} else if ("mac".equals(title) || "macaddress".equals(title) || "ethernetaddress".equals(title)
+					|| "hardwareaddress".equals(title) || "hwaddr".equals(title)) {
+				mac = i;
+			} else if ("host".equals(title) || "ip".equals(title) || "ipaddress".equals(title) || "address".equals(title)) {
+				host = i;
+			} else if ("port".equals(title)) {
+				port = i;
+			} else if ("comment".equals(title) || "description".equals(title)) {
+				comment = i;
+			}
+		}
+
+		if (name < 0 && mac < 0 && host < 0 && port < 0 && comment < 0) {
+			return false;
+		}
+
+		if (mac < 0) {
+			throw new IOException("No ethernet address column in line " + getLineNumber());
+		}
+
+		nameColumn = name;
+		macColumn = mac;
+		hostColumn = host;
+		portColumn = port;
+		commentColumn = comment;
+
+		return true;
+	}
+
+	private String field(int column) {
+		return column >= 0 && column < fields.size() ? fields.get(column) : null;
+	}
+
+	/**
+	 * Splits the given line into {@link #fields}, removing quotes and surrounding whitespace.
+	 */
+	private void split(String line) throws IOException {
+		int length = line.length();
+		int i = 0;
+
+		fields.clear();
+
+		while (i <= length) {
+			field.setLength(0);
+
+			while (i < length && ' ' == line.charAt(i)) {
+				i++;
+			}
+
+			if (i < length && '"' == line.charAt(i)) {
+				i++;
+
+				while (true) {
+					if (i >= length) {
+						throw new IOException("Unterminated quote in line " + getLineNumber());
+					}
+
+					char c = line.charAt(i++);
+
+					if ('"' == c) {
+						if (i < length && '"' == line.charAt(i)) {
+							field.append('"');
+							i++;
+						} else {
+							break;
+						}
+					} else {
+						field.append(c);
+					}
+				}
+
+				while (i < length && delimiter != line.charAt(i)) {
+					i++;
+				}
+
+				fields.add(field.toString());
+			} else {
+				int start = i;
+
+				while (i < length && delimiter != line.charAt(i)) {
+					i++;
+				}
+
+				fields.add(line.substring(start, i).trim());
+			}
+
+			i++;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,164 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Imports the machines of an ISC DHCP server lease file (<code>dhcpd.leases</code>).
+ * <br>
+ * <br>
+ * Every <code>lease</code> block with a <code>hardware ethernet</code> statement is one machine,
+ * named after its <code>client-hostname</code> or, failing that, its IP address:
+ * <pre>
+ * lease 192.168.1.20 {
+ *   starts 3 2024/05/15 08:00:00;
+ *   binding state active;
+ *   hardware ethernet 00:50:95:10:95:f5;
+ *   client-hostname "server";
+ * }
+ * </pre>
+ * The server appends a new block on every renewal, so a machine usually appears many times; the
+ * last block wins when {@link #importInto(Configuration, boolean) importing}. All other
+ * statements and blocks are ignored.
+ */
+public class DhcpLeasesImporter extends MachineImporter {
+	private int depth;
+	private boolean inLease;
+	private String address;
+	private String hostname;
+	private int macStart;
+	private int macEnd;
+	private String macLine;
+
+	/**
+	 * Creates a new importer reading the given file.
+	 *
+	 * @param file the lease file
+	 * @throws IOException if the file could not be opened
+	 */
+	public DhcpLeasesImporter(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param in the stream to read from
+	 */
+	public DhcpLeasesImporter(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param reader the reader to read from
+	 */
+	public DhcpLeasesImporter(Reader reader) {
+		super(reader);
+	}
+
+	public Machine read() throws IOException {
+		String line;
+
+		while (null != (line = readLine())) {
+			int start = 0;
+			int end = line.length();
+
+			while (start < end && Character.isWhitespace(line.charAt(start))) {
+				start++;
+			}
+
+			if (start == end || '#' == line.charAt(start)) {
+				continue;
+			}
+
+			if (!inLease) {
+				if (0 == depth && line.startsWith("lease ", start)) {
+					int brace = line.indexOf('{', start);
+
+					if (brace < 0) {
+						throw new IOException("Expected '{' after lease in line " + getLineNumber());
+					}
+
+					inLease = true;
+					address = line.substring(start + 6, brace).trim();
+					hostname = null;
+					macLine = null;
+				} else {
+					depth += count(line, start, '{') - count(line, start, '}');
+				}
+
+				continue;
+			}
+
+			if ('}' == line.charAt(start)) {
+				inLease = false;
+
+				if (null == macLine) {
+					skip("no hardware ethernet in lease " + address);
+					continue;
+				}
+
+				long ethernetAddress = parseEthernetAddress(macLine, macStart, macEnd);
+
+				if (EthernetAddress.INVALID != ethernetAddress) {
+					return createMachine(hostname, ethernetAddress, address);
+				}
+			} else if (line.startsWith("hardware ethernet ", start)) {
+				macLine = line;
+				macStart = start + 18;
+				macEnd = statementEnd(line, macStart);
+			} else if (line.startsWith("client-hostname ", start)) {
+				hostname = unquote(line, start + 16, statementEnd(line, start + 16));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the index of the semicolon ending the statement starting at the given index.
+	 */
+	private int statementEnd(String line, int start) throws IOException {
+		int end = line.lastIndexOf(';');
+
+		if (end < start) {
+			throw new IOException("Expected ';' in line " + getLineNumber());
+		}
+
+		return end;
+	}
+
+	private static String unquote(String line, int start, int end) {
+		String value = line.substring(start, end).trim();
+
+		if (value.length() >= 2 && '"' == value.charAt(0) && '"' == value.charAt(value.length() - 1)) {
+			value = value.substring(1, value.length() - 1);
+		}
+
+		return value;
+	}
+
+	private static int count(String line, int start, char c) {
+		int count = 0;
+
+		for (int i = start; i < line.length(); i++) {
+			if (c == line.charAt(i)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+}
+
+/*
+ * $Log$
+ */
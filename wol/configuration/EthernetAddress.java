@@ -3,9 +3,15 @@
  */
 package wol.configuration;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.StringTokenizer;
+import java.nio.ByteBuffer;
+
+import wol.metrics.WakeMetrics;
 
 
 /**
@@ -18,23 +24,63 @@ import java.util.StringTokenizer;
  * 
  * @author <a href="&#109;&#97;&#105;&#108;&#116;&#111;&#58;&#115;&#46;&#109;&#111;&#108;&#100;&#97;&#110;&#101;&#114;&#64;&#103;&#109;&#120;&#46;&#110;&#101;&#116;">Steffen Moldaner</a>
  */
-public class EthernetAddress implements Serializable, Cloneable{
-	private final static String ETHERNET_ADDRESS_DELIM = ":";
-	private final byte[] bytes;
+public class EthernetAddress implements Serializable, Cloneable, Comparable<EthernetAddress> {
+	/**
+	 * The largest value an ethernet address can have: FF:FF:FF:FF:FF:FF.
+	 */
+	public final static long MAX_VALUE = 0xFFFFFFFFFFFFL;
+	
+	/**
+	 * Returned by {@link #parse(CharSequence, int, int, boolean)} for text that is not an ethernet address.
+	 */
+	public final static long INVALID = -1L;
+	
+	private final static char ETHERNET_ADDRESS_DELIM = ':';
+	private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private final static byte[] HEX_VALUES = new byte[128];
+	
+	static {
+		for (int i = 0; i < HEX_VALUES.length; i++) {
+			HEX_VALUES[i] = -1;
+		}
+		
+		for (int i = 0; i < 10; i++) {
+			HEX_VALUES['0' + i] = (byte)i;
+		}
+		
+		for (int i = 0; i < 6; i++) {
+			HEX_VALUES['a' + i] = (byte)(10 + i);
+			HEX_VALUES['A' + i] = (byte)(10 + i);
+		}
+	}
+	
+	/**
+	 * The serial version of the earlier form, which kept the address as six bytes.
+	 */
+	private final static long serialVersionUID = -8958344176413179119L;
 	
 	/**
-	 * Create a EthernetAddress based on the provided address. The address must be 6 hexadecimal values
-	 * seperated by a colon.
+	 * The address is still serialized as the six bytes of the earlier form, so streams written
+	 * by either version can be read by the other.
+	 */
+	private final static ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("bytes", byte[].class) };
+	
+	// only assigned by the constructors and readObject
+	private long address;
+	
+	/**
+	 * Create a EthernetAddress based on the provided address. The address may be given in any
+	 * of the notations accepted by {@link #parse(CharSequence)}.
 	 * <br>
 	 * <br>
 	 * E.g.: 00:50:95:10:95:F5
 	 * @param ethernetAddress the ethernet address
-	 * @throws IllegalArgumentException if the ethernet address could not be parsed
+	 * @throws IllegalEthernetAddressException if the ethernet address could not be parsed
 	 * @throws NullPointerException if the ethernet address is null  
 	 */
 	public EthernetAddress(String ethernetAddress) throws IllegalEthernetAddressException {
 		super();
-		this.bytes = parseEthernetAddress(ethernetAddress);
+		this.address = parse(ethernetAddress);
 	}
 	
 	/**
@@ -52,40 +98,193 @@ public class EthernetAddress implements Serializable, Cloneable{
 			throw new IllegalEthernetAddressException("An ethernet address must be 6 bytes");
 		}
 		
-		 
-		byte[] copyBytes = new byte[ethernetAddress.length]; 
-		System.arraycopy(ethernetAddress, 0, copyBytes, 0, ethernetAddress.length);
-		this.bytes = copyBytes;
+		this.address = toLong(ethernetAddress);
+	}
+	
+	/**
+	 * Create a EthernetAddress based on the provided 48 bit value. The first octet of the
+	 * address is the most significant byte of the value.
+	 * 
+	 * @param ethernetAddress the value. Must be between 0 and {@link #MAX_VALUE}
+	 * @throws IllegalEthernetAddressException if the value does not fit into 48 bits
+	 */
+	public EthernetAddress(long ethernetAddress) throws IllegalEthernetAddressException {
+		super();
+		
+		if (ethernetAddress < 0 || ethernetAddress > MAX_VALUE) {
+			throw new IllegalEthernetAddressException(Long.toHexString(ethernetAddress) + " is not a 48 bit value");
+		}
+		
+		this.address = ethernetAddress;
 	}
 	
 	/**
-	 * Parses a String representing an ethernet address into an byte array. The String must be a list 
-	 * of 6 hexadecimal bytes, sepeartet by a colon.<br><br> 
-	 * Example: 00:50:95:10:95:F5
+	 * Parses a String representing an ethernet address into an byte array.
 	 * 
 	 * @param ethernetAddress a String representation of the ethernet address. 
 	 * @return a byte array containing the byte representation of the ethernet address
+	 * @see #parse(CharSequence)
 	 */
 	protected byte[] parseEthernetAddress(String ethernetAddress) throws IllegalEthernetAddressException{
-		StringTokenizer tokenizer = new StringTokenizer(ethernetAddress, ETHERNET_ADDRESS_DELIM);
+		return new EthernetAddress(parse(ethernetAddress)).toBytes();
+	}
+	
+	/**
+	 * Parses the given text into the 48 bit value of an ethernet address. The following notations
+	 * are accepted, with upper or lower case hexadecimal digits and surrounding whitespace ignored:
+	 * <ul>
+	 * <li>6 octets of one or two digits seperated by colons, dashes or dots: 00:50:95:10:95:F5,
+	 * 00-50-95-10-95-F5, 00.50.95.10.95.F5</li>
+	 * <li>3 groups of four digits seperated by dots (Cisco notation): 0050.9510.95F5</li>
+	 * <li>12 digits without any seperator: 0050951095F5</li>
+	 * </ul>
+	 * The text is read in a single pass and no intermediate objects are created.
+	 * 
+	 * @param ethernetAddress the text
+	 * @return the 48 bit value of the ethernet address
+	 * @throws IllegalEthernetAddressException if the text is not an ethernet address
+	 * @throws NullPointerException if the text is null
+	 */
+	public static long parse(CharSequence ethernetAddress) throws IllegalEthernetAddressException {
+		return parse(ethernetAddress, 0, ethernetAddress.length());
+	}
+	
+	/**
+	 * Parses the given range of the given text into the 48 bit value of an ethernet address.
+	 * 
+	 * @param chars the text
+	 * @param start the index of the first character
+	 * @param end the index after the last character
+	 * @return the 48 bit value of the ethernet address
+	 * @throws IllegalEthernetAddressException if the range is not an ethernet address
+	 * @see #parse(CharSequence)
+	 */
+	public static long parse(CharSequence chars, int start, int end) throws IllegalEthernetAddressException {
+		long value = parse(chars, start, end, true);
 		
-		if (tokenizer.countTokens() != 6) {
-			throw new IllegalEthernetAddressException(ethernetAddress + " is not a legal hardwareaddress");
+		if (INVALID == value) {
+			WakeMetrics.getDefault().parseFailed(chars.subSequence(start, end));
+			throw new IllegalEthernetAddressException(chars.subSequence(start, end) + " is not a legal hardwareaddress");
 		}
 		
-		byte[] ethernetAddressBytes = new byte[6];
+		return value;
+	}
+	
+	/**
+	 * Parses the given range of the given text into the 48 bit value of an ethernet address
+	 * without throwing an exception for illegal text, e.g. to tell ethernet addresses from names.
+	 * 
+	 * @param chars the text
+	 * @param start the index of the first character
+	 * @param end the index after the last character
+	 * @param trim whether whitespace around the address is skipped
+	 * @return the 48 bit value of the ethernet address, or {@link #INVALID}
+	 */
+	public static long parse(CharSequence chars, int start, int end, boolean trim) {
+		if (trim) {
+			while (start < end && Character.isWhitespace(chars.charAt(start))) {
+				start++;
+			}
+			
+			while (end > start && Character.isWhitespace(chars.charAt(end - 1))) {
+				end--;
+			}
+		}
 		
-		try {
-			for(int i=0; i < 6; i++) {
-				String byteToken = tokenizer.nextToken();
+		long value = 0;
+		long group = 0;
+		int groups = 0;
+		int groupWidth = 0;
+		int digits = 0;
+		char delim = 0;
+		
+		for (int i = start; i <= end; i++) {
+			char c = i < end ? chars.charAt(i) : 0;
+			int digit = c < 128 ? HEX_VALUES[c] : -1;
+			
+			if (digit >= 0) {
+				if (++digits > 12) {
+					return INVALID;
+				}
+				
+				group = (group << 4) | digit;
+				continue;
+			}
+			
+			if (i < end) {
+				if (c != ':' && c != '-' && c != '.') {
+					return INVALID;
+				}
 				
-				ethernetAddressBytes[i] = (byte)Integer.parseInt(byteToken, 16);
+				if (0 == delim) {
+					delim = c;
+				} else if (delim != c) {
+					return INVALID;
+				}
+			}
+			
+			// close the current group; all groups must be of the same kind
+			int width = digits <= 2 ? 2 : digits;
+			
+			if (0 == digits || (0 != groupWidth && width != groupWidth)) {
+				return INVALID;
 			}
-		} catch (NumberFormatException e) {
-			throw new IllegalEthernetAddressException(ethernetAddress + " is not a legal hardwareaddress");
+			
+			groupWidth = width;
+			value = (value << (4 * width)) | group;
+			group = 0;
+			digits = 0;
+			groups++;
+		}
+		
+		switch (groupWidth) {
+			case 2:
+				return 6 == groups ? value : INVALID;
+			case 4:
+				return 3 == groups && '.' == delim ? value : INVALID;
+			case 12:
+				return 1 == groups ? value : INVALID;
+			default:
+				return INVALID;
 		}
+	}
+	
+	/**
+	 * Returns the given 48 bit ethernet address as six octets of two upper case hexadecimal
+	 * digits, seperated by colons.
+	 * 
+	 * @param ethernetAddress the 48 bit value of an ethernet address
+	 * @return the text representation, e.g. 00:50:95:10:95:F5
+	 */
+	public static String toString(long ethernetAddress) {
+		char[] chars = new char[17];
 		
-		return ethernetAddressBytes;
+		format(ethernetAddress, ETHERNET_ADDRESS_DELIM, chars, 0);
+		
+		return new String(chars);
+	}
+	
+	/**
+	 * Writes the given 48 bit ethernet address as six octets of two upper case hexadecimal digits,
+	 * seperated by the given delimiter, into the given array.
+	 * 
+	 * @param ethernetAddress the 48 bit value of an ethernet address
+	 * @param delim the delimiter
+	 * @param chars the array. Must have room for 17 characters at the given offset
+	 * @param offset the offset of the first character
+	 */
+	public static void format(long ethernetAddress, char delim, char[] chars, int offset) {
+		for (int i = 0; i < 6; i++) {
+			int b = (int)(ethernetAddress >>> (40 - 8 * i)) & 0xFF;
+			int pos = offset + 3 * i;
+			
+			if (i > 0) {
+				chars[pos - 1] = delim;
+			}
+			
+			chars[pos] = HEX_DIGITS[b >>> 4];
+			chars[pos + 1] = HEX_DIGITS[b & 0x0F];
+		}
 	}
 	
 	/**
@@ -94,10 +293,44 @@ public class EthernetAddress implements Serializable, Cloneable{
 	 * @return the bytes
 	 */
 	public byte[] toBytes() {
-		byte[] copy = new byte[this.bytes.length];
-		System.arraycopy(this.bytes, 0, copy, 0, this.bytes.length);
+		byte[] bytes = new byte[6];
+		
+		for (int i = 0; i < 6; i++) {
+			bytes[i] = (byte)(this.address >>> (40 - 8 * i));
+		}
 		
-		return copy;
+		return bytes;
+	}
+	
+	/**
+	 * Returns the 48 bit value of this ethernet address. The first octet of the address
+	 * is the most significant byte of the value.
+	 * 
+	 * @return the value, between 0 and {@link #MAX_VALUE}
+	 */
+	public long toLong() {
+		return this.address;
+	}
+	
+	/**
+	 * Returns the Organizationally Unique Identifier, the first three octets of this address.
+	 * 
+	 * @return the OUI as a 24 bit value
+	 */
+	public int getOui() {
+		return oui(this.address);
+	}
+	
+	/**
+	 * Writes the six bytes of this ethernet address into the given buffer, starting at its
+	 * current position. Unlike {@link #toBytes()} this does not create a copy.
+	 * 
+	 * @param buffer the buffer
+	 * @throws java.nio.BufferOverflowException if there are less than 6 bytes remaining in the buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putShort((short)(this.address >>> 32));
+		buffer.putInt((int)this.address);
 	}
 	
 	public boolean equals(Object obj) {
@@ -112,51 +345,101 @@ public class EthernetAddress implements Serializable, Cloneable{
 		if (EthernetAddress.class == obj.getClass()) {
 			EthernetAddress other = (EthernetAddress) obj;
 			
-			return Arrays.equals(this.bytes, other.bytes);
+			return this.address == other.address;
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Compares the 48 bit values of this and the given ethernet address.
+	 * 
+	 * @param other the ethernet address to compare to
+	 * @return a negative integer, zero, or a positive integer as this address is less than,
+	 * 		   equal to, or greater than the given address
+	 */
+	public int compareTo(EthernetAddress other) {
+		return Long.compare(this.address, other.address);
+	}
+	
 	public String toString() {
-		StringBuffer buffer = new StringBuffer();
-		
-		for (int i = 0; i < this.bytes.length; i++) {
-			byte b = this.bytes[i];
-			
-			buffer.append(byteToHexString(b));
-			
-			if (i < this.bytes.length-1) {
-				buffer.append(EthernetAddress.ETHERNET_ADDRESS_DELIM);
-			}
-		}
-		
-		return buffer.toString();
+		return toString(this.address);
 	}
 	
 	protected String byteToHexString(byte b) {
-		return Integer.toString((b & 0xff) + 0x100, 16).substring(1).toUpperCase();
+		return new String(new char[]{ HEX_DIGITS[(b >>> 4) & 0x0F], HEX_DIGITS[b & 0x0F] });
 	}
 	
 	public int hashCode() {
-		int hash = 734;
-		
-		for (int i = 0; i < bytes.length; i++) {
-			hash  += bytes[i];
-		}
-		
-		return hash;
+		return hash(this.address);
 	}
 	
 	public Object clone() {
 		try {
-			EthernetAddress clone = new EthernetAddress(bytes);
+			EthernetAddress clone = new EthernetAddress(address);
 			
 			return clone;
 		} catch (IllegalEthernetAddressException e) {
 			throw new RuntimeException("Should not happen", e);
 		}
 	}
+	
+	/**
+	 * Returns a well distributed hash code for the given 48 bit ethernet address. Addresses 
+	 * sharing an OUI and differing only in a few bits of the NIC specific part still
+	 * spread over all bits of the result.
+	 * 
+	 * @param ethernetAddress the 48 bit value of an ethernet address
+	 * @return the hash code
+	 */
+	public static int hash(long ethernetAddress) {
+		long h = ethernetAddress;
+		
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		
+		return (int)h;
+	}
+	
+	/**
+	 * Returns the Organizationally Unique Identifier of the given 48 bit ethernet address.
+	 * 
+	 * @param ethernetAddress the 48 bit value of an ethernet address
+	 * @return the OUI as a 24 bit value
+	 */
+	public static int oui(long ethernetAddress) {
+		return (int)(ethernetAddress >>> 24);
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		
+		fields.put("bytes", toBytes());
+		out.writeFields();
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		byte[] bytes = (byte[]) in.readFields().get("bytes", null);
+		
+		if (null == bytes || 6 != bytes.length) {
+			throw new InvalidObjectException("An ethernet address must be 6 bytes");
+		}
+		
+		this.address = toLong(bytes);
+	}
+	
+	private static long toLong(byte[] bytes) {
+		long value = 0;
+		
+		for (int i = 0; i < 6; i++) {
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		
+		return value;
+	}
 }
 
 /*
@@ -0,0 +1,220 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads many ethernet addresses from a block of text in one pass.
+ * <br>
+ * <br>
+ * The text is a list of ethernet addresses in any notation accepted by
+ * {@link EthernetAddress#parse(CharSequence)}, seperated by whitespace, commas or semicolons.
+ * Each address is handed to a {@link Handler} as a 48 bit value. No objects are created per address.
+ * <br>
+ * <br>
+ * Byte sources (buffers and files) must be ASCII or any ASCII compatible encoding.
+ */
+public class EthernetAddressScanner {
+	/**
+	 * Files are mapped in regions of at most this many bytes.
+	 */
+	private final static int REGION_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The longest token that can still be an ethernet address (6 octets and 5 delimiters).
+	 */
+	private final static int MAX_TOKEN_LENGTH = 17;
+
+	/**
+	 * Receives the addresses read by an {@link EthernetAddressScanner}.
+	 */
+	public interface Handler {
+		/**
+		 * Called for each valid ethernet address.
+		 *
+		 * @param ethernetAddress the 48 bit value of the ethernet address
+		 */
+		public void handle(long ethernetAddress);
+
+		/**
+		 * Called for each token that is not a valid ethernet address.
+		 *
+		 * @param token the token. The sequence is only valid during this call
+		 */
+		public void handleInvalid(CharSequence token);
+	}
+
+	private EthernetAddressScanner() {
+		super();
+	}
+
+	/**
+	 * Reads all ethernet addresses from the given text.
+	 *
+	 * @param chars the text, e.g. a {@link CharBuffer}
+	 * @param handler the handler receiving the addresses
+	 * @return the number of valid addresses read
+	 */
+	public static int scan(CharSequence chars, Handler handler) {
+		int count = 0;
+		int length = chars.length();
+		int i = 0;
+
+		while (i < length) {
+			while (i < length && isSeparator(chars.charAt(i))) {
+				i++;
+			}
+
+			int start = i;
+
+			while (i < length && !isSeparator(chars.charAt(i))) {
+				i++;
+			}
+
+			if (i > start) {
+				long ethernetAddress = EthernetAddress.parse(chars, start, i, false);
+
+				if (EthernetAddress.INVALID == ethernetAddress) {
+					handler.handleInvalid(chars.subSequence(start, i));
+				} else {
+					handler.handle(ethernetAddress);
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reads all ethernet addresses from the remaining bytes of the given buffer.
+	 * The position of the buffer is not changed.
+	 *
+	 * @param bytes the ASCII text
+	 * @param handler the handler receiving the addresses
+	 * @return the number of valid addresses read
+	 */
+	public static int scan(ByteBuffer bytes, Handler handler) {
+		char[] token = new char[MAX_TOKEN_LENGTH + 1];
+		CharBuffer tokenBuffer = CharBuffer.wrap(token);
+		int count = 0;
+		int end = bytes.limit();
+		int i = bytes.position();
+
+		while (i < end) {
+			while (i < end && isSeparator((char)(bytes.get(i) & 0xFF))) {
+				i++;
+			}
+
+			int length = 0;
+
+			while (i < end) {
+				char c = (char)(bytes.get(i) & 0xFF);
+
+				if (isSeparator(c)) {
+					break;
+				}
+
+				// longer tokens are invalid anyway, only keep enough to tell
+				if (length < token.length) {
+					token[length] = c;
+				}
+
+				length++;
+				i++;
+			}
+
+			if (length > 0) {
+				long ethernetAddress = length > MAX_TOKEN_LENGTH ? EthernetAddress.INVALID
+						: EthernetAddress.parse(tokenBuffer, 0, length, false);
+
+				if (EthernetAddress.INVALID == ethernetAddress) {
+					handler.handleInvalid(tokenBuffer.subSequence(0, Math.min(length, token.length)));
+				} else {
+					handler.handle(ethernetAddress);
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Reads all ethernet addresses from a region of the given file channel. The region is
+	 * mapped into memory, it should start and end at a separator.
+	 *
+	 * @param channel the channel
+	 * @param position the position of the region in the file
+	 * @param size the size of the region, at most {@link Integer#MAX_VALUE}
+	 * @param handler the handler receiving the addresses
+	 * @return the number of valid addresses read
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int scan(FileChannel channel, long position, long size, Handler handler) throws IOException {
+		MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+		return scan(region, handler);
+	}
+
+	/**
+	 * Reads all ethernet addresses from the given file. The file is mapped into memory
+	 * region by region, so files of any size can be read.
+	 *
+	 * @param file the file
+	 * @param handler the handler receiving the addresses
+	 * @return the number of valid addresses read
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int scan(File file, Handler handler) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long fileSize = channel.size();
+			long position = 0;
+			int count = 0;
+
+			while (position < fileSize) {
+				long size = Math.min(REGION_SIZE, fileSize - position);
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				int end = (int)size;
+
+				// do not split a token between two regions
+				if (position + size < fileSize) {
+					while (end > 0 && !isSeparator((char)(region.get(end - 1) & 0xFF))) {
+						end--;
+					}
+
+					if (0 == end) {
+						end = (int)size;
+					}
+				}
+
+				region.limit(end);
+				count += scan(region, handler);
+				position += end;
+			}
+
+			return count;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static boolean isSeparator(char c) {
+		return ' ' == c || '\n' == c || '\r' == c || '\t' == c || ',' == c || ';' == c || '\f' == c;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,263 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from 48 bit ethernet addresses to values, typically {@link Machine}s.
+ * <br>
+ * <br>
+ * The keys are stored as primitive <code>long</code>s in an open-addressing table with linear
+ * probing, so neither lookups nor insertions box the address or allocate entry objects.
+ * Keys are spread with {@link EthernetAddress#hash(long)}.
+ * <br>
+ * <br>
+ * This class is not synchronized.
+ *
+ * @param <V> the type of the values
+ */
+public class MacIndex<V> {
+	private final static long FREE = -1L;
+	private final static int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	private int threshold;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public MacIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty index which can hold the given number of entries without growing.
+	 *
+	 * @param expectedSize the expected number of entries
+	 * @throws IllegalArgumentException if the expected size is negative
+	 */
+	public MacIndex(int expectedSize) {
+		super();
+
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+		}
+
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Creates an index with the entries of the given index.
+	 *
+	 * @param index the index to copy
+	 */
+	public MacIndex(MacIndex<? extends V> index) {
+		super();
+		keys = index.keys.clone();
+		values = index.values.clone();
+		size = index.size;
+		mask = index.mask;
+		threshold = index.threshold;
+	}
+
+	/**
+	 * Returns the value stored for the given ethernet address.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return the value, or <code>null</code> if the index contains no value for the address
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long ethernetAddress) {
+		int slot = find(ethernetAddress);
+
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Returns the value stored for the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return the value, or <code>null</code> if the index contains no value for the address
+	 */
+	public V get(EthernetAddress ethernetAddress) {
+		return get(ethernetAddress.toLong());
+	}
+
+	/**
+	 * Returns whether the index contains a value for the given ethernet address.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return <code>true</code> if a value is stored for the address
+	 */
+	public boolean containsKey(long ethernetAddress) {
+		return find(ethernetAddress) >= 0;
+	}
+
+	/**
+	 * Stores a value for the given ethernet address, replacing any previous value.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @param value the value
+	 * @return the previous value, or <code>null</code> if there was none
+	 * @throws IllegalArgumentException if the address does not fit into 48 bits
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long ethernetAddress, V value) {
+		if (ethernetAddress < 0 || ethernetAddress > EthernetAddress.MAX_VALUE) {
+			throw new IllegalArgumentException(Long.toHexString(ethernetAddress) + " is not a 48 bit value");
+		}
+
+		int slot = EthernetAddress.hash(ethernetAddress) & mask;
+
+		while (FREE != keys[slot]) {
+			if (ethernetAddress == keys[slot]) {
+				V oldValue = (V) values[slot];
+
+				values[slot] = value;
+				return oldValue;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = ethernetAddress;
+		values[slot] = value;
+
+		if (++size > threshold) {
+			rehash(keys.length << 1);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes the value stored for the given ethernet address.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return the removed value, or <code>null</code> if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long ethernetAddress) {
+		int slot = find(ethernetAddress);
+
+		if (slot < 0) {
+			return null;
+		}
+
+		V oldValue = (V) values[slot];
+
+		// backward shift deletion keeps every probe sequence free of holes
+		int free = slot;
+		int next = (free + 1) & mask;
+
+		while (FREE != keys[next]) {
+			int home = EthernetAddress.hash(keys[next]) & mask;
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		keys[free] = FREE;
+		values[free] = null;
+		size--;
+
+		return oldValue;
+	}
+
+	/**
+	 * Returns the number of entries in this index.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether this index is empty.
+	 *
+	 * @return <code>true</code> if the index contains no entries
+	 */
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * Removes all entries from this index.
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private int find(long ethernetAddress) {
+		if (ethernetAddress < 0) {
+			return -1;
+		}
+
+		int slot = EthernetAddress.hash(ethernetAddress) & mask;
+
+		while (FREE != keys[slot]) {
+			if (ethernetAddress == keys[slot]) {
+				return slot;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (FREE != oldKeys[i]) {
+				int slot = EthernetAddress.hash(oldKeys[i]) & mask;
+
+				while (FREE != keys[slot]) {
+					slot = (slot + 1) & mask;
+				}
+
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = (int)(capacity * 0.7f);
+		Arrays.fill(keys, FREE);
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+
+		while (capacity * 0.7f < expectedSize) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+}
+
+/*
+ * $Log$
+ */
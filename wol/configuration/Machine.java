@@ -3,28 +3,60 @@
  */
 package wol.configuration;
 
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 
 /**
  * This class represents a WakeOnLan configuration for a single computer.
+ * <br>
+ * <br>
+ * A machine allocates nothing for change notification until a listener is added. Changes of a
+ * machine which belongs to a {@link Configuration} are also reported to the listeners registered
+ * with {@link Configuration#addMachineListener(PropertyChangeListener)}, so code following all
+ * machines of a configuration needs no listener per machine. A machine belongs to the
+ * configuration whose machines it was set to last. {@link MachineRecord} is the immutable,
+ * compact form of a machine.
  * 
  * @author <a href="&#109;&#97;&#105;&#108;&#116;&#111;&#58;&#115;&#46;&#109;&#111;&#108;&#100;&#97;&#110;&#101;&#114;&#64;&#103;&#109;&#120;&#46;&#110;&#101;&#116;">Steffen Moldaner</a>
  */
 public class Machine {
+	/**
+	 * The host of machines which are woken up through the directed broadcast addresses of all
+	 * local interfaces.
+	 * 
+	 * @see wol.BroadcastFanout
+	 */
+	public final static String AUTO_HOST = "auto";
+	
 	private String comment = "";
 	private String name = "";
 	private String host = "255.255.255.255";
 	private String ethernetAddress ="";
 	private int port = 9;
-	private PropertyChangeSupport pcs;
+	private volatile PropertyChangeSupport pcs;
+	private volatile Configuration owner;
+	private int position = -1;
 	
 	/**
 	 * Creates a new machine configuration
 	 */
 	public Machine() {
 		super();
-		pcs = new PropertyChangeSupport(this);
+	}
+	
+	/**
+	 * Creates a new machine configuration with the values of the given record.
+	 * 
+	 * @param record the record
+	 */
+	public Machine(MachineRecord record) {
+		this();
+		this.name = record.getName();
+		this.ethernetAddress = record.getEthernetAddressText();
+		this.host = record.getHost();
+		this.port = record.getPort();
+		this.comment = record.getComment();
 	}
 	
 	/**
@@ -46,6 +78,15 @@ public class Machine {
 		return host;
 	}
 	
+	/**
+	 * Returns whether the host is {@link #AUTO_HOST}.
+	 * 
+	 * @return <code>true</code> if the magic packet will be sent on all local interfaces
+	 */
+	public boolean isAutoHost() {
+		return AUTO_HOST.equalsIgnoreCase(host);
+	}
+	
 	/**
 	 * Returns the machines ethernet address
 	 *  
@@ -76,13 +117,13 @@ public class Machine {
 	/**
 	 * Sets the host the magic packet will be sent to.
 	 * 
-	 * @param host the host. Tis can be an IP addres or the name of the machine
+	 * @param host the host. Tis can be an IP addres or the name of the machine, or {@link #AUTO_HOST}
 	 */
 	public void setHost(String host) {
 		String oldValue = this.host;
 		
 		this.host = host;
-		pcs.firePropertyChange("host", oldValue, host);
+		firePropertyChange("host", oldValue, host);
 	}
 	
 	/**
@@ -94,7 +135,7 @@ public class Machine {
 		String oldValue = this.ethernetAddress;
 		
 		this.ethernetAddress = ethernetAddress;
-		pcs.firePropertyChange("ethernetAddress", oldValue, ethernetAddress);
+		firePropertyChange("ethernetAddress", oldValue, ethernetAddress);
 	}
 	
 	/**
@@ -105,7 +146,7 @@ public class Machine {
 		String oldValue = this.name;
 		
 		this.name = name;
-		pcs.firePropertyChange("name", oldValue, name);
+		firePropertyChange("name", oldValue, name);
 	}
 	
 	/**
@@ -122,7 +163,7 @@ public class Machine {
 		int oldValue = this.port;
 		
 		this.port = port;
-		pcs.firePropertyChange("port", oldValue, port);
+		firePropertyChange("port", Integer.valueOf(oldValue), Integer.valueOf(port));
 	}
 	
 	public String toString() {
@@ -147,35 +188,134 @@ public class Machine {
 		String oldValue = this.comment;
 		
 		this.comment = comment;
-		pcs.firePropertyChange("comment", oldValue, comment);
+		firePropertyChange("comment", oldValue, comment);
+	}
+	
+	/**
+	 * Returns the immutable record of the current values of this machine.
+	 * 
+	 * @return the record
+	 */
+	public MachineRecord toRecord() {
+		return MachineRecord.of(this);
 	}
 	
 	/**
 	 * @see PropertyChangeSupport#addPropertyChangeListener(java.beans.PropertyChangeListener)  
 	 */
-	public synchronized void addPropertyChangeListener(PropertyChangeListener listener) {
-		pcs.addPropertyChangeListener(listener);
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		support().addPropertyChangeListener(listener);
 	}
 	
 	/**
 	 * @see PropertyChangeSupport#addPropertyChangeListener(java.lang.String, java.beans.PropertyChangeListener) 
 	 */
-	public synchronized void addPropertyChangeListener(String propertyName, PropertyChangeListener listener) {
-		pcs.addPropertyChangeListener(propertyName, listener);
+	public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		support().addPropertyChangeListener(propertyName, listener);
 	}
 	
 	/**
 	 * @see PropertyChangeSupport#removePropertyChangeListener(java.beans.PropertyChangeListener)
 	 */
-	public synchronized void removePropertyChangeListener(PropertyChangeListener listener) {
-		pcs.removePropertyChangeListener(listener);
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		PropertyChangeSupport support = pcs;
+		
+		if (null != support) {
+			support.removePropertyChangeListener(listener);
+		}
 	}
 	
 	/**
 	 * @see PropertyChangeSupport#removePropertyChangeListener(java.lang.String, java.beans.PropertyChangeListener)
 	 */
-	public synchronized void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
-		pcs.removePropertyChangeListener(propertyName, listener);
+	public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+		PropertyChangeSupport support = pcs;
+		
+		if (null != support) {
+			support.removePropertyChangeListener(propertyName, listener);
+		}
+	}
+	
+	/**
+	 * Returns the configuration this machine belongs to.
+	 * 
+	 * @return the configuration, or <code>null</code>
+	 */
+	Configuration getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Returns the index of this machine in the machines of its configuration. Guarded by the lock
+	 * of the configuration.
+	 * 
+	 * @return the index, or -1 if this machine belongs to no configuration or was set more than once
+	 */
+	int getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Sets the configuration this machine belongs to.
+	 * 
+	 * @param owner the configuration, or <code>null</code>
+	 * @param position the index of this machine in the machines of the configuration, or -1
+	 */
+	void setOwner(Configuration owner, int position) {
+		this.owner = owner;
+		this.position = position;
+	}
+	
+	/**
+	 * Returns the listener support of this machine, allocating it on first use.
+	 */
+	private PropertyChangeSupport support() {
+		PropertyChangeSupport support = pcs;
+		
+		if (null == support) {
+			synchronized (this) {
+				support = pcs;
+				
+				if (null == support) {
+					support = new PropertyChangeSupport(this);
+					pcs = support;
+				}
+			}
+		}
+		
+		return support;
+	}
+	
+	/**
+	 * Reports a change to the configuration of this machine, which publishes it with the next
+	 * snapshot, and to the listeners of this machine and of its configuration. No event is
+	 * allocated if there are no listeners.
+	 */
+	private void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+		PropertyChangeSupport support = pcs;
+		Configuration configuration = owner;
+		
+		if (null != oldValue && null != newValue && oldValue.equals(newValue)) {
+			return;
+		}
+		
+		if (null != configuration) {
+			configuration.machineChanged(this);
+		}
+		
+		if (null == support && (null == configuration || !configuration.hasMachineListeners())) {
+			return;
+		}
+		
+		PropertyChangeEvent evt = new PropertyChangeEvent(this, propertyName, oldValue, newValue);
+		
+		if (null != support) {
+			support.firePropertyChange(evt);
+		}
+		
+		if (null != configuration) {
+			configuration.fireMachineChange(evt);
+		}
 	}
 
 	public boolean equals(Object obj) {
@@ -0,0 +1,329 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wol.metrics.WakeMetrics;
+
+/**
+ * Reads machines from files maintained by other software, one machine at a time.
+ * <br>
+ * <br>
+ * Importers read their input line by line, only the current line and the entry being read are
+ * held in memory. Every machine returned has a valid ethernet address, entries without one are
+ * skipped and counted. The machines are woken up through the address of their entry, or through
+ * the {@link #setHost(String) host} set for the import, e.g. the broadcast address of their subnet.
+ * <br>
+ * <br>
+ * {@link #importInto(Configuration, boolean)} merges all machines into a configuration. An input
+ * may list the same ethernet address several times, e.g. renewed leases; the last entry wins.
+ *
+ * @see ArpTableImporter
+ * @see DhcpLeasesImporter
+ * @see CsvImporter
+ */
+public abstract class MachineImporter implements Closeable {
+	private final static Logger LOG = Logger.getLogger(MachineImporter.class.getName());
+	private final BufferedReader reader;
+	private int lineNumber;
+	private int skipped;
+	private String host;
+	private int port = 9;
+
+	/**
+	 * Creates a new importer reading UTF-8 text.
+	 *
+	 * @param in the stream to read from
+	 */
+	protected MachineImporter(InputStream in) {
+		this(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a new importer.
+	 *
+	 * @param reader the reader to read from
+	 */
+	protected MachineImporter(Reader reader) {
+		super();
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 64 * 1024);
+	}
+
+	/**
+	 * Returns the host imported machines are woken up through.
+	 *
+	 * @return the host, or <code>null</code> if the address of each entry is used
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Sets the host imported machines are woken up through, e.g. the broadcast address of their
+	 * subnet or {@link Machine#AUTO_HOST}. By default the address of each entry is used, which
+	 * only reaches the machine while its address is still known to the network.
+	 *
+	 * @param host the host, or <code>null</code> to use the address of each entry
+	 */
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	/**
+	 * Returns the port of imported machines.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets the port of imported machines. The default is 9.
+	 *
+	 * @param port the port. The port must be between 0 and 0xFFFF
+	 * @throws IllegalArgumentException if the port is not between the valid range
+	 */
+	public void setPort(int port) {
+		if (port < 0 || port > 0xFFFF) {
+			throw new IllegalArgumentException("Port value out of range: " + port);
+		}
+
+		this.port = port;
+	}
+
+	/**
+	 * Reads the next machine.
+	 *
+	 * @return the machine, or <code>null</code> at the end of the input
+	 * @throws IOException if an I/O error occurs, or the input is not in the expected format
+	 */
+	public abstract Machine read() throws IOException;
+
+	/**
+	 * Returns the number of the line read last.
+	 *
+	 * @return the line number, starting at 1
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Returns the number of entries skipped so far, because their ethernet address was missing or
+	 * not valid.
+	 *
+	 * @return the number of skipped entries
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Reads all machines and merges them into the given configuration. Machines whose ethernet
+	 * address is not in the configuration yet are appended. Machines already in the configuration
+	 * are kept; if <code>replace</code> is set their name, host and port are updated with the
+	 * setters, so listeners see the usual property change events.
+	 *
+	 * @param configuration the configuration
+	 * @param replace whether machines already in the configuration are updated
+	 * @return the number of machines added
+	 * @throws IOException if an I/O error occurs, or the input is not in the expected format. The
+	 * configuration is not changed then
+	 */
+	public int importInto(Configuration configuration, boolean replace) throws IOException {
+		MacIndex<Machine> imported = new MacIndex<Machine>();
+		List<Machine> order = new ArrayList<Machine>();
+		int entries = 0;
+		Machine machine;
+
+		while (null != (machine = read())) {
+			long ethernetAddress = EthernetAddress.parse(machine.getEthernetAddress(), 0, machine.getEthernetAddress().length(), false);
+			Machine first = imported.get(ethernetAddress);
+
+			entries++;
+
+			if (null == first) {
+				imported.put(ethernetAddress, machine);
+				order.add(machine);
+			} else {
+				update(first, machine);
+			}
+		}
+
+		List<Machine> added = new ArrayList<Machine>();
+		int updated;
+
+		synchronized (configuration) {
+			configuration.beginUpdate();
+
+			try {
+				updated = merge(configuration, order, replace, added);
+			} finally {
+				configuration.endUpdate();
+			}
+		}
+
+		configuration.fireUpdate();
+
+		LOG.info("Imported " + entries + " entries into " + configuration.getFile() + ": " + added.size() + " added, " + updated + " updated, "
+				+ (entries - order.size()) + " duplicates, " + skipped + " skipped");
+
+		return added.size();
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Reads the next line.
+	 *
+	 * @return the line, or <code>null</code> at the end of the input
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected String readLine() throws IOException {
+		String line = reader.readLine();
+
+		if (null != line) {
+			lineNumber++;
+		}
+
+		return line;
+	}
+
+	/**
+	 * Parses the given range of the given text as an ethernet address. A range which is not an
+	 * ethernet address is counted as skipped entry.
+	 *
+	 * @param chars the text
+	 * @param start the index of the first character
+	 * @param end the index after the last character
+	 * @return the 48 bit value of the ethernet address, or -1 if the range is not an ethernet address
+	 */
+	protected long parseEthernetAddress(CharSequence chars, int start, int end) {
+		long ethernetAddress = EthernetAddress.parse(chars, start, end, true);
+
+		if (EthernetAddress.INVALID == ethernetAddress) {
+			WakeMetrics.getDefault().parseFailed(chars.subSequence(start, end));
+			skip("illegal ethernet address '" + chars.subSequence(start, end) + "'");
+		}
+
+		return ethernetAddress;
+	}
+
+	/**
+	 * Counts an entry as skipped.
+	 *
+	 * @param reason why the entry is skipped
+	 */
+	protected void skip(String reason) {
+		skipped++;
+
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Skipping entry in line " + lineNumber + ": " + reason);
+		}
+	}
+
+	/**
+	 * Creates the machine for an entry.
+	 *
+	 * @param name the name, or <code>null</code> to use the address
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @param address the IP address of the entry, or <code>null</code> if unknown
+	 * @return the machine
+	 */
+	protected Machine createMachine(String name, long ethernetAddress, String address) {
+		Machine machine = new Machine();
+		String ethernetAddressText = EthernetAddress.toString(ethernetAddress);
+
+		machine.setName(null != name && 0 < name.length() ? name : null != address ? address : ethernetAddressText);
+		machine.setEthernetAddress(ethernetAddressText);
+		machine.setPort(port);
+
+		if (null != host) {
+			machine.setHost(host);
+		} else if (null != address) {
+			machine.setHost(address);
+		}
+
+		return machine;
+	}
+
+	/**
+	 * Merges the imported machines into the configuration, see {@link #importInto(Configuration, boolean)}.
+	 *
+	 * @return the number of machines updated
+	 */
+	private static int merge(Configuration configuration, List<Machine> order, boolean replace, List<Machine> added) {
+		Machine[] current = configuration.getMachines();
+		MacIndex<Machine> existing = new MacIndex<Machine>(current.length);
+		int updated = 0;
+
+		for (int i = 0; i < current.length; i++) {
+			String text = current[i].getEthernetAddress();
+			long ethernetAddress = null == text ? EthernetAddress.INVALID : EthernetAddress.parse(text, 0, text.length(), true);
+
+			if (EthernetAddress.INVALID != ethernetAddress && !existing.containsKey(ethernetAddress)) {
+				existing.put(ethernetAddress, current[i]);
+			}
+		}
+
+		for (int i = 0; i < order.size(); i++) {
+			Machine candidate = order.get(i);
+			Machine target = existing.get(EthernetAddress.parse(candidate.getEthernetAddress(), 0, candidate.getEthernetAddress().length(), false));
+
+			if (null == target) {
+				added.add(candidate);
+			} else if (replace && update(target, candidate)) {
+				updated++;
+			}
+		}
+
+		if (!added.isEmpty()) {
+			Machine[] machines = new Machine[current.length + added.size()];
+
+			System.arraycopy(current, 0, machines, 0, current.length);
+
+			for (int i = 0; i < added.size(); i++) {
+				machines[current.length + i] = added.get(i);
+			}
+
+			configuration.setMachines(machines);
+		}
+
+		return updated;
+	}
+
+	/**
+	 * Copies name, host and port from one machine to another.
+	 *
+	 * @return <code>true</code> if a property changed
+	 */
+	private static boolean update(Machine target, Machine source) {
+		boolean changed = !source.getName().equals(target.getName()) || !source.getHost().equals(target.getHost())
+				|| source.getPort() != target.getPort();
+
+		target.setName(source.getName());
+		target.setHost(source.getHost());
+		target.setPort(source.getPort());
+
+		return changed;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,282 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Indexes the machines of a {@link Configuration} by name, ethernet address, host and subnet.
+ * <br>
+ * <br>
+ * The index listens to the machines of its configuration and moves them whenever one of the
+ * indexed properties changes. Subnets are computed from hosts which are IPv4 addresses, other hosts are not resolved
+ * and belong to no subnet. A key shared by a single machine maps to the machine itself, a key
+ * shared by several machines to an array of them, in the order they were indexed.
+ * <br>
+ * <br>
+ * This class is thread safe.
+ */
+class MachineIndex implements PropertyChangeListener {
+	private final static Machine[] NO_MACHINES = new Machine[0];
+
+	private final Configuration configuration;
+	private final int subnetMask;
+	private final MacIndex<Object> byMac;
+	private final Map<String, Object> byName;
+	private final Map<String, Object> byHost;
+	private final Map<Integer, Object> bySubnet;
+
+	/**
+	 * Creates an index of the given machines and starts listening to them.
+	 *
+	 * @param configuration the configuration the machines belong to
+	 * @param machines the machines
+	 * @param subnetPrefixLength the prefix length of the subnets, between 0 and 32
+	 */
+	MachineIndex(Configuration configuration, Machine[] machines, int subnetPrefixLength) {
+		super();
+		this.configuration = configuration;
+		this.subnetMask = 0 == subnetPrefixLength ? 0 : -1 << (32 - subnetPrefixLength);
+		this.byMac = new MacIndex<Object>(machines.length);
+		this.byName = new HashMap<String, Object>(machines.length * 2);
+		this.byHost = new HashMap<String, Object>();
+		this.bySubnet = new HashMap<Integer, Object>();
+
+		for (int i = 0; i < machines.length; i++) {
+			Machine machine = machines[i];
+
+			addMac(machine.getEthernetAddress(), machine);
+			byName.put(machine.getName(), add(byName.get(machine.getName()), machine));
+			addHost(machine.getHost(), machine);
+		}
+
+		configuration.addMachineListener(this);
+	}
+
+	/**
+	 * Stops listening to the indexed machines.
+	 */
+	void dispose() {
+		configuration.removeMachineListener(this);
+	}
+
+	synchronized Machine findByMac(long ethernetAddress) {
+		return first(byMac.get(ethernetAddress));
+	}
+
+	synchronized Machine[] findAllByMac(long ethernetAddress) {
+		return all(byMac.get(ethernetAddress));
+	}
+
+	synchronized Machine findByName(String name) {
+		return first(byName.get(name));
+	}
+
+	synchronized Machine[] findByHost(String host) {
+		return all(byHost.get(host));
+	}
+
+	synchronized Machine[] findBySubnet(int address) {
+		return all(bySubnet.get(Integer.valueOf(address & subnetMask)));
+	}
+
+	public synchronized void propertyChange(PropertyChangeEvent evt) {
+		Machine machine = (Machine) evt.getSource();
+		String property = evt.getPropertyName();
+
+		if ("ethernetAddress".equals(property)) {
+			removeMac((String) evt.getOldValue(), machine);
+			addMac((String) evt.getNewValue(), machine);
+		} else if ("name".equals(property)) {
+			String oldName = (String) evt.getOldValue();
+			String newName = (String) evt.getNewValue();
+
+			put(byName, oldName, remove(byName.get(oldName), machine));
+			byName.put(newName, add(byName.get(newName), machine));
+		} else if ("host".equals(property)) {
+			removeHost((String) evt.getOldValue(), machine);
+			addHost((String) evt.getNewValue(), machine);
+		}
+	}
+
+	private void addMac(String ethernetAddress, Machine machine) {
+		long key = toLong(ethernetAddress);
+
+		if (EthernetAddress.INVALID != key) {
+			byMac.put(key, add(byMac.get(key), machine));
+		}
+	}
+
+	private void removeMac(String ethernetAddress, Machine machine) {
+		long key = toLong(ethernetAddress);
+
+		if (EthernetAddress.INVALID != key) {
+			Object rest = remove(byMac.get(key), machine);
+
+			if (null == rest) {
+				byMac.remove(key);
+			} else {
+				byMac.put(key, rest);
+			}
+		}
+	}
+
+	private void addHost(String host, Machine machine) {
+		byHost.put(host, add(byHost.get(host), machine));
+
+		long address = ipv4(host);
+
+		if (address >= 0) {
+			Integer subnet = Integer.valueOf((int) address & subnetMask);
+
+			bySubnet.put(subnet, add(bySubnet.get(subnet), machine));
+		}
+	}
+
+	private void removeHost(String host, Machine machine) {
+		put(byHost, host, remove(byHost.get(host), machine));
+
+		long address = ipv4(host);
+
+		if (address >= 0) {
+			Integer subnet = Integer.valueOf((int) address & subnetMask);
+
+			put(bySubnet, subnet, remove(bySubnet.get(subnet), machine));
+		}
+	}
+
+	private static <K> void put(Map<K, Object> map, K key, Object value) {
+		if (null == value) {
+			map.remove(key);
+		} else {
+			map.put(key, value);
+		}
+	}
+
+	/**
+	 * Returns the entry of a key with the given machine added.
+	 */
+	private static Object add(Object entry, Machine machine) {
+		if (null == entry) {
+			return machine;
+		}
+
+		if (entry instanceof Machine) {
+			return new Machine[] { (Machine) entry, machine };
+		}
+
+		Machine[] shared = (Machine[]) entry;
+		Machine[] result = Arrays.copyOf(shared, shared.length + 1);
+
+		result[shared.length] = machine;
+		return result;
+	}
+
+	/**
+	 * Returns the entry of a key with the given machine removed, or <code>null</code> if no machine is left.
+	 */
+	private static Object remove(Object entry, Machine machine) {
+		if (entry == machine || null == entry) {
+			return null;
+		}
+
+		if (entry instanceof Machine) {
+			return entry;
+		}
+
+		Machine[] shared = (Machine[]) entry;
+
+		for (int i = 0; i < shared.length; i++) {
+			if (shared[i] == machine) {
+				if (2 == shared.length) {
+					return shared[1 - i];
+				}
+
+				Machine[] result = new Machine[shared.length - 1];
+
+				System.arraycopy(shared, 0, result, 0, i);
+				System.arraycopy(shared, i + 1, result, i, result.length - i);
+				return result;
+			}
+		}
+
+		return entry;
+	}
+
+	private static Machine first(Object entry) {
+		return entry instanceof Machine[] ? ((Machine[]) entry)[0] : (Machine) entry;
+	}
+
+	private static Machine[] all(Object entry) {
+		if (null == entry) {
+			return NO_MACHINES;
+		}
+
+		return entry instanceof Machine ? new Machine[] { (Machine) entry } : ((Machine[]) entry).clone();
+	}
+
+	private static long toLong(String ethernetAddress) {
+		if (null == ethernetAddress) {
+			return EthernetAddress.INVALID;
+		}
+
+		return EthernetAddress.parse(ethernetAddress, 0, ethernetAddress.length(), true);
+	}
+
+	/**
+	 * Parses an IPv4 address in dotted decimal notation without resolving host names.
+	 *
+	 * @return the address as unsigned 32 bit value, or -1 if the host is not an IPv4 address
+	 */
+	static long ipv4(String host) {
+		if (null == host) {
+			return -1;
+		}
+
+		int length = host.length();
+		long address = 0;
+		int octets = 0;
+		int position = 0;
+
+		while (position < length && octets < 4) {
+			int octet = 0;
+			int start = position;
+
+			while (position < length && position - start < 3) {
+				char c = host.charAt(position);
+
+				if (c < '0' || c > '9') {
+					break;
+				}
+
+				octet = octet * 10 + (c - '0');
+				position++;
+			}
+
+			if (start == position || octet > 255) {
+				return -1;
+			}
+
+			address = (address << 8) | octet;
+
+			if (++octets < 4) {
+				if (position == length || '.' != host.charAt(position)) {
+					return -1;
+				}
+
+				position++;
+			}
+		}
+
+		return 4 == octets && position == length ? address : -1;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,189 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads machine configurations written by a {@link MachineWriter}, one machine at a time.
+ * Only the current line is held in memory, so files of any size can be streamed.
+ *
+ * @see MachineWriter
+ */
+public class MachineReader implements Closeable {
+	private final BufferedReader reader;
+	private final StringBuilder field = new StringBuilder();
+	private boolean fieldNull;
+	private int lineNumber;
+	private boolean headerRead;
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param in the stream to read from
+	 */
+	public MachineReader(InputStream in) {
+		this(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a new reader.
+	 *
+	 * @param reader the reader to read from
+	 */
+	public MachineReader(Reader reader) {
+		super();
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 64 * 1024);
+	}
+
+	/**
+	 * Reads the next machine.
+	 *
+	 * @return the machine, or <code>null</code> at the end of the input
+	 * @throws IOException if an I/O error occurs, or the input is not in the compact format
+	 */
+	public Machine read() throws IOException {
+		String line;
+
+		while (null != (line = reader.readLine())) {
+			lineNumber++;
+
+			if (!headerRead) {
+				if (!MachineWriter.HEADER.equals(line)) {
+					throw new IOException("Not a wakeonlan hosts file, expected '" + MachineWriter.HEADER + "' in line 1");
+				}
+
+				headerRead = true;
+				continue;
+			}
+
+			if (0 == line.length() || '#' == line.charAt(0)) {
+				continue;
+			}
+
+			return parse(line);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the number of the line read last.
+	 *
+	 * @return the line number, starting at 1
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private Machine parse(String line) throws IOException {
+		Machine machine = new Machine();
+		int position = 0;
+
+		position = readField(line, position);
+		machine.setName(fieldValue());
+		position = readField(line, position);
+		machine.setEthernetAddress(fieldValue());
+		position = readField(line, position);
+		machine.setHost(fieldValue());
+		position = readField(line, position);
+
+		try {
+			machine.setPort(Integer.parseInt(field.toString()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Illegal port '" + field + "' in line " + lineNumber);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage() + " in line " + lineNumber);
+		}
+
+		position = readField(line, position);
+		machine.setComment(fieldValue());
+
+		if (position <= line.length()) {
+			throw new IOException("Too many fields in line " + lineNumber);
+		}
+
+		return machine;
+	}
+
+	/**
+	 * Reads the field starting at the given position into {@link #field}.
+	 *
+	 * @return the position after the tab ending the field, or after the end of the line
+	 */
+	private int readField(String line, int position) throws IOException {
+		int length = line.length();
+
+		if (position > length) {
+			throw new IOException("Too few fields in line " + lineNumber);
+		}
+
+		field.setLength(0);
+		fieldNull = false;
+
+		int fieldStart = position;
+		int start = position;
+
+		while (position < length) {
+			char c = line.charAt(position);
+
+			if ('\t' == c) {
+				break;
+			}
+
+			if ('\\' == c) {
+				field.append(line, start, position);
+
+				if (++position == length) {
+					throw new IOException("Illegal escape at the end of line " + lineNumber);
+				}
+
+				switch (line.charAt(position)) {
+					case '\\': field.append('\\'); break;
+					case 't': field.append('\t'); break;
+					case 'n': field.append('\n'); break;
+					case 'r': field.append('\r'); break;
+					case '#': field.append('#'); break;
+					case 'N':
+						if (position - 1 != fieldStart || (position + 1 < length && '\t' != line.charAt(position + 1))) {
+							throw new IOException("Illegal null field in line " + lineNumber);
+						}
+
+						fieldNull = true;
+						break;
+					default: throw new IOException("Illegal escape in line " + lineNumber);
+				}
+
+				start = position + 1;
+			}
+
+			position++;
+		}
+
+		field.append(line, start, position);
+
+		return position + 1;
+	}
+
+	/**
+	 * Returns the value of the field read last. A lone <code>\N</code> stands for <code>null</code>.
+	 */
+	private String fieldValue() {
+		return fieldNull ? null : field.toString();
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+/**
+ * An immutable, compact machine configuration.
+ * <br>
+ * <br>
+ * A record holds the ethernet address as its 48 bit value, the host as an interned string shared
+ * by all records with the same host, and the port as an <code>int</code>. Records have no
+ * listeners and can be shared freely between threads. {@link Machine} remains the mutable bean
+ * for editing, {@link Machine#toRecord()} and {@link #toMachine()} convert between the two.
+ */
+public final class MachineRecord {
+	private final String name;
+	private final long ethernetAddress;
+	private final String invalidEthernetAddress;
+	private final String host;
+	private final int port;
+	private final String comment;
+
+	/**
+	 * Creates a new record.
+	 *
+	 * @param name the name
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @param host the host the magic packet will be sent to
+	 * @param port the port, between 0 and 0xFFFF
+	 * @param comment the comment
+	 * @throws IllegalArgumentException if the ethernet address is not a 48 bit value or the port is out of range
+	 */
+	public MachineRecord(String name, long ethernetAddress, String host, int port, String comment) {
+		this(name, ethernetAddress, null, host, port, comment);
+
+		if (0 != (ethernetAddress & ~0xFFFFFFFFFFFFL)) {
+			throw new IllegalArgumentException(Long.toHexString(ethernetAddress) + " is not a 48 bit value");
+		}
+	}
+
+	private MachineRecord(String name, long ethernetAddress, String invalidEthernetAddress, String host, int port, String comment) {
+		super();
+
+		if (port < 0 || port > 0xFFFF) {
+			throw new IllegalArgumentException("Port value out of range: " + port);
+		}
+
+		this.name = name;
+		this.ethernetAddress = ethernetAddress;
+		this.invalidEthernetAddress = invalidEthernetAddress;
+		this.host = null == host ? null : host.intern();
+		this.port = port;
+		this.comment = comment;
+	}
+
+	/**
+	 * Creates the record of the given machine. An ethernet address which can not be parsed is
+	 * kept as text, see {@link #hasValidEthernetAddress()}.
+	 *
+	 * @param machine the machine
+	 * @return the record
+	 */
+	public static MachineRecord of(Machine machine) {
+		String text = machine.getEthernetAddress();
+		long value = null == text ? EthernetAddress.INVALID : EthernetAddress.parse(text, 0, text.length(), true);
+
+		return new MachineRecord(machine.getName(), value, EthernetAddress.INVALID == value ? text : null, machine.getHost(),
+				machine.getPort(), machine.getComment());
+	}
+
+	/**
+	 * Returns the name.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns whether the ethernet address is valid.
+	 *
+	 * @return <code>true</code> if {@link #getEthernetAddress()} is a 48 bit value
+	 */
+	public boolean hasValidEthernetAddress() {
+		return EthernetAddress.INVALID != ethernetAddress;
+	}
+
+	/**
+	 * Returns the 48 bit value of the ethernet address.
+	 *
+	 * @return the ethernet address, or -1 if the machine the record was created of had no valid ethernet address
+	 */
+	public long getEthernetAddress() {
+		return ethernetAddress;
+	}
+
+	/**
+	 * Returns the ethernet address as text, in the notation of {@link EthernetAddress#toString()}
+	 * if it is valid.
+	 *
+	 * @return the ethernet address
+	 */
+	public String getEthernetAddressText() {
+		return hasValidEthernetAddress() ? EthernetAddress.toString(ethernetAddress) : invalidEthernetAddress;
+	}
+
+	/**
+	 * Returns the host the magic packet will be sent to.
+	 *
+	 * @return the host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns whether the host is {@link Machine#AUTO_HOST}.
+	 *
+	 * @return <code>true</code> if the magic packet will be sent on all local interfaces
+	 */
+	public boolean isAutoHost() {
+		return Machine.AUTO_HOST.equalsIgnoreCase(host);
+	}
+
+	/**
+	 * Returns the port the magic packet will be sent to.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the comment.
+	 *
+	 * @return the comment
+	 */
+	public String getComment() {
+		return comment;
+	}
+
+	/**
+	 * Creates a new machine bean with the values of this record.
+	 *
+	 * @return the machine
+	 */
+	public Machine toMachine() {
+		Machine machine = new Machine();
+
+		machine.setName(name);
+		machine.setEthernetAddress(getEthernetAddressText());
+		machine.setHost(host);
+		machine.setPort(port);
+		machine.setComment(comment);
+
+		return machine;
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof MachineRecord)) {
+			return false;
+		}
+
+		MachineRecord other = (MachineRecord) obj;
+
+		return ethernetAddress == other.ethernetAddress && port == other.port && equal(name, other.name)
+				&& equal(invalidEthernetAddress, other.invalidEthernetAddress) && equal(host, other.host) && equal(comment, other.comment);
+	}
+
+	public int hashCode() {
+		return EthernetAddress.hash(ethernetAddress) ^ (null == name ? 0 : name.hashCode());
+	}
+
+	public String toString() {
+		return name;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return null == a ? null == b : a.equals(b);
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,144 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes machine configurations in the compact line oriented format, one machine at a time.
+ * <br>
+ * <br>
+ * The format is UTF-8 text. The first line is {@link #HEADER}, every following line holds one
+ * machine: name, ethernet address, host, port and comment, seperated by tabs. Backslashes, tabs and
+ * line breaks inside the fields are escaped as <code>\\</code>, <code>\t</code>, <code>\n</code>
+ * and <code>\r</code>; a field that is <code>null</code> is written as <code>\N</code>. Empty lines
+ * and lines starting with <code>#</code> are ignored by the {@link MachineReader}, so a <code>#</code>
+ * at the start of a field is escaped as <code>\#</code>.
+ * <br>
+ * <br>
+ * Example:
+ * <pre>
+ * # wakeonlan hosts 1
+ * server	00:50:95:10:95:F5	192.168.1.255	9	in the basement
+ * </pre>
+ */
+public class MachineWriter implements Closeable, Flushable {
+	/**
+	 * The first line of every file in this format.
+	 */
+	public final static String HEADER = "# wakeonlan hosts 1";
+
+	private final Writer writer;
+
+	/**
+	 * Creates a new writer and writes the header.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public MachineWriter(OutputStream out) throws IOException {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a new writer and writes the header.
+	 *
+	 * @param writer the writer to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public MachineWriter(Writer writer) throws IOException {
+		super();
+		this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 64 * 1024);
+		this.writer.write(HEADER);
+		this.writer.write('\n');
+	}
+
+	/**
+	 * Writes one machine.
+	 *
+	 * @param machine the machine
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(Machine machine) throws IOException {
+		writeField(machine.getName());
+		writer.write('\t');
+		writeField(machine.getEthernetAddress());
+		writer.write('\t');
+		writeField(machine.getHost());
+		writer.write('\t');
+		writer.write(Integer.toString(machine.getPort()));
+		writer.write('\t');
+		writeField(machine.getComment());
+		writer.write('\n');
+	}
+
+	/**
+	 * Writes the given machines.
+	 *
+	 * @param machines the machines
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(Machine[] machines) throws IOException {
+		for (int i = 0; i < machines.length; i++) {
+			write(machines[i]);
+		}
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	private void writeField(String value) throws IOException {
+		if (null == value) {
+			writer.write("\\N");
+			return;
+		}
+
+		int length = value.length();
+		int start = 0;
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			char escaped;
+
+			switch (c) {
+				case '\\': escaped = '\\'; break;
+				case '\t': escaped = 't'; break;
+				case '\n': escaped = 'n'; break;
+				case '\r': escaped = 'r'; break;
+				case '#':
+					// a leading # would turn the line into a comment
+					if (0 != i) {
+						continue;
+					}
+
+					escaped = '#';
+					break;
+				default: continue;
+			}
+
+			writer.write(value, start, i - start);
+			writer.write('\\');
+			writer.write(escaped);
+			start = i + 1;
+		}
+
+		writer.write(value, start, length - start);
+	}
+}
+
+/*
+ * $Log$
+ */
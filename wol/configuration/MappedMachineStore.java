@@ -0,0 +1,483 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A read only store of machine configurations backed by a memory mapped file.
+ * <br>
+ * <br>
+ * Machines are decoded from the file only when they are accessed, by index or by ethernet address,
+ * so opening a store is instant and its heap usage does not grow with the number of machines.
+ * Stores are written with {@link #write(File, Iterator)}, usually from a configuration file read
+ * by a {@link MachineReader}.
+ * <br>
+ * <br>
+ * File layout (all numbers big endian):
+ * <ul>
+ * <li>header: magic, version, machine count, slot count, position of the record table,
+ * position of the slot table</li>
+ * <li>records: ethernet address as 48 bit value (-1 if not valid), port, position of the host string,
+ * name, ethernet address and comment strings. A host string is stored once, before the first
+ * record using it</li>
+ * <li>record table: the position of every record</li>
+ * <li>slot table: an open addressing hash table of ethernet address and record index,
+ * see {@link MacIndex}</li>
+ * </ul>
+ * Strings are stored as their length in UTF-8 bytes (-1 for null) followed by the bytes.
+ * A store file must be smaller than 2 GB.
+ * <br>
+ * <br>
+ * A store may be read by several threads at the same time.
+ */
+public class MappedMachineStore implements Closeable {
+	private final static int MAGIC = 0x574F4C4D;
+	private final static int VERSION = 1;
+	private final static int HEADER_LENGTH = 32;
+	private final static int SLOT_LENGTH = 12;
+	private final static long FREE = -1L;
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int slotMask;
+	private final int recordTable;
+	private final int slotTable;
+	private final Map<Integer, String> hosts = new ConcurrentHashMap<Integer, String>();
+
+	private MappedMachineStore(File file, ByteBuffer buffer) throws IOException {
+		super();
+		this.file = file;
+		this.buffer = buffer;
+
+		if (buffer.capacity() < HEADER_LENGTH || MAGIC != buffer.getInt(0)) {
+			throw new IOException(file + " is not a machine store");
+		}
+
+		if (VERSION != buffer.getInt(4)) {
+			throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+		}
+
+		this.count = buffer.getInt(8);
+		this.slotMask = buffer.getInt(12) - 1;
+		this.recordTable = (int) buffer.getLong(16);
+		this.slotTable = (int) buffer.getLong(24);
+	}
+
+	/**
+	 * Opens the store in the given file.
+	 *
+	 * @param file the file
+	 * @return the store
+	 * @throws IOException if the file could not be mapped or is not a machine store
+	 */
+	public static MappedMachineStore open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is larger than 2 GB");
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			return new MappedMachineStore(file, buffer);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Returns the file of this store.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the number of machines in this store.
+	 *
+	 * @return the number of machines
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Decodes the machine with the given index. Every call returns a new machine.
+	 *
+	 * @param index the index
+	 * @return the machine
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public Machine get(int index) {
+		int position = recordPosition(index);
+		Machine machine = new Machine();
+
+		machine.setPort(buffer.getInt(position + 8));
+		machine.setHost(host(buffer.getInt(position + 12)));
+		position += 16;
+		machine.setName(readString(position));
+		position = skipString(position);
+		machine.setEthernetAddress(readString(position));
+		position = skipString(position);
+		machine.setComment(readString(position));
+
+		return machine;
+	}
+
+	/**
+	 * Returns the ethernet address of the machine with the given index without decoding the machine.
+	 *
+	 * @param index the index
+	 * @return the 48 bit value of the ethernet address, or -1 if the machine has no valid ethernet address
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public long getEthernetAddress(int index) {
+		return buffer.getLong(recordPosition(index));
+	}
+
+	/**
+	 * Returns the index of the first machine with the given ethernet address.
+	 *
+	 * @param ethernetAddress the 48 bit value of the ethernet address
+	 * @return the index, or -1 if no machine has this address
+	 */
+	public int indexOf(long ethernetAddress) {
+		if (ethernetAddress < 0 || 0 == count) {
+			return -1;
+		}
+
+		int slot = EthernetAddress.hash(ethernetAddress) & slotMask;
+
+		while (true) {
+			int position = slotTable + slot * SLOT_LENGTH;
+			long key = buffer.getLong(position);
+
+			if (FREE == key) {
+				return -1;
+			}
+
+			if (ethernetAddress == key) {
+				return buffer.getInt(position + 8);
+			}
+
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	/**
+	 * Decodes the first machine with the given ethernet address.
+	 *
+	 * @param ethernetAddress the ethernet address
+	 * @return the machine, or <code>null</code> if no machine has this address
+	 */
+	public Machine findByMac(EthernetAddress ethernetAddress) {
+		int index = indexOf(ethernetAddress.toLong());
+
+		return index < 0 ? null : get(index);
+	}
+
+	/**
+	 * Returns a stream decoding the machines of this store one by one, in the order they were written.
+	 *
+	 * @return the stream
+	 */
+	public Stream<Machine> stream() {
+		return IntStream.range(0, count).mapToObj(this::get);
+	}
+
+	/**
+	 * Releases this store. The mapping itself is released by the garbage collector once the store
+	 * is no longer referenced.
+	 */
+	public void close() {
+		hosts.clear();
+	}
+
+	private int recordPosition(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+
+		return buffer.getInt(recordTable + 4 * index);
+	}
+
+	private String host(int position) {
+		if (position < 0) {
+			return null;
+		}
+
+		Integer key = Integer.valueOf(position);
+		String host = hosts.get(key);
+
+		if (null == host) {
+			host = readString(position);
+			hosts.put(key, host);
+		}
+
+		return host;
+	}
+
+	private String readString(int position) {
+		int length = buffer.getInt(position);
+
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+
+		buffer.get(position + 4, bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int skipString(int position) {
+		return position + 4 + Math.max(0, buffer.getInt(position));
+	}
+
+	/**
+	 * Writes a store of the machines read by the given reader.
+	 *
+	 * @param file the file
+	 * @param reader the reader
+	 * @return the number of machines written
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int write(File file, final MachineReader reader) throws IOException {
+		final IOException[] failure = new IOException[1];
+		int written = write(file, new Iterator<Machine>() {
+			private Machine next = read();
+
+			public boolean hasNext() {
+				return null != next;
+			}
+
+			public Machine next() {
+				Machine current = next;
+
+				next = read();
+				return current;
+			}
+
+			private Machine read() {
+				try {
+					return reader.read();
+				} catch (IOException e) {
+					failure[0] = e;
+					return null;
+				}
+			}
+		});
+
+		if (null != failure[0]) {
+			throw failure[0];
+		}
+
+		return written;
+	}
+
+	/**
+	 * Writes a store of the given machines. The machines are written as they are iterated,
+	 * only their positions and ethernet addresses are kept in memory.
+	 *
+	 * @param file the file
+	 * @param machines the machines
+	 * @return the number of machines written
+	 * @throws IOException if an I/O error occurs or the store would be larger than 2 GB
+	 */
+	public static int write(File file, Iterator<Machine> machines) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file));
+		DataOutputStream out = new DataOutputStream(counter);
+		Map<String, Integer> hostPositions = new HashMap<String, Integer>();
+		int[] positions = new int[1024];
+		long[] ethernetAddresses = new long[1024];
+		int count = 0;
+		int slots;
+		long recordTable;
+		long slotTable;
+
+		try {
+			out.write(new byte[HEADER_LENGTH]);
+
+			while (machines.hasNext()) {
+				Machine machine = machines.next();
+				String host = machine.getHost();
+				int hostPosition = -1;
+
+				if (null != host) {
+					Integer known = hostPositions.get(host);
+
+					if (null == known) {
+						known = Integer.valueOf(position(counter));
+						writeString(out, host);
+						hostPositions.put(host, known);
+					}
+
+					hostPosition = known.intValue();
+				}
+
+				if (count == positions.length) {
+					positions = Arrays.copyOf(positions, count * 2);
+					ethernetAddresses = Arrays.copyOf(ethernetAddresses, count * 2);
+				}
+
+				positions[count] = position(counter);
+				ethernetAddresses[count] = parse(machine.getEthernetAddress());
+				out.writeLong(ethernetAddresses[count]);
+				out.writeInt(machine.getPort());
+				out.writeInt(hostPosition);
+				writeString(out, machine.getName());
+				writeString(out, machine.getEthernetAddress());
+				writeString(out, machine.getComment());
+				count++;
+			}
+
+			recordTable = counter.count;
+
+			for (int i = 0; i < count; i++) {
+				out.writeInt(positions[i]);
+			}
+
+			slotTable = counter.count;
+			slots = slotCount(count);
+			long[] slotKeys = new long[slots];
+			int[] slotIndexes = new int[slots];
+
+			Arrays.fill(slotKeys, FREE);
+
+			for (int i = 0; i < count; i++) {
+				long key = ethernetAddresses[i];
+
+				if (key < 0) {
+					continue;
+				}
+
+				int slot = EthernetAddress.hash(key) & (slots - 1);
+
+				while (FREE != slotKeys[slot] && key != slotKeys[slot]) {
+					slot = (slot + 1) & (slots - 1);
+				}
+
+				// the first machine with an address wins
+				if (FREE == slotKeys[slot]) {
+					slotKeys[slot] = key;
+					slotIndexes[slot] = i;
+				}
+			}
+
+			for (int i = 0; i < slots; i++) {
+				out.writeLong(slotKeys[i]);
+				out.writeInt(slotIndexes[i]);
+			}
+
+			out.flush();
+
+			if (counter.count > Integer.MAX_VALUE) {
+				throw new IOException("Machine store would be larger than 2 GB");
+			}
+		} finally {
+			out.close();
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+		header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(slots).putLong(recordTable).putLong(slotTable);
+		header.flip();
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		try {
+			randomAccessFile.getChannel().write(header, 0);
+		} finally {
+			randomAccessFile.close();
+		}
+
+		return count;
+	}
+
+	private static int position(CountingOutputStream counter) throws IOException {
+		if (counter.count > Integer.MAX_VALUE) {
+			throw new IOException("Machine store would be larger than 2 GB");
+		}
+
+		return (int) counter.count;
+	}
+
+	private static long parse(String ethernetAddress) {
+		return null == ethernetAddress ? -1 : EthernetAddress.parse(ethernetAddress, 0, ethernetAddress.length(), true);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (null == value) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static int slotCount(int count) {
+		int slots = 16;
+
+		while (slots * 0.5 < count) {
+			slots <<= 1;
+		}
+
+		return slots;
+	}
+
+	/**
+	 * Buffers the bytes written to the underlying stream and counts them as they are written, so
+	 * the count is the position in the file without flushing.
+	 */
+	private static class CountingOutputStream extends BufferedOutputStream {
+		private long count;
+
+		CountingOutputStream(FileOutputStream out) {
+			super(out, 64 * 1024);
+		}
+
+		public synchronized void write(int b) throws IOException {
+			super.write(b);
+			count++;
+		}
+
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			count += len;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,299 @@
+/*
+ * $Id$
+ */
+package wol.configuration;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * A cron like schedule for waking up a machine, e.g. <code>30 7 * * 1-5</code> for weekdays at
+ * 07:30.
+ * <br>
+ * <br>
+ * A schedule has the five fields of a crontab line, separated by whitespace: minute (0-59), hour
+ * (0-23), day of month (1-31), month (1-12 or JAN-DEC) and day of week (0-7 or SUN-SAT, 0 and 7
+ * are sunday). Every field is <code>*</code> or a comma separated list of values and ranges such
+ * as <code>1-5</code>, each optionally followed by a step such as <code>*&#47;15</code>. If both
+ * day fields are restricted, a day matches if either field matches. The shortcuts
+ * <code>@yearly</code>, <code>@monthly</code>, <code>@weekly</code>, <code>@daily</code> and
+ * <code>@hourly</code> are accepted as well.
+ * <br>
+ * <br>
+ * Schedules are immutable and compare equal if their fields match the same times.
+ *
+ * @see Configuration#setSchedules(Machine, WakeSchedule[])
+ */
+public final class WakeSchedule {
+	private final static String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+	private final static String[] DAYS_OF_WEEK = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	/**
+	 * The number of years searched for the next time before a schedule is considered never due,
+	 * e.g. for the 30th of february. Leap days are due at least every eight years.
+	 */
+	private final static int MAX_YEARS = 8;
+
+	private final String expression;
+	private final long minutes;
+	private final int hours;
+	private final int daysOfMonth;
+	private final int months;
+	private final int daysOfWeek;
+	private final boolean anyDayOfMonth;
+	private final boolean anyDayOfWeek;
+
+	private WakeSchedule(String expression, long minutes, int hours, int daysOfMonth, int months, int daysOfWeek, boolean anyDayOfMonth,
+			boolean anyDayOfWeek) {
+		super();
+		this.expression = expression;
+		this.minutes = minutes;
+		this.hours = hours;
+		this.daysOfMonth = daysOfMonth;
+		this.months = months;
+		this.daysOfWeek = daysOfWeek;
+		this.anyDayOfMonth = anyDayOfMonth;
+		this.anyDayOfWeek = anyDayOfWeek;
+	}
+
+	/**
+	 * Parses a schedule.
+	 *
+	 * @param expression the five fields of a crontab line, or one of the shortcuts
+	 * @return the schedule
+	 * @throws IllegalArgumentException if the expression is not a valid schedule
+	 */
+	public static WakeSchedule parse(String expression) {
+		String trimmed = expression.trim();
+		String fields = trimmed;
+
+		if (trimmed.startsWith("@")) {
+			fields = shortcut(trimmed);
+		}
+
+		String[] parts = fields.split("\\s+");
+
+		if (5 != parts.length) {
+			throw new IllegalArgumentException("Expected 5 fields in schedule '" + expression + "'");
+		}
+
+		// bit 7 of the days of week, sunday, is folded into bit 0
+		int daysOfWeek = (int) parseField(parts[4], 0, 7, DAYS_OF_WEEK, expression);
+
+		return new WakeSchedule(trimmed, parseField(parts[0], 0, 59, null, expression), (int) parseField(parts[1], 0, 23, null, expression),
+				(int) parseField(parts[2], 1, 31, null, expression), (int) (parseField(parts[3], 1, 12, MONTHS, expression) >>> 1),
+				(daysOfWeek | (daysOfWeek >>> 7)) & 0x7F, parts[2].startsWith("*"), parts[4].startsWith("*"));
+	}
+
+	private static String shortcut(String expression) {
+		String name = expression.toLowerCase();
+
+		if ("@yearly".equals(name) || "@annually".equals(name)) {
+			return "0 0 1 1 *";
+		} else if ("@monthly".equals(name)) {
+			return "0 0 1 * *";
+		} else if ("@weekly".equals(name)) {
+			return "0 0 * * 0";
+		} else if ("@daily".equals(name) || "@midnight".equals(name)) {
+			return "0 0 * * *";
+		} else if ("@hourly".equals(name)) {
+			return "0 * * * *";
+		}
+
+		throw new IllegalArgumentException("Unknown schedule '" + expression + "'");
+	}
+
+	/**
+	 * Returns the bits of the values of one field, bit n standing for the value n.
+	 */
+	private static long parseField(String field, int min, int max, String[] names, String expression) {
+		long bits = 0;
+		String[] items = field.split(",");
+
+		for (int i = 0; i < items.length; i++) {
+			String item = items[i];
+			int step = 1;
+			int slash = item.indexOf('/');
+
+			if (-1 != slash) {
+				step = parseValue(item.substring(slash + 1), 1, max - min + 1, null, expression);
+				item = item.substring(0, slash);
+			}
+
+			int from;
+			int to;
+			int dash = item.indexOf('-');
+
+			if ("*".equals(item)) {
+				from = min;
+				to = max;
+			} else if (-1 != dash) {
+				from = parseValue(item.substring(0, dash), min, max, names, expression);
+				to = parseValue(item.substring(dash + 1), min, max, names, expression);
+			} else {
+				from = parseValue(item, min, max, names, expression);
+				// a single value with a step runs to the end of the range, like 5/15
+				to = -1 == slash ? from : max;
+			}
+
+			if (from > to) {
+				throw new IllegalArgumentException("Empty range '" + items[i] + "' in schedule '" + expression + "'");
+			}
+
+			for (int value = from; value <= to; value += step) {
+				bits |= 1L << value;
+			}
+		}
+
+		return bits;
+	}
+
+	private static int parseValue(String value, int min, int max, String[] names, String expression) {
+		if (null != names) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value)) {
+					// the names of months start at 1, the names of days of week at 0
+					return i + min;
+				}
+			}
+		}
+
+		int result;
+
+		try {
+			result = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value '" + value + "' in schedule '" + expression + "'");
+		}
+
+		if (result < min || result > max) {
+			throw new IllegalArgumentException("Value " + result + " out of range " + min + "-" + max + " in schedule '" + expression + "'");
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the expression this schedule was parsed from.
+	 *
+	 * @return the expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns the first time this schedule is due after the given time. A time skipped by a
+	 * daylight saving change is not due on that day.
+	 *
+	 * @param time the time in milliseconds since the epoch
+	 * @param timeZone the time zone the fields of the schedule are in
+	 * @return the first due time after the given time, at the start of a minute, or -1 if the
+	 * schedule is never due, e.g. on the 31st of february
+	 */
+	public long next(long time, TimeZone timeZone) {
+		Calendar calendar = Calendar.getInstance(timeZone);
+
+		calendar.setTimeInMillis(time);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.MINUTE, 1);
+
+		int maxYear = calendar.get(Calendar.YEAR) + MAX_YEARS;
+
+		while (calendar.get(Calendar.YEAR) <= maxYear) {
+			if (0 == (months & (1 << calendar.get(Calendar.MONTH)))) {
+				calendar.add(Calendar.MONTH, 1);
+				calendar.set(Calendar.DAY_OF_MONTH, 1);
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.set(Calendar.MINUTE, 0);
+				continue;
+			}
+
+			if (!matchesDay(calendar)) {
+				calendar.add(Calendar.DAY_OF_MONTH, 1);
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.set(Calendar.MINUTE, 0);
+				continue;
+			}
+
+			int hour = nextBit(hours, calendar.get(Calendar.HOUR_OF_DAY));
+
+			if (-1 == hour) {
+				calendar.add(Calendar.DAY_OF_MONTH, 1);
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.set(Calendar.MINUTE, 0);
+				continue;
+			}
+
+			if (hour != calendar.get(Calendar.HOUR_OF_DAY)) {
+				calendar.set(Calendar.HOUR_OF_DAY, hour);
+				calendar.set(Calendar.MINUTE, 0);
+			}
+
+			int minute = nextBit(minutes, calendar.get(Calendar.MINUTE));
+
+			if (-1 == minute) {
+				calendar.add(Calendar.HOUR_OF_DAY, 1);
+				calendar.set(Calendar.MINUTE, 0);
+				continue;
+			}
+
+			calendar.set(Calendar.MINUTE, minute);
+
+			// setting the hour may have crossed a daylight saving change, check again
+			if (hour == calendar.get(Calendar.HOUR_OF_DAY) && minute == calendar.get(Calendar.MINUTE)) {
+				return calendar.getTimeInMillis();
+			}
+		}
+
+		return -1;
+	}
+
+	private boolean matchesDay(Calendar calendar) {
+		boolean dayOfMonth = 0 != (daysOfMonth & (1 << calendar.get(Calendar.DAY_OF_MONTH)));
+		boolean dayOfWeek = 0 != (daysOfWeek & (1 << (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY)));
+
+		if (anyDayOfMonth || anyDayOfWeek) {
+			return dayOfMonth && dayOfWeek;
+		}
+
+		return dayOfMonth || dayOfWeek;
+	}
+
+	/**
+	 * Returns the lowest set bit at or above the given index, or -1.
+	 */
+	private static int nextBit(long bits, int from) {
+		long remaining = bits >>> from;
+
+		return 0 == remaining ? -1 : from + Long.numberOfTrailingZeros(remaining);
+	}
+
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof WakeSchedule)) {
+			return false;
+		}
+
+		WakeSchedule other = (WakeSchedule) obj;
+
+		return minutes == other.minutes && hours == other.hours && daysOfMonth == other.daysOfMonth && months == other.months
+				&& daysOfWeek == other.daysOfWeek && anyDayOfMonth == other.anyDayOfMonth && anyDayOfWeek == other.anyDayOfWeek;
+	}
+
+	public int hashCode() {
+		return (int) (minutes ^ (minutes >>> 32)) * 31 + hours * 17 + daysOfMonth * 13 + months * 7 + daysOfWeek;
+	}
+
+	public String toString() {
+		return expression;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,661 @@
+/*
+ * $Id$
+ */
+package wol.daemon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import wol.BroadcastFanout;
+import wol.HostCache;
+import wol.ScheduledWaker;
+import wol.WakeCoalescer;
+import wol.WakeSender;
+import wol.WakeTarget;
+import wol.WakeUpUtil;
+import wol.configuration.Configuration;
+import wol.configuration.ConfigurationSnapshot;
+import wol.configuration.ConfigurationWatcher;
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.Machine;
+import wol.configuration.MachineRecord;
+import wol.metrics.WakeMetrics;
+
+/**
+ * A resident service waking up machines on request.
+ * <br>
+ * <br>
+ * Requests name the machines to wake up by ethernet address, name or group:
+ * <ul>
+ * <li><code>mac</code>: an ethernet address. A machine of the configuration with this address is
+ * woken up through its host and port, an unknown address through {@link WakeUpUtil#DEFAULT_HOST}
+ * and {@link WakeUpUtil#DEFAULT_PORT}</li>
+ * <li><code>name</code>: the name of a machine of the configuration</li>
+ * <li><code>group</code>: all machines of the configuration with this host, or if there are none
+ * and the group is an IPv4 address, all machines in its subnet</li>
+ * </ul>
+ * Requests are accepted over HTTP as <code>GET</code> or <code>POST /wake?name=server</code>,
+ * several parameters may be combined, and over UDP as datagrams of lines such as
+ * <code>name server</code>. Every request is answered with <code>OK</code> and the number of
+ * machines woken up, or <code>ERR</code> and the reason. If some machines could not be woken up,
+ * the answer is <code>ERR</code> with the numbers of machines woken up and failed.
+ * <br>
+ * <br>
+ * All requests share one {@link WakeSender} and one {@link Configuration}. Each request runs on its
+ * own virtual thread if the Java runtime supports them, otherwise on a cached thread pool.
+ * Repeated requests for the same ethernet address are merged by a {@link WakeCoalescer}, machines
+ * with the host {@link Machine#AUTO_HOST} are woken up through a {@link BroadcastFanout}.
+ * Both endpoints bind to the loopback address by default. While the daemon runs, the machines of
+ * the configuration are also woken up on their schedules by a {@link ScheduledWaker}, and their
+ * hosts are kept resolved in the {@link HostCache#getDefault() shared host cache}, so requests
+ * never wait for name resolution. A machine whose host is not resolved is not woken up.
+ */
+public class WakeDaemon implements Closeable {
+	private final static Logger LOG = Logger.getLogger(WakeDaemon.class.getName());
+
+	/**
+	 * The default port of the HTTP and UDP endpoints: 9099
+	 */
+	public final static int DEFAULT_PORT = 9099;
+
+	private final static int MAX_DATAGRAM = 8 * 1024;
+
+	private final Configuration configuration;
+	private final WakeSender sender;
+	private final WakeCoalescer coalescer;
+	private final BroadcastFanout fanout = new BroadcastFanout();
+	private InetSocketAddress httpAddress;
+	private InetSocketAddress udpAddress;
+	private ExecutorService executor;
+	private HttpServer httpServer;
+	private DatagramChannel udpChannel;
+	private Thread udpThread;
+	private ScheduledWaker scheduledWaker;
+
+	/**
+	 * Creates a new daemon listening on the default port of the loopback address.
+	 *
+	 * @param configuration the configuration the machines are looked up in
+	 * @param sender the sender all requests share. It is opened by {@link #start()} if necessary
+	 */
+	public WakeDaemon(Configuration configuration, WakeSender sender) {
+		super();
+		this.configuration = configuration;
+		this.sender = sender;
+		this.coalescer = new WakeCoalescer(sender);
+		this.httpAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+		this.udpAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+	}
+
+	/**
+	 * Returns the address of the HTTP endpoint. After {@link #start()} this is the bound address.
+	 *
+	 * @return the address, or <code>null</code> if the HTTP endpoint is disabled
+	 */
+	public synchronized InetSocketAddress getHttpAddress() {
+		return null == httpServer ? httpAddress : httpServer.getAddress();
+	}
+
+	/**
+	 * Sets the address of the HTTP endpoint. Must be called before {@link #start()}.
+	 *
+	 * @param httpAddress the address, port 0 for an ephemeral port, or <code>null</code> to disable the endpoint
+	 */
+	public synchronized void setHttpAddress(InetSocketAddress httpAddress) {
+		this.httpAddress = httpAddress;
+	}
+
+	/**
+	 * Returns the address of the UDP endpoint. After {@link #start()} this is the bound address.
+	 *
+	 * @return the address, or <code>null</code> if the UDP endpoint is disabled
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized InetSocketAddress getUdpAddress() throws IOException {
+		return null == udpChannel ? udpAddress : (InetSocketAddress) udpChannel.getLocalAddress();
+	}
+
+	/**
+	 * Sets the address of the UDP endpoint. Must be called before {@link #start()}.
+	 *
+	 * @param udpAddress the address, port 0 for an ephemeral port, or <code>null</code> to disable the endpoint
+	 */
+	public synchronized void setUdpAddress(InetSocketAddress udpAddress) {
+		this.udpAddress = udpAddress;
+	}
+
+	/**
+	 * Returns the configuration the machines are looked up in.
+	 *
+	 * @return the configuration
+	 */
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Returns the coalescer merging repeated requests for the same ethernet address.
+	 * Its window can be changed at any time.
+	 *
+	 * @return the coalescer
+	 */
+	public WakeCoalescer getCoalescer() {
+		return coalescer;
+	}
+
+	/**
+	 * Returns the waker of the scheduled machines.
+	 *
+	 * @return the waker, or <code>null</code> if the daemon is not started
+	 */
+	public synchronized ScheduledWaker getScheduledWaker() {
+		return scheduledWaker;
+	}
+
+	/**
+	 * Opens the sender if necessary and starts the endpoints and the scheduled wakes. Calling
+	 * this method on a started daemon has no effect.
+	 *
+	 * @return this daemon
+	 * @throws IOException if an endpoint could not be bound
+	 */
+	public synchronized WakeDaemon start() throws IOException {
+		if (null != executor) {
+			return this;
+		}
+
+		sender.open();
+		executor = newRequestExecutor();
+		// requests look hosts up without blocking, see WakeTarget.forRecord(MachineRecord)
+		HostCache.getDefault().attach(configuration);
+
+		try {
+			if (null != httpAddress) {
+				httpServer = HttpServer.create(httpAddress, 0);
+				httpServer.createContext("/wake", new HttpHandler() {
+					public void handle(HttpExchange exchange) throws IOException {
+						handleHttp(exchange);
+					}
+				});
+				httpServer.setExecutor(executor);
+				httpServer.start();
+			}
+
+			if (null != udpAddress) {
+				final DatagramChannel channel = DatagramChannel.open();
+				final ExecutorService requestExecutor = executor;
+
+				udpChannel = channel;
+				channel.bind(udpAddress);
+				udpThread = new Thread(new Runnable() {
+					public void run() {
+						receive(channel, requestExecutor);
+					}
+				}, "wake-daemon-udp");
+				udpThread.setDaemon(true);
+				udpThread.start();
+			}
+
+			scheduledWaker = new ScheduledWaker(configuration, sender).start();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+
+		return this;
+	}
+
+	/**
+	 * Stops the endpoints and the scheduled wakes. Requests still running are completed. The
+	 * sender is not closed.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void close() throws IOException {
+		if (null != httpServer) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+
+		if (null != udpChannel) {
+			udpChannel.close();
+			udpChannel = null;
+		}
+
+		if (null != executor) {
+			executor.shutdown();
+			executor = null;
+			HostCache.getDefault().detach(configuration);
+		}
+
+		if (null != scheduledWaker) {
+			scheduledWaker.close();
+			scheduledWaker = null;
+		}
+
+		fanout.close();
+	}
+
+	/**
+	 * Wakes up the machines named by one request parameter.
+	 *
+	 * @param kind the kind of the request: <code>mac</code>, <code>name</code> or <code>group</code>
+	 * @param value the ethernet address, name or group
+	 * @return the numbers of machines woken up, including machines whose request was coalesced,
+	 *         and of machines which could not be woken up
+	 * @throws IllegalArgumentException if the kind is unknown or the ethernet address is not valid
+	 * @throws NoSuchElementException if no machine matches the value
+	 * @throws IOException if an I/O error occurs
+	 */
+	public Counts wake(String kind, String value) throws IOException {
+		return wake(configuration.getSnapshot(), kind, value);
+	}
+
+	/**
+	 * Wakes up the machines named by one request parameter, looking them up in the given
+	 * snapshot of the configuration.
+	 *
+	 * @param snapshot the snapshot
+	 * @param kind the kind of the request: <code>mac</code>, <code>name</code> or <code>group</code>
+	 * @param value the ethernet address, name or group
+	 * @return the numbers of machines woken up, including machines whose request was coalesced,
+	 *         and of machines which could not be woken up
+	 * @throws IllegalArgumentException if the kind is unknown or the ethernet address is not valid
+	 * @throws NoSuchElementException if no machine matches the value
+	 * @throws IOException if an I/O error occurs
+	 * @see Configuration#getSnapshot()
+	 */
+	public Counts wake(ConfigurationSnapshot snapshot, String kind, String value) throws IOException {
+		MachineRecord[] machines;
+
+		if ("mac".equals(kind)) {
+			EthernetAddress ethernetAddress;
+
+			try {
+				ethernetAddress = new EthernetAddress(value);
+			} catch (IllegalEthernetAddressException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+
+			MachineRecord machine = snapshot.findByMac(ethernetAddress);
+
+			if (null == machine) {
+				Counts counts = new Counts();
+
+				try {
+					send(new WakeTarget(ethernetAddress, WakeUpUtil.DEFAULT_HOST, WakeUpUtil.DEFAULT_PORT));
+					counts.sent++;
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Could not wake up " + ethernetAddress, e);
+					counts.failed++;
+				}
+
+				return counts;
+			}
+
+			machines = new MachineRecord[] { machine };
+		} else if ("name".equals(kind)) {
+			MachineRecord machine = snapshot.findByName(value);
+
+			machines = null == machine ? new MachineRecord[0] : new MachineRecord[] { machine };
+		} else if ("group".equals(kind)) {
+			machines = snapshot.findByHost(value);
+
+			if (0 == machines.length && isIpv4(value)) {
+				machines = snapshot.findBySubnet(InetAddress.getByName(value), configuration.getSubnetPrefixLength());
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown request '" + kind + "'");
+		}
+
+		if (0 == machines.length) {
+			throw new NoSuchElementException("No machine for " + kind + " '" + value + "'");
+		}
+
+		Counts counts = new Counts();
+
+		// one machine which cannot be woken up must not keep the others asleep
+		for (int i = 0; i < machines.length; i++) {
+			try {
+				if (machines[i].isAutoHost()) {
+					fanout.send(new EthernetAddress[] { new EthernetAddress(machines[i].getEthernetAddress()) }, machines[i].getPort());
+				} else {
+					send(WakeTarget.forRecord(machines[i]));
+				}
+
+				counts.sent++;
+			} catch (IllegalEthernetAddressException e) {
+				LOG.log(Level.WARNING, "Could not wake up " + machines[i], e);
+				counts.failed++;
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not wake up " + machines[i], e);
+				counts.failed++;
+			}
+		}
+
+		return counts;
+	}
+
+	private void send(WakeTarget target) throws IOException {
+		try {
+			coalescer.wake(target).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Runs the requests in the given lines of the form <code>kind value</code>. All lines are
+	 * looked up in the same snapshot of the configuration.
+	 *
+	 * @return the answer
+	 */
+	private Answer wakeLines(String text) {
+		ConfigurationSnapshot snapshot = configuration.getSnapshot();
+		Counts total = new Counts();
+
+		for (String line : text.split("\r?\n")) {
+			line = line.trim();
+
+			if (0 == line.length()) {
+				continue;
+			}
+
+			int space = line.indexOf(' ');
+
+			if (space < 0) {
+				return new Answer(400, "ERR Malformed request '" + line + "'" + total.after());
+			}
+
+			try {
+				total.add(wake(snapshot, line.substring(0, space), line.substring(space + 1).trim()));
+			} catch (IllegalArgumentException e) {
+				return new Answer(400, "ERR " + e.getMessage() + total.after());
+			} catch (NoSuchElementException e) {
+				return new Answer(404, "ERR " + e.getMessage() + total.after());
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not run request '" + line + "'", e);
+				return new Answer(500, "ERR " + e + total.after());
+			}
+		}
+
+		if (0 < total.failed) {
+			return new Answer(500, "ERR " + total);
+		}
+
+		return 0 == total.sent && 0 == text.trim().length() ? new Answer(400, "ERR No machine requested") : new Answer(200, "OK " + total.sent);
+	}
+
+	private void handleHttp(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		Answer answer;
+
+		if (!"GET".equals(method) && !"POST".equals(method)) {
+			answer = new Answer(405, "ERR Method not allowed");
+		} else {
+			StringBuilder lines = new StringBuilder();
+
+			appendParameters(exchange.getRequestURI().getRawQuery(), lines);
+
+			if ("POST".equals(method)) {
+				InputStream in = exchange.getRequestBody();
+
+				appendParameters(new String(in.readAllBytes(), StandardCharsets.UTF_8), lines);
+				in.close();
+			}
+
+			answer = wakeLines(lines.toString());
+		}
+
+		byte[] body = (answer.text + '\n').getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(answer.status, body.length);
+
+		OutputStream out = exchange.getResponseBody();
+
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * Appends the parameters of the given form encoded text as lines of the form <code>kind value</code>.
+	 */
+	private static void appendParameters(String query, StringBuilder lines) {
+		if (null == query || 0 == query.length()) {
+			return;
+		}
+
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+
+			if (equals > 0) {
+				lines.append(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8));
+				lines.append(' ');
+				lines.append(URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8).replace('\n', ' '));
+				lines.append('\n');
+			}
+		}
+	}
+
+	private void receive(final DatagramChannel channel, ExecutorService requestExecutor) {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+
+		try {
+			while (true) {
+				buffer.clear();
+
+				final SocketAddress client = channel.receive(buffer);
+
+				buffer.flip();
+
+				final String text = StandardCharsets.UTF_8.decode(buffer).toString();
+
+				requestExecutor.execute(new Runnable() {
+					public void run() {
+						try {
+							channel.send(ByteBuffer.wrap((wakeLines(text).text + '\n').getBytes(StandardCharsets.UTF_8)), client);
+						} catch (IOException e) {
+							LOG.log(Level.FINE, "Could not answer " + client, e);
+						}
+					}
+				});
+			}
+		} catch (AsynchronousCloseException e) {
+			// closed
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "UDP endpoint failed", e);
+		} catch (RuntimeException e) {
+			// the executor was shut down
+			LOG.log(Level.FINE, "UDP endpoint stopped", e);
+		}
+	}
+
+	/**
+	 * Returns whether the given value is an IPv4 address in dotted decimal notation, with four
+	 * octets of one to three digits between 0 and 255.
+	 */
+	private static boolean isIpv4(String value) {
+		int dots = 0;
+		int digits = 0;
+		int octet = 0;
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if ('.' == c) {
+				if (0 == digits || 3 == dots++) {
+					return false;
+				}
+
+				digits = 0;
+				octet = 0;
+			} else if (c < '0' || c > '9' || 3 == digits++) {
+				return false;
+			} else if ((octet = octet * 10 + (c - '0')) > 255) {
+				return false;
+			}
+		}
+
+		return 3 == dots && 0 < digits;
+	}
+
+	/**
+	 * Returns an executor starting a virtual thread per task, or a cached thread pool of daemon
+	 * threads on Java runtimes without virtual threads.
+	 *
+	 * @return the executor
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			LOG.fine("Virtual threads are not available, using a thread pool");
+		}
+
+		final AtomicInteger threads = new AtomicInteger();
+
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "wake-daemon-" + threads.incrementAndGet());
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts a daemon for the configuration in the given file, or the default configuration. The
+	 * {@link WakeMetrics} are published through JMX.
+	 * Arguments: <code>[configuration file] [port]</code>
+	 *
+	 * @param args the arguments
+	 * @throws Exception if the daemon could not be started
+	 */
+	public static void main(String[] args) throws Exception {
+		// answers are small, without TCP_NODELAY every answer waits for the delayed ACK of its headers
+		if (null == System.getProperty("sun.net.httpserver.nodelay")) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		WakeMetrics.register();
+
+		Configuration configuration = 0 < args.length ? new Configuration(new File(args[0])) : new Configuration();
+		int port = 1 < args.length ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		final WakeSender sender = new WakeSender();
+		final WakeDaemon daemon = new WakeDaemon(configuration, sender);
+		final ConfigurationWatcher watcher = new ConfigurationWatcher(configuration);
+		final CountDownLatch stopped = new CountDownLatch(1);
+
+		daemon.setHttpAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		daemon.setUdpAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		daemon.start();
+		watcher.start();
+		LOG.info("Waking " + configuration.getMachines().length + " machines on request at http://" + daemon.getHttpAddress() + "/wake and udp://" + daemon.getUdpAddress());
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					watcher.close();
+					daemon.close();
+					sender.close();
+				} catch (IOException e) {
+					LOG.log(Level.FINE, "Could not stop", e);
+				}
+
+				stopped.countDown();
+			}
+		});
+
+		stopped.await();
+	}
+
+	/**
+	 * The answer to a request: an HTTP status and the text sent back.
+	 */
+	/**
+	 * The numbers of machines woken up and failed by a request.
+	 */
+	public static class Counts {
+		int sent;
+		int failed;
+
+		/**
+		 * Returns the number of machines woken up.
+		 *
+		 * @return the number of machines woken up, including machines whose request was coalesced
+		 */
+		public int getSent() {
+			return sent;
+		}
+
+		/**
+		 * Returns the number of machines which could not be woken up.
+		 *
+		 * @return the number of machines which could not be woken up
+		 */
+		public int getFailed() {
+			return failed;
+		}
+
+		void add(Counts counts) {
+			sent += counts.sent;
+			failed += counts.failed;
+		}
+
+		/**
+		 * Returns the numbers of the requests before the one which failed, if there were any.
+		 */
+		String after() {
+			return 0 == sent && 0 == failed ? "" : " after " + this;
+		}
+
+		public String toString() {
+			return sent + " sent, " + failed + " failed";
+		}
+	}
+
+	private static class Answer {
+		final int status;
+		final String text;
+
+		Answer(int status, String text) {
+			this.status = status;
+			this.text = text;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,168 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A latency histogram with logarithmic buckets, recorded without locks.
+ * <br>
+ * <br>
+ * Every power of two range of values is split into {@value #SUB_BUCKETS} linear sub-buckets, so
+ * values are kept with a relative precision of about 12% over the whole range of
+ * <code>long</code>, as in HdrHistogram with one significant digit. Recording a value is an
+ * atomic increment of one bucket and does not allocate.
+ */
+public class Histogram {
+	private final static int SUB_BUCKET_BITS = 3;
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private final static int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	private final static LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public Histogram() {
+		super();
+	}
+
+	/**
+	 * Records one value.
+	 *
+	 * @param value the value, typically nanoseconds. Negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return the mean, or 0 if no value was recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+
+		return 0 == n ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return the maximum, or 0 if no value was recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which the given share of the recorded values lie. The result is the
+	 * upper bound of the bucket holding the percentile, and never larger than the maximum.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the value, or 0 if no value was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (0 == total) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+
+			if (seen >= rank) {
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Returns a snapshot of the count, mean, common percentiles and maximum.
+	 *
+	 * @return the snapshot
+	 */
+	public HistogramSnapshot getSnapshot() {
+		return new HistogramSnapshot(getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+	}
+
+	/**
+	 * Removes all recorded values. Values recorded concurrently may be kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+		return lower + (1L << shift) - 1;
+	}
+}
+
+/*
+ * $Log$
+ */
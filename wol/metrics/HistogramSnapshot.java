@@ -0,0 +1,101 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The state of a {@link Histogram} at one point in time. Exposed through JMX as composite data.
+ */
+public class HistogramSnapshot {
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long max;
+
+	/**
+	 * Creates a new snapshot.
+	 *
+	 * @param count the number of values
+	 * @param mean the mean
+	 * @param p50 the median
+	 * @param p90 the 90th percentile
+	 * @param p99 the 99th percentile
+	 * @param max the maximum
+	 */
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+	public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+		super();
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.max = max;
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean.
+	 *
+	 * @return the mean
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the median.
+	 *
+	 * @return the median
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * Returns the 90th percentile.
+	 *
+	 * @return the 90th percentile
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * Returns the 99th percentile.
+	 *
+	 * @return the 99th percentile
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * Returns the maximum.
+	 *
+	 * @return the maximum
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	public String toString() {
+		return "count=" + count + " mean=" + Math.round(mean) + " p50=" + p50 + " p90=" + p90 + " p99=" + p99 + " max=" + max;
+	}
+}
+
+/*
+ * $Log$
+ */
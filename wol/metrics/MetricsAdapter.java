@@ -0,0 +1,36 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * An empty implementation of {@link MetricsListener}. Subclasses override the events they are
+ * interested in.
+ */
+public abstract class MetricsAdapter implements MetricsListener {
+	public void packetSent(SocketAddress target, long nanos) {
+	}
+
+	public void sendFailed(SocketAddress target, IOException cause) {
+	}
+
+	public void frameBuilt(long nanos) {
+	}
+
+	public void hostResolved(String host, boolean resolved, long nanos) {
+	}
+
+	public void parseFailed(CharSequence text) {
+	}
+
+	public void configurationLoaded(File file, int machines, long nanos) {
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,70 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * Receives the events recorded by {@link WakeMetrics}, for example to forward them to a
+ * monitoring system. Listeners are called on the thread which sends, parses or resolves, so they
+ * must return quickly and must not block.
+ *
+ * @see MetricsAdapter
+ * @see WakeMetrics#addMetricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+	/**
+	 * Called when a magic packet was sent.
+	 *
+	 * @param target the address the packet was sent to
+	 * @param nanos the time the socket send took in nanoseconds
+	 */
+	void packetSent(SocketAddress target, long nanos);
+
+	/**
+	 * Called when a magic packet could not be sent.
+	 *
+	 * @param target the address the packet should have been sent to
+	 * @param cause the failure
+	 */
+	void sendFailed(SocketAddress target, IOException cause);
+
+	/**
+	 * Called when a wakeup frame was built.
+	 *
+	 * @param nanos the time the frame took in nanoseconds
+	 */
+	void frameBuilt(long nanos);
+
+	/**
+	 * Called when a host name was resolved or could not be resolved.
+	 *
+	 * @param host the host name
+	 * @param resolved <code>true</code> if the host was resolved
+	 * @param nanos the time the resolution took in nanoseconds
+	 */
+	void hostResolved(String host, boolean resolved, long nanos);
+
+	/**
+	 * Called when a text could not be parsed as an ethernet address.
+	 *
+	 * @param text the text
+	 */
+	void parseFailed(CharSequence text);
+
+	/**
+	 * Called when a configuration was loaded or reloaded.
+	 *
+	 * @param file the configuration file
+	 * @param machines the number of machines loaded
+	 * @param nanos the time the load took in nanoseconds
+	 */
+	void configurationLoaded(File file, int machines, long nanos);
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,361 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the wake pipeline.
+ * <br>
+ * <br>
+ * The instrumented code takes a start time with {@link #time()} and reports the event with the
+ * start time when it is done. Counters are {@link LongAdder}s and histograms are lock free, so
+ * recording an event costs two reads of {@link System#nanoTime()} and a few uncontended atomic
+ * additions, and never allocates. A disabled instance does not read the clock at all.
+ * <br>
+ * <br>
+ * The {@link #getDefault() default} instance is used by the senders, the configuration and the
+ * host cache. It is exposed through JMX as {@value #OBJECT_NAME} once {@link #register()} is called,
+ * and events are forwarded to all registered {@link MetricsListener}s.
+ */
+public class WakeMetrics implements WakeMetricsMXBean {
+	/**
+	 * The JMX object name of the default instance.
+	 */
+	public final static String OBJECT_NAME = "wol:type=WakeMetrics";
+
+	private final static Logger LOG = Logger.getLogger(WakeMetrics.class.getName());
+	private final static MetricsListener[] NO_LISTENERS = new MetricsListener[0];
+	private final static WakeMetrics DEFAULT_METRICS = new WakeMetrics();
+
+	private final LongAdder packetsSent = new LongAdder();
+	private final LongAdder sendErrors = new LongAdder();
+	private final LongAdder parseFailures = new LongAdder();
+	private final LongAdder resolveFailures = new LongAdder();
+	private final Histogram socketSend = new Histogram();
+	private final Histogram frameBuild = new Histogram();
+	private final Histogram hostResolution = new Histogram();
+	private final Histogram configurationLoad = new Histogram();
+	private volatile boolean enabled = true;
+	private volatile MetricsListener[] listeners = NO_LISTENERS;
+
+	/**
+	 * Creates a new, enabled instance.
+	 */
+	public WakeMetrics() {
+		super();
+	}
+
+	/**
+	 * Returns the instance used by the wake pipeline. Does not lock, the instance is created when
+	 * this class is initialized.
+	 *
+	 * @return the default instance
+	 */
+	public static WakeMetrics getDefault() {
+		return DEFAULT_METRICS;
+	}
+
+	/**
+	 * Registers the default instance with the platform MBean server as {@value #OBJECT_NAME}.
+	 * Calling this method more than once has no effect.
+	 *
+	 * @return <code>true</code> if the instance is registered
+	 */
+	public static synchronized boolean register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (!server.isRegistered(name)) {
+				server.registerMBean(getDefault(), name);
+			}
+
+			return true;
+		} catch (JMException e) {
+			LOG.log(Level.WARNING, "Could not register " + OBJECT_NAME, e);
+			return false;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Adds a listener which receives all recorded events.
+	 *
+	 * @param listener the listener
+	 */
+	public synchronized void addMetricsListener(MetricsListener listener) {
+		MetricsListener[] newListeners = new MetricsListener[listeners.length + 1];
+
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+
+	/**
+	 * Removes the given listener.
+	 *
+	 * @param listener the listener
+	 */
+	public synchronized void removeMetricsListener(MetricsListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				MetricsListener[] newListeners = new MetricsListener[listeners.length - 1];
+
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+				listeners = 0 == newListeners.length ? NO_LISTENERS : newListeners;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the start time of an event.
+	 *
+	 * @return the current value of {@link System#nanoTime()}, or 0 if this instance is disabled
+	 */
+	public long time() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records a sent magic packet.
+	 *
+	 * @param target the address the packet was sent to
+	 * @param start the start time of the send returned by {@link #time()}
+	 */
+	public void packetSent(SocketAddress target, long start) {
+		if (!enabled || 0 == start) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+
+		packetsSent.increment();
+		socketSend.record(nanos);
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].packetSent(target, nanos);
+		}
+	}
+
+	/**
+	 * Records a magic packet which could not be sent.
+	 *
+	 * @param target the address the packet should have been sent to
+	 * @param cause the failure
+	 */
+	public void sendFailed(SocketAddress target, IOException cause) {
+		if (!enabled) {
+			return;
+		}
+
+		sendErrors.increment();
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].sendFailed(target, cause);
+		}
+	}
+
+	/**
+	 * Records a built wakeup frame.
+	 *
+	 * @param start the start time of the build returned by {@link #time()}
+	 */
+	public void frameBuilt(long start) {
+		if (!enabled || 0 == start) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+
+		frameBuild.record(nanos);
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].frameBuilt(nanos);
+		}
+	}
+
+	/**
+	 * Records a host name resolution.
+	 *
+	 * @param host the host name
+	 * @param resolved <code>true</code> if the host was resolved
+	 * @param start the start time of the resolution returned by {@link #time()}
+	 */
+	public void hostResolved(String host, boolean resolved, long start) {
+		if (!enabled || 0 == start) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+
+		hostResolution.record(nanos);
+
+		if (!resolved) {
+			resolveFailures.increment();
+		}
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].hostResolved(host, resolved, nanos);
+		}
+	}
+
+	/**
+	 * Records a text which could not be parsed as an ethernet address.
+	 *
+	 * @param text the text
+	 */
+	public void parseFailed(CharSequence text) {
+		if (!enabled) {
+			return;
+		}
+
+		parseFailures.increment();
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].parseFailed(text);
+		}
+	}
+
+	/**
+	 * Records a loaded configuration.
+	 *
+	 * @param file the configuration file
+	 * @param machines the number of machines loaded
+	 * @param start the start time of the load returned by {@link #time()}
+	 */
+	public void configurationLoaded(File file, int machines, long start) {
+		if (!enabled || 0 == start) {
+			return;
+		}
+
+		long nanos = System.nanoTime() - start;
+
+		configurationLoad.record(nanos);
+
+		MetricsListener[] current = listeners;
+
+		for (int i = 0; i < current.length; i++) {
+			current[i].configurationLoaded(file, machines, nanos);
+		}
+	}
+
+	public long getPacketsSent() {
+		return packetsSent.sum();
+	}
+
+	public long getSendErrors() {
+		return sendErrors.sum();
+	}
+
+	public long getParseFailures() {
+		return parseFailures.sum();
+	}
+
+	public long getResolveFailures() {
+		return resolveFailures.sum();
+	}
+
+	public HistogramSnapshot getSocketSend() {
+		return socketSend.getSnapshot();
+	}
+
+	public HistogramSnapshot getFrameBuild() {
+		return frameBuild.getSnapshot();
+	}
+
+	public HistogramSnapshot getHostResolution() {
+		return hostResolution.getSnapshot();
+	}
+
+	public HistogramSnapshot getConfigurationLoad() {
+		return configurationLoad.getSnapshot();
+	}
+
+	/**
+	 * Returns the histogram of the socket send times.
+	 *
+	 * @return the histogram
+	 */
+	public Histogram getSocketSendHistogram() {
+		return socketSend;
+	}
+
+	/**
+	 * Returns the histogram of the wakeup frame build times.
+	 *
+	 * @return the histogram
+	 */
+	public Histogram getFrameBuildHistogram() {
+		return frameBuild;
+	}
+
+	/**
+	 * Returns the histogram of the host name resolution times.
+	 *
+	 * @return the histogram
+	 */
+	public Histogram getHostResolutionHistogram() {
+		return hostResolution;
+	}
+
+	/**
+	 * Returns the histogram of the configuration load times.
+	 *
+	 * @return the histogram
+	 */
+	public Histogram getConfigurationLoadHistogram() {
+		return configurationLoad;
+	}
+
+	public void reset() {
+		packetsSent.reset();
+		sendErrors.reset();
+		parseFailures.reset();
+		resolveFailures.reset();
+		socketSend.reset();
+		frameBuild.reset();
+		hostResolution.reset();
+		configurationLoad.reset();
+	}
+
+	public String toString() {
+		return "packetsSent=" + getPacketsSent() + " sendErrors=" + getSendErrors() + " parseFailures=" + getParseFailures()
+				+ " resolveFailures=" + getResolveFailures() + " socketSend=[" + getSocketSend() + "] frameBuild=[" + getFrameBuild()
+				+ "] hostResolution=[" + getHostResolution() + "] configurationLoad=[" + getConfigurationLoad() + "]";
+	}
+}
+
+/*
+ * $Log$
+ */
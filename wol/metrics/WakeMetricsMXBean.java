@@ -0,0 +1,88 @@
+/*
+ * $Id$
+ */
+package wol.metrics;
+
+/**
+ * The management interface of {@link WakeMetrics}. All times are in nanoseconds.
+ */
+public interface WakeMetricsMXBean {
+	/**
+	 * Returns whether events are recorded.
+	 *
+	 * @return <code>true</code> if events are recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Sets whether events are recorded.
+	 *
+	 * @param enabled <code>true</code> to record events
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Returns the number of magic packets sent.
+	 *
+	 * @return the number of packets
+	 */
+	long getPacketsSent();
+
+	/**
+	 * Returns the number of magic packets which could not be sent.
+	 *
+	 * @return the number of send errors
+	 */
+	long getSendErrors();
+
+	/**
+	 * Returns the number of texts which could not be parsed as ethernet addresses.
+	 *
+	 * @return the number of parse failures
+	 */
+	long getParseFailures();
+
+	/**
+	 * Returns the number of host names which could not be resolved.
+	 *
+	 * @return the number of resolution failures
+	 */
+	long getResolveFailures();
+
+	/**
+	 * Returns the times of the socket sends.
+	 *
+	 * @return the snapshot
+	 */
+	HistogramSnapshot getSocketSend();
+
+	/**
+	 * Returns the times of the wakeup frame builds.
+	 *
+	 * @return the snapshot
+	 */
+	HistogramSnapshot getFrameBuild();
+
+	/**
+	 * Returns the times of the host name resolutions, successful or not.
+	 *
+	 * @return the snapshot
+	 */
+	HistogramSnapshot getHostResolution();
+
+	/**
+	 * Returns the times of the configuration loads.
+	 *
+	 * @return the snapshot
+	 */
+	HistogramSnapshot getConfigurationLoad();
+
+	/**
+	 * Resets all counters and histograms.
+	 */
+	void reset();
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,465 @@
+/*
+ * $Id$
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import wol.BroadcastFanout;
+import wol.HostCache;
+import wol.WakeSender;
+import wol.WakeUpUtil;
+import wol.configuration.Configuration;
+import wol.configuration.ConfigurationSnapshot;
+import wol.configuration.EthernetAddress;
+import wol.configuration.IllegalEthernetAddressException;
+import wol.configuration.MachineRecord;
+
+/**
+ * Headless program which wakes up the machines given as ethernet addresses or machine names, one
+ * per line, read from the arguments, from files or from standard input.
+ * <br>
+ * <br>
+ * <pre>
+ * java -cp wake-on-lan-tester.jar wolBatch [-c hosts file] [-h host] [-p port] [-q] [address | name | file | -]...
+ * </pre>
+ * An argument naming an existing file is read line by line, <code>-</code> reads standard input,
+ * any other argument is taken as a line itself. Without arguments standard input is read. Empty
+ * lines and lines starting with <code>#</code> are ignored.
+ * <br>
+ * <br>
+ * Ethernet addresses are woken up through the given host and port, by default the broadcast
+ * address and port 9. Names are looked up in the hosts file, by default
+ * <code>~/.wakeonlan.hosts</code>, which is only read once the first name is read. All packets
+ * are sent through one {@link WakeSender}, in batches of up to 256 lines; a batch is sent as soon
+ * as no further input is available, so interactive input is answered at once.
+ * <br>
+ * <br>
+ * One result is printed per line, tab separated: <code>OK</code>, the line, the ethernet address
+ * and the target, or <code>ERR</code>, the line and the reason. The exit code is 0 if every line
+ * was sent, 1 if a line failed, and 2 for illegal arguments. No AWT class is loaded.
+ *
+ * @see wolTester
+ */
+public class wolBatch {
+	private final static int BATCH = 256;
+
+	private final WakeSender sender;
+	private final PrintWriter out;
+	private final ByteBuffer frames = ByteBuffer.allocateDirect(BATCH * WakeUpUtil.FRAME_LENGTH);
+	private final String[] lines = new String[BATCH];
+	private final long[] ethernetAddresses = new long[BATCH];
+	private final SocketAddress[] targets = new SocketAddress[BATCH];
+	private final String[] reasons = new String[BATCH];
+	private SocketAddress target = new InetSocketAddress(WakeUpUtil.DEFAULT_HOST, WakeUpUtil.DEFAULT_PORT);
+	private File hostsFile = new File(System.getProperty("user.home"), ".wakeonlan.hosts");
+	private ConfigurationSnapshot snapshot;
+	private BroadcastFanout fanout;
+	private boolean quiet;
+	private int pending;
+	private int sent;
+	private int failed;
+
+	/**
+	 * Creates a new batch sending through the given sender.
+	 *
+	 * @param sender the open sender
+	 * @param out the writer results are printed to
+	 */
+	public wolBatch(WakeSender sender, PrintWriter out) {
+		super();
+		this.sender = sender;
+		this.out = out;
+	}
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * Runs the program.
+	 *
+	 * @param args the arguments, see {@link wolBatch}
+	 * @param in the standard input
+	 * @param stdout the stream results are printed to
+	 * @param stderr the stream usage errors and the summary are printed to
+	 * @return the exit code
+	 */
+	public static int run(String[] args, InputStream in, PrintStream stdout, PrintStream stderr) {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8), 64 * 1024));
+		WakeSender sender = new WakeSender();
+		wolBatch batch = new wolBatch(sender, out);
+		InetAddress host = WakeUpUtil.DEFAULT_HOST;
+		int port = WakeUpUtil.DEFAULT_PORT;
+		int i = 0;
+
+		try {
+			for (; i < args.length && args[i].startsWith("-") && 1 < args[i].length(); i++) {
+				String option = args[i];
+
+				if ("--".equals(option)) {
+					i++;
+					break;
+				} else if ("-q".equals(option)) {
+					batch.setQuiet(true);
+				} else if (i + 1 == args.length) {
+					return usage(stderr, "Missing value of " + option);
+				} else if ("-c".equals(option)) {
+					batch.setHostsFile(new File(args[++i]));
+				} else if ("-h".equals(option)) {
+					host = InetAddress.getByName(args[++i]);
+				} else if ("-p".equals(option)) {
+					port = Integer.parseInt(args[++i]);
+
+					if (port < 0 || port > 0xFFFF) {
+						return usage(stderr, "Port value out of range: " + port);
+					}
+				} else {
+					return usage(stderr, "Unknown option " + option);
+				}
+			}
+
+			batch.setTarget(new InetSocketAddress(host, port));
+		} catch (UnknownHostException e) {
+			return usage(stderr, "Unknown host " + e.getMessage());
+		} catch (NumberFormatException e) {
+			return usage(stderr, "Illegal port " + args[i]);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			sender.open();
+
+			if (i == args.length) {
+				batch.process(in);
+			}
+
+			for (; i < args.length; i++) {
+				File file = new File(args[i]);
+
+				if ("-".equals(args[i])) {
+					batch.process(in);
+				} else if (file.isFile()) {
+					InputStream fileIn = new FileInputStream(file);
+
+					try {
+						batch.process(fileIn);
+					} finally {
+						fileIn.close();
+					}
+				} else {
+					batch.wake(args[i]);
+				}
+			}
+
+			batch.flush();
+		} catch (IOException e) {
+			stderr.println("wolBatch: " + e);
+			return 1;
+		} finally {
+			batch.close();
+		}
+
+		if (!batch.isQuiet()) {
+			stderr.println("wolBatch: " + batch.getSent() + " sent, " + batch.getFailed() + " failed in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		}
+
+		return 0 == batch.getFailed() ? 0 : 1;
+	}
+
+	private static int usage(PrintStream stderr, String message) {
+		stderr.println("wolBatch: " + message);
+		stderr.println("Usage: wolBatch [-c hosts file] [-h host] [-p port] [-q] [address | name | file | -]...");
+		return 2;
+	}
+
+	/**
+	 * Sets the host and port ethernet addresses are woken up through.
+	 *
+	 * @param target the target, by default the broadcast address and port 9
+	 */
+	public void setTarget(SocketAddress target) {
+		this.target = target;
+	}
+
+	/**
+	 * Sets the hosts file names are looked up in.
+	 *
+	 * @param hostsFile the hosts file, by default <code>~/.wakeonlan.hosts</code>
+	 */
+	public void setHostsFile(File hostsFile) {
+		this.hostsFile = hostsFile;
+		this.snapshot = null;
+	}
+
+	/**
+	 * Returns whether only failed lines are printed.
+	 *
+	 * @return <code>true</code> if successful lines are not printed
+	 */
+	public boolean isQuiet() {
+		return quiet;
+	}
+
+	/**
+	 * Sets whether only failed lines are printed.
+	 *
+	 * @param quiet <code>true</code> to print failed lines only
+	 */
+	public void setQuiet(boolean quiet) {
+		this.quiet = quiet;
+	}
+
+	/**
+	 * Returns the number of lines sent so far.
+	 *
+	 * @return the number of lines sent
+	 */
+	public int getSent() {
+		return sent;
+	}
+
+	/**
+	 * Returns the number of lines failed so far.
+	 *
+	 * @return the number of lines failed
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Wakes up the machines of all lines of the given stream, which is read as UTF-8. The stream
+	 * is not closed.
+	 *
+	 * @param in the stream
+	 * @throws IOException if the stream could not be read
+	 */
+	public void process(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+		String line;
+
+		while (null != (line = reader.readLine())) {
+			wake(line);
+
+			if (0 < pending && !reader.ready()) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Wakes up the machine of the given line, an ethernet address or a machine name. The packet
+	 * is sent with the current batch.
+	 *
+	 * @param line the line
+	 */
+	public void wake(String line) {
+		int start = 0;
+		int end = line.length();
+
+		while (start < end && Character.isWhitespace(line.charAt(start))) {
+			start++;
+		}
+
+		while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+
+		if (start == end || '#' == line.charAt(start)) {
+			return;
+		}
+
+		String text = line.substring(start, end);
+		long ethernetAddress = EthernetAddress.parse(text, 0, text.length(), false);
+
+		if (EthernetAddress.INVALID != ethernetAddress) {
+			add(text, ethernetAddress, target);
+			return;
+		}
+
+		MachineRecord record;
+
+		try {
+			record = snapshot().findByName(text);
+		} catch (IOException e) {
+			fail(text, "Could not read " + hostsFile + ": " + e);
+			return;
+		}
+
+		if (null == record) {
+			fail(text, "No machine named '" + text + "' in " + hostsFile);
+		} else if (!record.hasValidEthernetAddress()) {
+			fail(text, "Illegal ethernet address '" + record.getEthernetAddressText() + "'");
+		} else if (record.isAutoHost()) {
+			flush();
+
+			try {
+				fanout().send(new EthernetAddress[] { new EthernetAddress(record.getEthernetAddress()) }, record.getPort());
+				ok(text, record.getEthernetAddress(), record.getHost());
+			} catch (IllegalEthernetAddressException e) {
+				fail(text, e.getMessage());
+			} catch (IOException e) {
+				fail(text, e.toString());
+			}
+		} else {
+			InetAddress address = HostCache.getDefault().getIfPresent(record.getHost());
+
+			// a host which is not cached is resolved in the background while the batch fills up
+			add(text, record.getEthernetAddress(), null == address ? InetSocketAddress.createUnresolved(record.getHost(), record.getPort())
+					: new InetSocketAddress(address, record.getPort()));
+		}
+	}
+
+	/**
+	 * Sends the current batch and prints its results.
+	 */
+	public void flush() {
+		for (int i = 0; i < pending; i++) {
+			if (null == targets[i]) {
+				printError(lines[i], reasons[i]);
+				lines[i] = null;
+				reasons[i] = null;
+				continue;
+			}
+
+			frames.limit((i + 1) * WakeUpUtil.FRAME_LENGTH);
+			frames.position(i * WakeUpUtil.FRAME_LENGTH);
+
+			try {
+				SocketAddress address = resolved(targets[i]);
+
+				sender.send(frames, address);
+				ok(lines[i], ethernetAddresses[i], address);
+			} catch (UnknownHostException e) {
+				printError(lines[i], "Unknown host " + ((InetSocketAddress) targets[i]).getHostString());
+			} catch (IOException e) {
+				printError(lines[i], e.toString());
+			}
+
+			lines[i] = null;
+			targets[i] = null;
+		}
+
+		frames.clear();
+		pending = 0;
+		out.flush();
+	}
+
+	/**
+	 * Sends the current batch and closes the sender.
+	 */
+	public void close() {
+		flush();
+
+		if (null != fanout) {
+			fanout.close();
+		}
+
+		try {
+			sender.close();
+		} catch (IOException e) {
+			// nothing left to send
+		}
+	}
+
+	private void add(String line, long ethernetAddress, SocketAddress address) {
+		frames.position(pending * WakeUpUtil.FRAME_LENGTH);
+		WakeUpUtil.createWakeupFrame(ethernetAddress, frames);
+
+		lines[pending] = line;
+		ethernetAddresses[pending] = ethernetAddress;
+		targets[pending] = address;
+
+		if (BATCH == ++pending) {
+			flush();
+		}
+	}
+
+	private void ok(String line, long ethernetAddress, Object address) {
+		sent++;
+
+		if (!quiet) {
+			out.print("OK\t");
+			out.print(line);
+			out.print('\t');
+			out.print(EthernetAddress.toString(ethernetAddress));
+			out.print('\t');
+			out.println(address);
+		}
+	}
+
+	/**
+	 * Queues the failure of the given line, so it is printed in the order of the input.
+	 */
+	private void fail(String line, String reason) {
+		lines[pending] = line;
+		targets[pending] = null;
+		reasons[pending] = reason;
+
+		if (BATCH == ++pending) {
+			flush();
+		}
+	}
+
+	private void printError(String line, String reason) {
+		failed++;
+		out.print("ERR\t");
+		out.print(line);
+		out.print('\t');
+		out.println(reason);
+	}
+
+	/**
+	 * Returns the given target with its host resolved. The hosts of a batch are resolved in
+	 * parallel, so the batch waits at most for the slowest of them.
+	 */
+	private static SocketAddress resolved(SocketAddress target) throws UnknownHostException {
+		if (!(target instanceof InetSocketAddress) || !((InetSocketAddress) target).isUnresolved()) {
+			return target;
+		}
+
+		InetSocketAddress unresolved = (InetSocketAddress) target;
+
+		return new InetSocketAddress(HostCache.getDefault().resolve(unresolved.getHostString()), unresolved.getPort());
+	}
+
+	/**
+	 * Returns the snapshot of the hosts file, loading it on first use. The file is only read, a
+	 * hosts file in the XML format is not converted.
+	 */
+	private ConfigurationSnapshot snapshot() throws IOException {
+		if (null == snapshot) {
+			snapshot = Configuration.readSnapshot(hostsFile);
+		}
+
+		return snapshot;
+	}
+
+	private BroadcastFanout fanout() {
+		if (null == fanout) {
+			fanout = new BroadcastFanout();
+		}
+
+		return fanout;
+	}
+}
+
+/*
+ * $Log$
+ */
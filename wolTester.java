@@ -8,27 +8,40 @@ import wol.configuration.IllegalEthernetAddressException;
 
 /**
  * Small program where you can enter an MAC address and send a wake on lan package to it.
+ * Given any arguments it runs the headless {@link wolBatch} instead.
  * 
  * @see wol.WakeUpUtil
  * @author Hallvard Nygard <hn@jaermuseet.no>
  */
 public class wolTester {
 	public static void main(String[] args) {
-		String mac = (String)JOptionPane.showInputDialog(
-					null,
-					"Enter MAC address to send a magic package:",
-					"Wake on lan Tester",
-					JOptionPane.PLAIN_MESSAGE
-				);
-		mac = mac.replace('.', ':').replace('-', ':');
-		try {
-			WakeUpUtil.wakeup(new EthernetAddress(mac));
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(null, "IOException " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
-		} catch (IllegalEthernetAddressException e) {
-			JOptionPane.showMessageDialog(null, "Invalid MAC address", "Error", JOptionPane.ERROR_MESSAGE);
-			main(args);
+		if (0 < args.length) {
+			wolBatch.main(args);
+			return;
+		}
+		
+		while (true) {
+			String mac = (String)JOptionPane.showInputDialog(
+						null,
+						"Enter MAC address to send a magic package:",
+						"Wake on lan Tester",
+						JOptionPane.PLAIN_MESSAGE
+					);
+			
+			if (null == mac) {
+				return;
+			}
+			
+			try {
+				WakeUpUtil.wakeup(new EthernetAddress(mac));
+				return;
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(null, "IOException " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+				e.printStackTrace();
+				return;
+			} catch (IllegalEthernetAddressException e) {
+				JOptionPane.showMessageDialog(null, "Invalid MAC address", "Error", JOptionPane.ERROR_MESSAGE);
+			}
 		}
 	}
 }